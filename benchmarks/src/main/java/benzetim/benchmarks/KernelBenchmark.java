@@ -0,0 +1,53 @@
+package benzetim.benchmarks;
+
+import benzetim.Simulator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Guest instructions per second of every engine on the kernels.
+// The "instructions" counter is reported as a rate next to the per run score.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KernelBenchmark {
+
+    @Param({"arith", "memcopy", "branchy", "calls"})
+    public String kernel;
+
+    @Param({"interp", "block", "jit"})
+    public String engine;
+
+    @Param({"4"})
+    public int shift;
+
+    private Simulator simulator;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long instructions;
+
+        @Setup(Level.Iteration)
+        public void clean() {
+            instructions = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        simulator = new Simulator(Kernels.CONFIG, Kernels.get(kernel, shift));
+        simulator.setEngine(Kernels.engine(engine));
+    }
+
+    @Benchmark
+    public long run(Counters counters) {
+        simulator.reset();
+        simulator.simulateProgram();
+        counters.instructions += simulator.getTotalProcessedInstruction();
+        return simulator.getTotalCycle();
+    }
+}
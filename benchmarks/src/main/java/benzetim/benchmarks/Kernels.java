@@ -0,0 +1,140 @@
+package benzetim.benchmarks;
+
+import benzetim.Config;
+import benzetim.Program;
+import benzetim.Simulator;
+
+// Representative guest programs for the benchmarks.
+// Loop counts are built as 0x7FF << shift, so every kernel runs roughly (0x7FF << shift) iterations.
+final class Kernels {
+
+    static final Config CONFIG = new Config(1000000, 1, 1, 1, 1, 1);
+
+    private Kernels() {
+    }
+
+    static Program get(String name, int shift) {
+        switch (name)
+        {
+            case "arith":
+                return arithmetic(shift);
+            case "memcopy":
+                return memoryCopy(shift);
+            case "branchy":
+                return branchy(shift);
+            case "calls":
+                return callChain(shift);
+            default:
+                throw new IllegalArgumentException("Unknown kernel " + name);
+        }
+    }
+
+    static int engine(String name) {
+        switch (name)
+        {
+            case "interp":
+                return Simulator.ENGINE_INTERPRETER;
+            case "block":
+                return Simulator.ENGINE_BLOCK;
+            case "jit":
+                return Simulator.ENGINE_JIT;
+            default:
+                throw new IllegalArgumentException("Unknown engine " + name);
+        }
+    }
+
+    // straight line R and I type arithmetic
+    static Program arithmetic(int shift) {
+        ProgramText text = new ProgramText();
+
+        text.op("addi x1 x0 0").constant("x2", 0x7FF, shift);
+        text.label("loop").branch("bge", "x1", "x2", "done");
+        text.op("add x3 x3 x1");
+        text.op("xor x4 x4 x3");
+        text.op("sub x5 x3 x4");
+        text.op("addi x6 x5 7");
+        text.op("and x7 x6 x3");
+        text.op("srai x8 x7 1");
+        text.op("xori x9 x8 55");
+        text.op("subi x10 x9 3");
+        text.op("addi x1 x1 1");
+        text.jump("loop");
+        text.label("done").op("SON");
+        return text.assemble();
+    }
+
+    // word copy between two buffers on different pages, after filling the source
+    static Program memoryCopy(int shift) {
+        ProgramText text = new ProgramText();
+
+        text.constant("x2", 0x7FF, shift);
+        text.constant("x11", 0x400, 6);    // source 0x10000
+        text.constant("x12", 0x400, 9);    // destination 0x80000
+        text.op("add x13 x11 x0");
+        text.op("addi x1 x0 0");
+        text.label("fill").branch("bge", "x1", "x2", "copy");
+        text.op("sw x13 x1 0");
+        text.op("addi x13 x13 4");
+        text.op("addi x1 x1 1");
+        text.jump("fill");
+        text.label("copy").op("addi x1 x0 0");
+        text.label("loop").branch("bge", "x1", "x2", "done");
+        text.op("lw x5 x11 0");
+        text.op("sw x12 x5 0");
+        text.op("addi x11 x11 4");
+        text.op("addi x12 x12 4");
+        text.op("addi x1 x1 1");
+        text.jump("loop");
+        text.label("done").op("SON");
+        return text.assemble();
+    }
+
+    // data dependent branches on a pseudo random sequence
+    static Program branchy(int shift) {
+        ProgramText text = new ProgramText();
+
+        text.op("addi x1 x0 0").constant("x2", 0x7FF, shift);
+        text.op("addi x3 x0 5A5");     // generator state
+        text.op("addi x7 x0 1");
+        text.op("addi x8 x0 2");
+        text.label("loop").branch("bge", "x1", "x2", "done");
+        text.op("srai x4 x3 3");
+        text.op("xor x3 x3 x4");
+        text.op("add x5 x3 x3");
+        text.op("xor x3 x3 x5");
+        text.op("addi x3 x3 2B");
+        text.op("and x6 x3 x7");
+        text.branch("beq", "x6", "x0", "even");
+        text.op("addi x10 x10 1");
+        text.label("even").branch("blt", "x3", "x0", "negative");
+        text.op("addi x11 x11 1");
+        text.label("negative").op("and x6 x3 x8");
+        text.branch("beq", "x6", "x8", "bit1");
+        text.op("addi x12 x12 1");
+        text.label("bit1").op("addi x1 x1 1");
+        text.jump("loop");
+        text.label("done").op("SON");
+        return text.assemble();
+    }
+
+    // three levels of jal calls returning with jalr
+    static Program callChain(int shift) {
+        ProgramText text = new ProgramText();
+
+        text.op("addi x10 x0 0").constant("x11", 0x7FF, shift);
+        text.label("loop").branch("bge", "x10", "x11", "done");
+        text.jal("x1", "f1");
+        text.op("addi x10 x10 1");
+        text.jump("loop");
+        text.label("done").op("SON");
+        text.label("f1").op("addi x20 x20 1");
+        text.jal("x2", "f2");
+        text.op("jalr x30 x1 0");
+        text.label("f2").op("addi x21 x21 1");
+        text.jal("x3", "f3");
+        text.op("jalr x30 x2 0");
+        text.label("f3").op("add x22 x22 x10");
+        text.op("jalr x30 x3 0");
+        return text.assemble();
+    }
+}
@@ -0,0 +1,102 @@
+package benzetim.benchmarks;
+
+import benzetim.Program;
+import benzetim.Simulator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Handler cost of every opcode: a loop whose body is the same instruction repeated COPIES times,
+// so the instruction rate is dominated by the measured opcode. Branches jump to the next instruction.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OpcodeBenchmark {
+
+    private static final int COPIES = 32;
+
+    @Param({"add", "sub", "xor", "and", "srl", "sra", "addi", "subi", "xori", "slti", "srai",
+            "lw", "lb", "sw", "sb", "beq", "bge", "blt", "jal", "jalr"})
+    public String opcode;
+
+    @Param({"interp", "block", "jit"})
+    public String engine;
+
+    private Simulator simulator;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long instructions;
+
+        @Setup(Level.Iteration)
+        public void clean() {
+            instructions = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        simulator = new Simulator(Kernels.CONFIG, program(opcode));
+        simulator.setEngine(Kernels.engine(engine));
+    }
+
+    @Benchmark
+    public long run(Counters counters) {
+        simulator.reset();
+        simulator.simulateProgram();
+        counters.instructions += simulator.getTotalProcessedInstruction();
+        return simulator.getTotalCycle();
+    }
+
+    static Program program(String opcode) {
+        ProgramText text = new ProgramText();
+
+        text.op("addi x1 x0 0").constant("x2", 0x7FF, 2);
+        text.constant("x5", 0x400, 6);     // data at 0x10000, away from the code page
+        text.op("addi x8 x0 123");
+        text.op("addi x9 x0 3");
+        text.label("loop").branch("bge", "x1", "x2", "done");
+        for (int i = 0; i < COPIES; i++)
+        {
+            text.op(instruction(opcode, text.pc()));
+        }
+        text.op("addi x1 x1 1");
+        text.jump("loop");
+        text.label("done").op("SON");
+        return text.assemble();
+    }
+
+    private static String instruction(String opcode, int pc) {
+        switch (opcode)
+        {
+            case "lw":
+            case "lb":
+                return opcode + " x7 x5 4";
+            case "sw":
+            case "sb":
+                return opcode + " x5 x8 4";
+            case "beq":     // taken
+                return "beq x8 x8 2";
+            case "bge":     // not taken
+                return "bge x9 x8 2";
+            case "blt":     // taken
+                return "blt x9 x8 2";
+            case "jal":
+                return "jal x7 2";
+            case "jalr":
+                return "jalr x7 x0 " + Integer.toHexString(pc + 4);
+            case "addi":
+            case "subi":
+            case "xori":
+            case "slti":
+            case "srai":
+                return opcode + " x7 x8 3";
+            default:
+                return opcode + " x7 x8 x9";
+        }
+    }
+}
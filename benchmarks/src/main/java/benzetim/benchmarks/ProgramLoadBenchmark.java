@@ -0,0 +1,76 @@
+package benzetim.benchmarks;
+
+import benzetim.Program;
+import benzetim.ProgramImage;
+import benzetim.Simulator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Program load throughput: assembling text, loading a binary image and copying the program into guest memory.
+// Run with -prof gc to see the allocation per load.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProgramLoadBenchmark {
+
+    private static final String[] LINE_FORMATS = {"add x%1$d x%2$d x%2$d", "addi x%d x%d %X", "lw x%d x%d %X", "sw x%d x%d %X", "beq x%d x%d %X"};
+
+    @Param({"1000", "100000"})
+    public int lines;
+
+    private byte[] text;
+    private Path image;
+    private Simulator simulator;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(1);
+        StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < lines; i++)
+        {
+            String format = LINE_FORMATS[random.nextInt(LINE_FORMATS.length)];
+            builder.append(i * 4).append(' ')
+                    .append(String.format(format, random.nextInt(32), random.nextInt(32), random.nextInt(0x800)))
+                    .append("   // generated\n");
+        }
+        builder.append(lines * 4).append(" SON\n");
+        text = builder.toString().getBytes(StandardCharsets.US_ASCII);
+
+        Program program = ProgramText.assemble(text);
+        image = Files.createTempFile("benzetim", ProgramImage.EXTENSION);
+        ProgramImage.write(program, image, null);
+        simulator = new Simulator(Kernels.CONFIG, program);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(image);
+    }
+
+    @Benchmark
+    public Program assembleText() {
+        return ProgramText.assemble(text);
+    }
+
+    @Benchmark
+    public Program loadImage() throws IOException {
+        return ProgramImage.load(image);
+    }
+
+    // clears the simulator and copies the program into memory again
+    @Benchmark
+    public Simulator reset() {
+        simulator.reset();
+        return simulator;
+    }
+}
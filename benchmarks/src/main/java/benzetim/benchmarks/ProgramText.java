@@ -0,0 +1,99 @@
+package benzetim.benchmarks;
+
+import benzetim.Assembler;
+import benzetim.Program;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Builds program text for the benchmark kernels, with labels so branch and jump offsets are computed.
+// Instructions are placed at consecutive word addresses starting at 0.
+// Branch targets must be forward, B type immediates are not sign extended.
+final class ProgramText {
+
+    // register used as link for plain jumps, x0 is writable in this ISA and must stay zero
+    static final String SCRATCH = "x31";
+
+    private final List<String> lines = new ArrayList<String>();
+    private final List<String> targets = new ArrayList<String>();     // label of a branch or jump line, null otherwise
+    private final Map<String, Integer> labels = new HashMap<String, Integer>();
+
+    int pc() {
+        return lines.size() * 4;
+    }
+
+    ProgramText label(String name) {
+        labels.put(name, pc());
+        return this;
+    }
+
+    // any instruction with its operands written as in a program file
+    ProgramText op(String line) {
+        lines.add(line);
+        targets.add(null);
+        return this;
+    }
+
+    // beq, bge or blt to a label
+    ProgramText branch(String mnemonic, String rs1, String rs2, String label) {
+        lines.add(mnemonic + " " + rs1 + " " + rs2);
+        targets.add(label);
+        return this;
+    }
+
+    ProgramText jal(String rd, String label) {
+        lines.add("jal " + rd);
+        targets.add(label);
+        return this;
+    }
+
+    ProgramText jump(String label) {
+        return jal(SCRATCH, label);
+    }
+
+    // loads a value up to 0x7FF shifted left by shift bits into rd
+    ProgramText constant(String rd, int value, int shift) {
+        op("addi " + rd + " x0 " + Integer.toHexString(value));
+        for (int i = 0; i < shift; i++)
+        {
+            op("add " + rd + " " + rd + " " + rd);
+        }
+        return this;
+    }
+
+    String build() {
+        StringBuilder text = new StringBuilder();
+
+        for (int i = 0; i < lines.size(); i++)
+        {
+            text.append(i * 4).append(' ').append(lines.get(i));
+            if (targets.get(i) != null)
+            {
+                int offset = (labels.get(targets.get(i)) - i * 4) / 2;
+                if (offset < 0 && !lines.get(i).startsWith("jal"))
+                {
+                    throw new IllegalStateException("backward branch to " + targets.get(i));
+                }
+                text.append(' ').append(Integer.toHexString(offset & 0xFFFFF));
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    Program assemble() {
+        return assemble(build().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    static Program assemble(byte[] text) {
+        try {
+            return Assembler.assemble(Channels.newChannel(new ByteArrayInputStream(text)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,429 @@
+package benzetim;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+// Streaming assembler for program text files.
+// The file is read in large chunks and every line is tokenized and parsed in place in the byte buffer,
+// so loading does not create strings per line. Malformed lines are collected with their line numbers
+// and reported together in an AssemblyException.
+//
+// Line format: <address> <instruction> <operands...>   // comment
+//   address is decimal, 0x / # hex or 0 prefixed octal (like Integer.decode)
+//   registers are written as x<n>, immediates are hex
+public final class Assembler {
+
+    public static class AssemblyException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public AssemblyException(String message) {
+            super(message);
+        }
+    }
+
+    // thrown inside a line and turned into a line error, no stack trace needed
+    private static class LineError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        LineError(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_REPORTED_ERRORS = 20;
+    private static final int SON = 127;
+
+    // mnemonics indexed by opcode
+    private static final byte[][] MNEMONICS = {
+        bytes("add"), bytes("sub"), bytes("addi"), bytes("subi"), bytes("xor"), bytes("xori"), bytes("and"), bytes("jalr"),
+        bytes("beq"), bytes("bge"), bytes("blt"), bytes("jal"), bytes("lw"), bytes("sw"), bytes("lb"), bytes("sb"),
+        bytes("srl"), bytes("sra"), bytes("slti"), bytes("srai"), bytes("amoadd"), bytes("amoswap"), bytes("fence")
+    };
+    private static final byte[] SON_MNEMONIC = bytes("SON");
+
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int lineStart;
+    private int lineEnd;
+    private int lineNumber = 0;
+    private int tokenStart;
+    private int tokenEnd;
+
+    private int count = 0;
+    private int[] addresses = new int[1024];
+    private int[] instructions = new int[1024];
+
+    private int errorCount = 0;
+    private final StringBuilder errors = new StringBuilder();
+
+    private Assembler() {
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // instruction name of an opcode, "SON" for the halt word
+    public static String getMnemonic(int opcode) {
+        if (opcode >= 0 && opcode < MNEMONICS.length)
+        {
+            return new String(MNEMONICS[opcode], StandardCharsets.US_ASCII);
+        }
+        return opcode == SON ? "SON" : "?" + opcode;
+    }
+
+    public static Program assemble(String programFileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(programFileName), StandardOpenOption.READ)) {
+            return assemble(channel);
+        }
+    }
+
+    public static Program assemble(ReadableByteChannel channel) throws IOException {
+        Assembler assembler = new Assembler();
+        assembler.read(channel);
+
+        if (assembler.errorCount > 0)
+        {
+            if (assembler.errorCount > MAX_REPORTED_ERRORS)
+            {
+                assembler.errors.append("... ").append(assembler.errorCount - MAX_REPORTED_ERRORS).append(" more\n");
+            }
+            throw new AssemblyException(assembler.errorCount + " malformed program line(s)\n" + assembler.errors);
+        }
+        return new Program(Arrays.copyOf(assembler.addresses, assembler.count), Arrays.copyOf(assembler.instructions, assembler.count));
+    }
+
+    // reads the channel chunk by chunk, the unfinished last line of a chunk is moved to the front of the buffer
+    private void read(ReadableByteChannel channel) throws IOException {
+        int filled = 0;
+
+        while (true)
+        {
+            if (filled == buffer.length)
+            {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);     // line longer than the buffer
+            }
+
+            int read = channel.read(ByteBuffer.wrap(buffer, filled, buffer.length - filled));
+            if (read < 0)
+            {
+                if (filled > 0)
+                {
+                    assembleLine(0, filled);    // last line without a line break
+                }
+                return;
+            }
+            filled += read;
+
+            int start = 0;
+            for (int i = 0; i < filled; i++)
+            {
+                if (buffer[i] == '\n')
+                {
+                    assembleLine(start, i);
+                    start = i + 1;
+                }
+            }
+
+            System.arraycopy(buffer, start, buffer, 0, filled - start);
+            filled -= start;
+        }
+    }
+
+    private void assembleLine(int start, int end) {
+        lineStart = start;
+        lineEnd = end;
+        tokenEnd = start;
+        lineNumber++;
+
+        try {
+            if (!nextToken())
+            {
+                return;     // empty or comment line
+            }
+            int address = parseAddress();
+
+            if (!nextToken())
+            {
+                throw new LineError("missing instruction");
+            }
+            int opcode = parseMnemonic();
+            int instruction = 0;
+
+            switch (opcode)
+            {
+                case 0:     // add, sub, xor, and, srl, sra, amoadd, amoswap
+                case 1:
+                case 4:
+                case 6:
+                case 16:
+                case 17:
+                case 20:
+                case 21:
+                    instruction = encodeRType(opcode, parseRegister(), parseRegister(), parseRegister());
+                    break;
+                case 2:     // addi, subi, xori, jalr, lw, lb, slti, srai
+                case 3:
+                case 5:
+                case 7:
+                case 12:
+                case 14:
+                case 18:
+                case 19:
+                    instruction = encodeIType(opcode, parseRegister(), parseRegister(), parseImmediate());
+                    break;
+                case 8:     // beq, bge, blt, sw, sb
+                case 9:
+                case 10:
+                case 13:
+                case 15:
+                    instruction = encodeBSType(opcode, parseRegister(), parseRegister(), parseImmediate());
+                    break;
+                case 11:    // jal
+                    instruction = encodeJType(opcode, parseRegister(), parseImmediate());
+                    break;
+                case 22:    // fence, no operands
+                    instruction = encodeRType(opcode, 0, 0, 0);
+                    break;
+                case SON:
+                    instruction = 0xFFFFFFFF;
+                    break;
+                default:
+                    throw new LineError("invalid instruction");
+            }
+
+            if (nextToken())
+            {
+                throw new LineError("unexpected operand");
+            }
+            addInstruction(address, instruction);
+        } catch (LineError e) {
+            errorCount++;
+            if (errorCount <= MAX_REPORTED_ERRORS)
+            {
+                String line = new String(buffer, lineStart, lineEnd - lineStart, StandardCharsets.ISO_8859_1).trim();
+                errors.append("line ").append(lineNumber).append(": ").append(e.getMessage()).append(": ").append(line).append('\n');
+            }
+        }
+    }
+
+    private void addInstruction(int address, int instruction) {
+        if (count == addresses.length)
+        {
+            addresses = Arrays.copyOf(addresses, count * 2);
+            instructions = Arrays.copyOf(instructions, count * 2);
+        }
+        addresses[count] = address;
+        instructions[count] = instruction;
+        count++;
+    }
+
+    /////
+
+    public static int encodeRType(int opcode, int rd, int rs1, int rs2) {
+        int instruction = 0;
+
+        instruction |= (0x7F & opcode);
+        instruction |= ((0x1F & rd) << 7);
+        instruction |= ((0x1F & rs1) << 15);
+        instruction |= ((0x1F & rs2) << 20);
+        return instruction;
+    }
+
+    public static int encodeIType(int opcode, int rd, int rs1, int imm) {
+        int instruction = 0;
+
+        instruction |= (0x7F & opcode);
+        instruction |= ((0x1F & rd) << 7);
+        instruction |= ((0x1F & rs1) << 15);
+        instruction |= ((0xFFF & imm) << 20);
+        return instruction;
+    }
+
+    // B and S types are encoded the same way
+    public static int encodeBSType(int opcode, int rs1, int rs2, int imm) {
+        int instruction = 0;
+
+        instruction |= (0x7F & opcode);
+        instruction |= ((0x1F & imm) << 7);         // first part of imm
+        instruction |= ((0x1F & rs1) << 15);
+        instruction |= ((0x1F & rs2) << 20);
+
+        int immPart2 = ((0xFE0 & imm) >> 5);
+        instruction |= ((0x7F & immPart2) << 25);   // second part of imm
+        return instruction;
+    }
+
+    public static int encodeJType(int opcode, int rd, int imm) {
+        int instruction = 0;
+
+        instruction |= (0x7F & opcode);
+        instruction |= ((0x1F & rd) << 7);
+        instruction |= ((0xFFFFF & imm) << 12);
+        return instruction;
+    }
+
+    /////
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private boolean isCommentStart(int pos) {
+        return buffer[pos] == '/' && pos + 1 < lineEnd && buffer[pos + 1] == '/';
+    }
+
+    // moves to the next token of the line, returns false at the end of the line or at a comment
+    private boolean nextToken() {
+        int pos = tokenEnd;
+
+        while (pos < lineEnd && isSpace(buffer[pos]))
+        {
+            pos++;
+        }
+        if (pos == lineEnd || isCommentStart(pos))
+        {
+            tokenStart = tokenEnd = lineEnd;
+            return false;
+        }
+
+        tokenStart = pos;
+        while (pos < lineEnd && !isSpace(buffer[pos]) && !isCommentStart(pos))
+        {
+            pos++;
+        }
+        tokenEnd = pos;
+        return true;
+    }
+
+    private void requireToken(String operand) {
+        if (!nextToken())
+        {
+            throw new LineError("missing " + operand);
+        }
+    }
+
+    private int parseMnemonic() {
+        int length = tokenEnd - tokenStart;
+
+        for (int opcode = 0; opcode < MNEMONICS.length; opcode++)
+        {
+            if (tokenEquals(MNEMONICS[opcode], length))
+            {
+                return opcode;
+            }
+        }
+        return tokenEquals(SON_MNEMONIC, length) ? SON : -1;
+    }
+
+    private boolean tokenEquals(byte[] name, int length) {
+        if (name.length != length)
+        {
+            return false;
+        }
+        for (int i = 0; i < length; i++)
+        {
+            if (buffer[tokenStart + i] != name[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // same forms as Integer.decode: decimal, 0x / 0X / # hex and 0 prefixed octal, with an optional sign
+    private int parseAddress() {
+        int pos = tokenStart;
+        boolean negative = false;
+        int radix = 10;
+
+        if (buffer[pos] == '-' || buffer[pos] == '+')
+        {
+            negative = buffer[pos] == '-';
+            pos++;
+        }
+        if (pos + 1 < tokenEnd && buffer[pos] == '0' && (buffer[pos + 1] == 'x' || buffer[pos + 1] == 'X'))
+        {
+            radix = 16;
+            pos += 2;
+        }
+        else if (pos < tokenEnd && buffer[pos] == '#')
+        {
+            radix = 16;
+            pos++;
+        }
+        else if (pos + 1 < tokenEnd && buffer[pos] == '0')
+        {
+            radix = 8;
+            pos++;
+        }
+
+        return parseNumber(pos, tokenEnd, radix, negative, "address");
+    }
+
+    private int parseRegister() {
+        requireToken("register");
+
+        int pos = tokenStart;
+        if (buffer[pos] == 'x')
+        {
+            pos++;
+        }
+
+        int register = parseNumber(pos, tokenEnd, 10, false, "register");
+        if (register > 31)
+        {
+            throw new LineError("invalid register");
+        }
+        return register;
+    }
+
+    // hex immediate with an optional sign
+    private int parseImmediate() {
+        requireToken("immediate");
+
+        int pos = tokenStart;
+        boolean negative = false;
+        if (buffer[pos] == '-' || buffer[pos] == '+')
+        {
+            negative = buffer[pos] == '-';
+            pos++;
+        }
+        return parseNumber(pos, tokenEnd, 16, negative, "immediate");
+    }
+
+    private int parseNumber(int pos, int end, int radix, boolean negative, String what) {
+        long value = 0;
+
+        if (pos >= end)
+        {
+            throw new LineError("invalid " + what);
+        }
+        for (; pos < end; pos++)
+        {
+            int digit = Character.digit(buffer[pos], radix);
+            if (digit < 0)
+            {
+                throw new LineError("invalid " + what);
+            }
+            value = value * radix + digit;
+            if (value > 0x80000000L)
+            {
+                throw new LineError(what + " out of range");
+            }
+        }
+
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE)
+        {
+            throw new LineError(what + " out of range");
+        }
+        return (int) value;
+    }
+}
@@ -0,0 +1,863 @@
+package benzetim;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+public class Benzetim {
+
+    // command line settings applied to every simulator
+    private static int engine = Simulator.ENGINE_INTERPRETER;
+    private static int jitThreshold = 1000;
+    private static boolean loopSkipping = true;
+    private static long memorySize = Simulator.DEFAULT_MEMORY_SIZE;
+    private static int misalignedPolicy = Memory.MISALIGNED_SPLIT;
+    private static String batchFile = null;
+    private static String imageCache = null;
+    private static String imageOutput = null;
+    private static String profileOutput = null;
+    private static String traceOutput = null;
+    private static long traceBufferSize = 16 << 20;
+    private static int tracePolicy = TraceRecorder.POLICY_BLOCK;
+    private static boolean traceCompress = false;
+    private static String replayFile = null;
+    private static String checkpointOutput = null;
+    private static long checkpointInstruction = Long.MAX_VALUE;
+    private static int checkpointPC = -1;
+    private static String restoreFile = null;
+    private static long sampleInterval = 0;
+    private static int sampleClusters = Sampler.DEFAULT_MAX_CLUSTERS;
+    private static long sampleWarmup = -1;     // one interval unless given
+    private static boolean sampleValidate = false;
+    private static boolean decoupled = false;
+    private static int hartCount = 1;
+    private static long hartQuantum = HartGroup.DEFAULT_QUANTUM;
+    private static int memoryModel = HartGroup.MODEL_QUANTUM;
+    private static String daemonSocket = null;
+    private static String sweepFile = null;
+    private static String resultCacheDirectory = null;
+    private static long resultCacheSize = ResultCache.DEFAULT_MAX_SIZE;
+    private static ResultCache resultCache = null;     // opened by main
+    private static String sweepOutput = DesignSweep.DEFAULT_OUTPUT;
+    private static String submitSocket = null;
+    private static Debugger debugger = null;       // --break and --watch, every simulator gets a copy
+
+    private static final Program EMPTY_PROGRAM = new Program(new int[0], new int[0]);
+    private static final String STOP_CHECKPOINT = "durma" + Checkpoint.EXTENSION;
+
+    public static Simulator createSimulator(Config config, Program program) {
+        Simulator simulator = new Simulator(config, program, memorySize);
+
+        simulator.setEngine(engine);
+        simulator.setJitThreshold(jitThreshold);
+        simulator.setLoopSkipping(loopSkipping);
+        simulator.getMemory().setMisalignedPolicy(misalignedPolicy);
+        if (profileOutput != null && batchFile == null)     // batch jobs are not profiled
+        {
+            simulator.setProfiler(new Profiler());
+        }
+        if (debugger != null && batchFile == null)
+        {
+            simulator.setDebugger(debugger.copy());
+        }
+        return simulator;
+    }
+
+    // reads a program text or image, text programs go through the image cache when --image-cache is given
+    public static Program readProgram(String programFileName) {
+        try {
+            return ProgramImage.read(programFileName, imageCache);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new Program(new int[0], new int[0]);
+        }
+    }
+
+    // runs up to --checkpoint-at / --checkpoint-pc and saves the state there, simulate continues from it
+    public static void writeCheckpoint(Simulator simulator) throws IOException {
+        if (!simulator.runUntil(checkpointInstruction, checkpointPC))
+        {
+            System.out.println("Kontrol noktasina ulasilmadan program bitti, kontrol noktasi yazilmadi");
+            return;
+        }
+
+        simulator.checkpoint().write(Paths.get(checkpointOutput));
+        System.out.println("Kontrol noktasi yazildi: " + checkpointOutput + " (" + simulator.getTotalProcessedInstruction()
+                + " buyruk, PC 0x" + Integer.toHexString(simulator.getPC()) + ")");
+    }
+
+    // a simulator that continues from a checkpoint instead of starting a program
+    public static Simulator createSimulator(Config config, Checkpoint checkpoint) {
+        Simulator simulator = createSimulator(config, EMPTY_PROGRAM);
+
+        simulator.restore(checkpoint);
+        return simulator;
+    }
+
+    // writes the hot spot report and the folded stacks of a profiled run
+    public static void writeProfile(Simulator simulator) throws IOException {
+        Profiler profiler = simulator.getProfiler();
+
+        if (profiler != null)
+        {
+            profiler.writeReport(profileOutput + ".txt");
+            profiler.writeFoldedStacks(profileOutput + ".folded");
+            System.out.println("Profil yazildi: " + profileOutput + ".txt, " + profileOutput + ".folded");
+        }
+    }
+
+    // runs the simulator, recording the instruction trace when --trace is given
+    public static void simulate(Simulator simulator) throws IOException {
+        if (checkpointOutput != null)
+        {
+            writeCheckpoint(simulator);
+        }
+        if (traceOutput == null)
+        {
+            simulator.simulateProgram();
+            reportStop(simulator);
+            return;
+        }
+
+        TraceRecorder tracer = new TraceRecorder(Paths.get(traceOutput), traceBufferSize, tracePolicy, traceCompress);
+        simulator.setTraceRecorder(tracer);
+        try {
+            simulator.simulateProgram();
+        } finally {
+            simulator.setTraceRecorder(null);
+            tracer.close();
+        }
+        System.out.println("Iz yazildi: " + traceOutput + " (" + tracer.getTotalRecords() + " kayit, " + tracer.getDroppedRecords() + " atlandi)");
+        reportStop(simulator);
+    }
+
+    // prints the state a breakpoint or watchpoint stopped the run in and saves it, --restore continues from there
+    public static void reportStop(Simulator simulator) throws IOException {
+        Debugger stopped = simulator.getDebugger();
+
+        if (stopped != null && stopped.hasStopped())
+        {
+            System.out.print(stopped.getReport(simulator));
+            simulator.checkpoint().write(Paths.get(STOP_CHECKPOINT));
+            System.out.println("Kontrol noktasi yazildi: " + STOP_CHECKPOINT);
+        }
+    }
+
+    // simulates the program once and ranks every config by execution time. With --result-cache the run is
+    // skipped when every config was cached
+    public static void compareConfigs(String programFile, String[] configFiles) throws IOException {
+        Config[] configs = readConfigs(configFiles);
+        byte[][] keys = isCacheable(programFile) ? new byte[configs.length][] : null;
+
+        if (keys != null)
+        {
+            long[] cycles = new long[configs.length];
+            ResultCache.Result result = null;
+            boolean cached = true;
+            for (int i = 0; i < configs.length; i++)
+            {
+                keys[i] = ResultCache.key(Paths.get(programFile), configs[i], memorySize, misalignedPolicy);
+                result = cached ? resultCache.get(keys[i]) : null;
+                cached = result != null;
+                cycles[i] = cached ? result.totalCycle : 0;
+            }
+            if (cached)
+            {
+                System.out.println("Sonuclar onbellekten alindi");
+                System.out.println("Yurutulen Toplam Buyruk Sayisi: " + result.totalProcessedInstruction);
+                printRanking(configFiles, configs, cycles);
+                return;
+            }
+        }
+
+        Program program = readProgram(programFile);
+
+        compareConfigs(config -> createSimulator(config, program), configFiles, configs, keys);
+    }
+
+    // the functional run does not depend on the config, one run serves every flat config.
+    // Configs with a timing model need a run of their own, with --decoupled they share the run and time it on threads.
+    // The results are stored under keys unless it is null
+    private static void compareConfigs(Function<Config, Simulator> factory, String[] configFiles, Config[] configs, byte[][] keys) throws IOException {
+        Simulator simulator = factory.apply(configs[0]);
+        int[] modelIndex = new int[configs.length];
+        DecoupledTiming sharedTiming = decoupled ? decoupleTiming(simulator, configs, modelIndex) : null;
+        long[] startTypeCount = simulator.getInstructionTypeCount();     // nonzero after a restore
+        try {
+            simulate(simulator);
+        } finally {
+            if (sharedTiming != null)
+            {
+                sharedTiming.close();
+            }
+        }
+        writeProfile(simulator);    // cycles of the first config
+        printTimingReport(simulator);
+        long[] instructionTypeCount = simulator.getInstructionTypeCount();
+        long[] cycles = new long[configs.length];
+
+        for (int i = 0; i < configs.length; i++)
+        {
+            if (sharedTiming != null && configs[i].hasTimingModel())
+            {
+                cycles[i] = configs[i].getCycles(startTypeCount) + sharedTiming.getCycles(modelIndex[i]);
+            }
+            else if (i == 0 && configs[i].hasTimingModel())
+            {
+                cycles[i] = simulator.getTotalCycle();
+            }
+            else if (configs[i].hasTimingModel())
+            {
+                Simulator timed = factory.apply(configs[i]);
+                timed.simulateProgram();
+                cycles[i] = timed.getTotalCycle();
+            }
+            else
+            {
+                cycles[i] = configs[i].getCycles(instructionTypeCount);
+            }
+        }
+
+        if (keys != null)
+        {
+            for (int i = 0; i < configs.length; i++)
+            {
+                resultCache.put(keys[i], new ResultCache.Result(cycles[i], simulator.getTotalProcessedInstruction(),
+                        configs[i].getExecutionTime(cycles[i]), instructionTypeCount, simulator.getRegisters()));
+            }
+        }
+
+        System.out.println("Yurutulen Toplam Buyruk Sayisi: " + simulator.getTotalProcessedInstruction());
+        printRanking(configFiles, configs, cycles);
+    }
+
+    // replaces the timing model of simulator with the models of every timed config on their own threads,
+    // modelIndex maps a config to its model. Null when no config is timed
+    private static DecoupledTiming decoupleTiming(Simulator simulator, Config[] configs, int[] modelIndex) {
+        List<TimingModel> models = new ArrayList<TimingModel>();
+
+        for (int i = 0; i < configs.length; i++)
+        {
+            if (configs[i].hasTimingModel())
+            {
+                modelIndex[i] = models.size();
+                models.add(configs[i].createTimingModel());
+            }
+        }
+        if (models.isEmpty())
+        {
+            return null;
+        }
+
+        DecoupledTiming timing = new DecoupledTiming(models.toArray(new TimingModel[0]));
+        simulator.setTimingModel(timing);
+        return timing;
+    }
+
+    // continues every config from the checkpoint, configFiles.length == 1 writes the register file like a normal run
+    public static void runFromCheckpoint(String checkpointFile, String[] configFiles) throws IOException {
+        Config[] configs = readConfigs(configFiles);
+        Checkpoint checkpoint = Checkpoint.read(Paths.get(checkpointFile));
+
+        System.out.println("Kontrol noktasi yuklendi: " + checkpointFile + " (" + checkpoint.getTotalProcessedInstruction()
+                + " buyruk, PC 0x" + Integer.toHexString(checkpoint.getPC()) + ")");
+        if (configs.length == 1)
+        {
+            runSingle(createSimulator(configs[0], checkpoint));
+        }
+        else
+        {
+            compareConfigs(config -> createSimulator(config, checkpoint), configFiles, configs, null);
+        }
+    }
+
+    // runs program on config, or prints the cached result of the same run with --result-cache
+    public static void runSingle(String programFile, String configFile) throws IOException {
+        Config config = Config.read(configFile);
+        byte[] key = null;
+
+        if (isCacheable(programFile))
+        {
+            key = ResultCache.key(Paths.get(programFile), config, memorySize, misalignedPolicy);
+            ResultCache.Result result = resultCache.get(key);
+            if (result != null)
+            {
+                Simulator.writeRegisterValues("cikti.txt", result.registers);
+                System.out.println("Sonuc onbellekten alindi");
+                System.out.println("Toplam Cevrim Sayisi: " + result.totalCycle);
+                System.out.println("Yurutulen Toplam Buyruk Sayisi: " + result.totalProcessedInstruction);
+                System.out.println("Toplam Yurutme Zamani: " + result.totalExecutionTime + " saniye");
+                return;
+            }
+        }
+
+        Simulator simulator = createSimulator(config, readProgram(programFile));
+        runSingle(simulator);
+        if (key != null)
+        {
+            resultCache.put(key, ResultCache.Result.of(simulator));
+        }
+    }
+
+    // results of runs that write a profile, trace or checkpoint are not cached, those files are the point of the run.
+    // Debugged runs may stop early
+    private static boolean isCacheable(String programFile) {
+        return resultCache != null && profileOutput == null && traceOutput == null && checkpointOutput == null && debugger == null
+                && !programFile.endsWith(Checkpoint.EXTENSION);
+    }
+
+    public static void runSingle(Simulator simulator) throws IOException {
+        DecoupledTiming decoupledTiming = null;
+
+        if (decoupled && simulator.getTimingModel() != null)
+        {
+            decoupledTiming = new DecoupledTiming(simulator.getTimingModel());
+            simulator.setTimingModel(decoupledTiming);
+        }
+        try {
+            simulate(simulator);
+        } finally {
+            if (decoupledTiming != null)
+            {
+                decoupledTiming.close();
+            }
+        }
+        simulator.writeRegisterValues("cikti.txt");
+        writeProfile(simulator);
+        printTimingReport(simulator);
+
+        System.out.println("Toplam Cevrim Sayisi: " + simulator.getTotalCycle());
+        System.out.println("Yurutulen Toplam Buyruk Sayisi: " + simulator.getTotalProcessedInstruction());
+        System.out.println("Toplam Yurutme Zamani: " + simulator.getTotalExecutionTime() + " saniye");
+    }
+
+    public static void printTimingReport(Simulator simulator) {
+        if (simulator.getTimingModel() != null)
+        {
+            System.out.println(simulator.getTimingModel().getReport());
+        }
+    }
+
+    // runs the program on --harts harts sharing one memory, hart i finds its id in x10
+    public static void runHarts(String programFile, String configFile) {
+        HartGroup group = new HartGroup(Config.read(configFile), readProgram(programFile), hartCount, memoryModel, hartQuantum, memorySize);
+        long cycles = 0;
+        long instructions = 0;
+        float time = 0;
+
+        group.getMemory().setMisalignedPolicy(misalignedPolicy);
+        for (int i = 0; i < group.getHartCount(); i++)
+        {
+            group.getHart(i).setEngine(engine);
+            group.getHart(i).setJitThreshold(jitThreshold);
+            group.getHart(i).setLoopSkipping(loopSkipping);
+            group.getHart(i).getMemory().setMisalignedPolicy(misalignedPolicy);
+        }
+        group.run();
+
+        System.out.printf("%-6s %15s %15s %22s\n", "Hart", "Cevrim", "Buyruk", "Yurutme Zamani (s)");
+        for (int i = 0; i < group.getHartCount(); i++)
+        {
+            Simulator hart = group.getHart(i);
+            System.out.printf("%-6d %15d %15d %22f\n", i, hart.getTotalCycle(), hart.getTotalProcessedInstruction(), hart.getTotalExecutionTime());
+            hart.writeRegisterValues(i == 0 ? "cikti.txt" : "cikti-hart" + i + ".txt");
+            cycles = Math.max(cycles, hart.getTotalCycle());
+            instructions += hart.getTotalProcessedInstruction();
+            time = Math.max(time, hart.getTotalExecutionTime());
+        }
+
+        System.out.println("Toplam Cevrim Sayisi: " + cycles);
+        System.out.println("Yurutulen Toplam Buyruk Sayisi: " + instructions);
+        System.out.println("Toplam Yurutme Zamani: " + time + " saniye");
+        System.out.println("Kuantum Sayisi: " + group.getQuanta());
+    }
+
+    // evaluates every point of a design space on one functional run of the program, see DesignSweep
+    public static void runSweep(String sweepFileName, String programFile) throws IOException {
+        DesignSweep sweep = new DesignSweep(sweepFileName);
+        Simulator simulator = createSimulator(new Config(1, 1, 1, 1, 1, 1), readProgram(programFile));
+
+        sweep.evaluate(simulator, traceCompress);
+        sweep.writeCsv(Paths.get(sweepOutput));
+
+        System.out.println("Yurutulen Toplam Buyruk Sayisi: " + sweep.getInstructions());
+        System.out.println("Taranan Nokta Sayisi: " + sweep.getPointCount() + ", sonuclar: " + sweepOutput);
+        System.out.println(sweep.getParetoReport());
+    }
+
+    // estimates every config from a few representative intervals, see Sampler. The error of a flat config is
+    // known from the profile, a timed config needs a full detailed run which --sample-validate adds
+    public static void runSampled(String programFile, String[] configFiles) {
+        Config[] configs = readConfigs(configFiles);
+        Sampler sampler = new Sampler(sampleInterval, sampleClusters);
+        Program program = readProgram(programFile);
+        Simulator simulator = createSimulator(configs[0], program);
+
+        if (sampleWarmup >= 0)
+        {
+            sampler.setWarmup(sampleWarmup);
+        }
+        simulator.setTimingModel(null);     // both passes are functional
+        sampler.profile(simulator);         // replaces a --profile observer
+        simulator.reset();
+        sampler.takeCheckpoints(simulator);
+
+        System.out.println("Yurutulen Toplam Buyruk Sayisi: " + sampler.getProfiledInstructions());
+        System.out.printf("Ornekleme: %d aralik x %d buyruk, %d ornek, %d buyruk isinma, ayrintili benzetilen buyruk orani %%%.3f\n", sampler.getIntervalCount(),
+                sampler.getIntervalLength(), sampler.getClusterCount(), sampler.getWarmup(),
+                100.0 * sampler.getSampledInstructions() / Math.max(1, sampler.getProfiledInstructions()));
+        System.out.printf("%-30s %8s %17s %15s %9s %22s\n", "Islemci", "Frekans", "Tahmini Cevrim", "Tam Cevrim", "Hata", "Tahmini Zaman (s)");
+        for (int i = 0; i < configs.length; i++)
+        {
+            long estimated = sampler.estimateCycles(configs[i]);
+            String full = "-";
+            String error = "-";
+            if (!configs[i].hasTimingModel() || sampleValidate)
+            {
+                long fullCycles = sampler.getFullCycles(configs[i]);
+                if (configs[i].hasTimingModel())
+                {
+                    Simulator detailed = createSimulator(configs[i], program);
+                    detailed.simulateProgram();
+                    fullCycles = detailed.getTotalCycle();
+                }
+                full = Long.toString(fullCycles);
+                error = String.format("%.3f%%", fullCycles == 0 ? 0.0 : 100.0 * (estimated - fullCycles) / fullCycles);
+            }
+            System.out.printf("%-30s %8d %17d %15s %9s %22s\n", configFiles[i], configs[i].getFrequency(), estimated, full,
+                    error, Float.toString(configs[i].getExecutionTime(estimated)));
+        }
+    }
+
+    // evaluates the configs on a recorded trace instead of running the program
+    public static void replayTrace(String traceFile, String[] configFiles) throws IOException {
+        Config[] configs = readConfigs(configFiles);
+        TraceReplay replay = new TraceReplay(Paths.get(traceFile));
+        long[] instructionTypeCount = replay.getInstructionTypeCount();
+        long[] cycles = new long[configs.length];
+
+        for (int i = 0; i < configs.length; i++)
+        {
+            TimingModel model = configs[i].createTimingModel();
+            cycles[i] = model == null ? configs[i].getCycles(instructionTypeCount) : replay.getCycles(model);
+        }
+
+        System.out.println("Yurutulen Toplam Buyruk Sayisi: " + replay.getTotalRecords());
+        if (replay.getDroppedRecords() > 0)
+        {
+            System.out.println("Uyari: izde " + replay.getDroppedRecords() + " kayit atlanmis, sonuclar eksik");
+        }
+        printRanking(configFiles, configs, cycles);
+    }
+
+    private static Config[] readConfigs(String[] configFiles) {
+        Config[] configs = new Config[configFiles.length];
+
+        for (int i = 0; i < configFiles.length; i++)
+        {
+            configs[i] = Config.read(configFiles[i]);
+        }
+        return configs;
+    }
+
+    // prints the configs sorted by execution time
+    private static void printRanking(String[] configFiles, Config[] configs, long[] cycles) {
+        int configCount = configs.length;
+        float[] executionTimes = new float[configCount];
+        Integer[] order = new Integer[configCount];
+
+        for (int i = 0; i < configCount; i++)
+        {
+            executionTimes[i] = configs[i].getExecutionTime(cycles[i]);
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> executionTimes[i]));
+
+        System.out.printf("%-5s %-30s %8s %15s %22s %14s\n", "Sira", "Islemci", "Frekans", "Cevrim Sayisi", "Yurutme Zamani (s)", "En Iyiye Gore");
+        for (int rank = 0; rank < configCount; rank++)
+        {
+            int i = order[rank];
+            System.out.printf("%-5d %-30s %8d %15d %22s %13.3fx\n", rank + 1, configFiles[i], configs[i].getFrequency(),
+                    cycles[i], Float.toString(executionTimes[i]), executionTimes[i] / executionTimes[order[0]]);
+        }
+
+        if (configCount == 2)
+        {
+            if (executionTimes[0] < executionTimes[1])
+            {
+                System.out.println("Islemci1’in basarimi Islemci2’nin basarimindan " + executionTimes[1] / executionTimes[0] + " kat daha yuksek.");
+            }
+            else
+            {
+                System.out.println("Islemci2’nin basarimi Islemci1’in basarimindan " + executionTimes[0] / executionTimes[1] + " kat daha yuksek.");
+            }
+        }
+    }
+
+    // runs every "program.txt config.txt" line of the batch file as an independent simulation
+    // on a work stealing pool, programs and configs are read once and shared between jobs
+    public static void runBatch(String batchFileName) throws IOException {
+        List<String[]> jobs = new ArrayList<String[]>();
+        Map<String, Program> programs = new HashMap<String, Program>();
+        Map<String, Checkpoint> checkpoints = new HashMap<String, Checkpoint>();
+        Map<String, Config> configs = new HashMap<String, Config>();
+
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(batchFileName));
+            String line = reader.readLine();
+
+            while (line != null) {
+                String[] data = line.trim().split("\\s+");
+                if (data.length == 2)
+                {
+                    jobs.add(data);
+                    if (!data[0].endsWith(Checkpoint.EXTENSION))
+                    {
+                        programs.computeIfAbsent(data[0], Benzetim::readProgram);
+                    }
+                    else if (!checkpoints.containsKey(data[0]))
+                    {
+                        checkpoints.put(data[0], Checkpoint.read(Paths.get(data[0])));    // shared by every job starting from it
+                    }
+                    configs.computeIfAbsent(data[1], Config::read);
+                }
+                else if (!line.trim().isEmpty())
+                {
+                    System.out.printf("Invalid batch line %s\n", line);
+                }
+                line = reader.readLine();
+            }
+            reader.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        ExecutorService pool = Executors.newWorkStealingPool();
+        List<Future<ResultCache.Result>> results = new ArrayList<Future<ResultCache.Result>>();
+        for (String[] job : jobs)
+        {
+            byte[] key = isCacheable(job[0]) ? ResultCache.key(Paths.get(job[0]), configs.get(job[1]), memorySize, misalignedPolicy) : null;
+            ResultCache.Result cached = key != null ? resultCache.get(key) : null;
+            if (cached != null)
+            {
+                results.add(CompletableFuture.completedFuture(cached));
+                continue;
+            }
+
+            Simulator simulator = checkpoints.containsKey(job[0]) ? createSimulator(configs.get(job[1]), checkpoints.get(job[0]))
+                    : createSimulator(configs.get(job[1]), programs.get(job[0]));
+            results.add(pool.submit(() -> {
+                simulator.simulateProgram();
+                ResultCache.Result result = ResultCache.Result.of(simulator);
+                if (key != null)
+                {
+                    resultCache.put(key, result);
+                }
+                return result;
+            }));
+        }
+
+        System.out.printf("%-30s %-30s %15s %15s %22s\n", "Program", "Islemci", "Cevrim Sayisi", "Buyruk Sayisi", "Yurutme Zamani (s)");
+        try {
+            for (int i = 0; i < jobs.size(); i++)
+            {
+                ResultCache.Result result = results.get(i).get();
+                System.out.printf("%-30s %-30s %15d %15d %22s\n", jobs.get(i)[0], jobs.get(i)[1], result.totalCycle,
+                        result.totalProcessedInstruction, Float.toString(result.totalExecutionTime));
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public static void applyOption(String option) {
+        String[] data = option.split("=", 2);
+        String value = data.length > 1 ? data[1] : "";
+
+        switch (data[0])
+        {
+            case "--engine":
+                if (value.equals("block"))
+                {
+                    engine = Simulator.ENGINE_BLOCK;
+                }
+                else if (value.equals("jit"))
+                {
+                    engine = Simulator.ENGINE_JIT;
+                }
+                else if (value.equals("interp"))
+                {
+                    engine = Simulator.ENGINE_INTERPRETER;
+                }
+                else
+                {
+                    System.out.printf("Invalid engine %s\n", value);
+                }
+                break;
+            case "--jit-threshold":
+                jitThreshold = Integer.parseInt(value);
+                break;
+            case "--loop-skip":
+                if (value.equals("off"))
+                {
+                    loopSkipping = false;
+                }
+                else if (value.equals("on"))
+                {
+                    loopSkipping = true;
+                }
+                else
+                {
+                    System.out.printf("Invalid loop skipping %s\n", value);
+                }
+                break;
+            case "--memory":
+                memorySize = Memory.parseSize(value);
+                break;
+            case "--misaligned":
+                if (value.equals("trap"))
+                {
+                    misalignedPolicy = Memory.MISALIGNED_TRAP;
+                }
+                else if (value.equals("split"))
+                {
+                    misalignedPolicy = Memory.MISALIGNED_SPLIT;
+                }
+                else
+                {
+                    System.out.printf("Invalid misaligned access policy %s\n", value);
+                }
+                break;
+            case "--batch":
+                batchFile = value;
+                break;
+            case "--image-cache":
+                imageCache = value;
+                break;
+            case "--assemble":
+                imageOutput = value;
+                break;
+            case "--trace":
+                traceOutput = value;
+                break;
+            case "--trace-buffer":
+                traceBufferSize = Memory.parseSize(value);
+                break;
+            case "--trace-policy":
+                if (value.equals("drop"))
+                {
+                    tracePolicy = TraceRecorder.POLICY_DROP;
+                }
+                else if (value.equals("block"))
+                {
+                    tracePolicy = TraceRecorder.POLICY_BLOCK;
+                }
+                else
+                {
+                    System.out.printf("Invalid trace policy %s\n", value);
+                }
+                break;
+            case "--trace-compress":
+                traceCompress = true;
+                break;
+            case "--replay":
+                replayFile = value;
+                break;
+            case "--checkpoint":
+                checkpointOutput = value;
+                break;
+            case "--checkpoint-at":
+                checkpointInstruction = Long.parseLong(value);
+                break;
+            case "--checkpoint-pc":
+                checkpointPC = (int) (long) Long.decode(value);
+                break;
+            case "--restore":
+                restoreFile = value;
+                break;
+            case "--sample":
+                sampleInterval = value.isEmpty() ? Sampler.DEFAULT_INTERVAL : Long.parseLong(value);
+                break;
+            case "--sample-clusters":
+                sampleClusters = Integer.parseInt(value);
+                break;
+            case "--sample-warmup":
+                sampleWarmup = Long.parseLong(value);
+                break;
+            case "--sample-validate":
+                sampleValidate = true;
+                break;
+            case "--decoupled":
+                decoupled = true;
+                break;
+            case "--result-cache":
+                resultCacheDirectory = value;
+                break;
+            case "--result-cache-size":
+                resultCacheSize = Memory.parseSize(value);
+                break;
+            case "--sweep":
+                sweepFile = value;
+                break;
+            case "--sweep-output":
+                sweepOutput = value;
+                break;
+            case "--daemon":
+                daemonSocket = value.isEmpty() ? SimulationDaemon.DEFAULT_SOCKET : value;
+                break;
+            case "--submit":
+                submitSocket = value.isEmpty() ? SimulationDaemon.DEFAULT_SOCKET : value;
+                break;
+            case "--harts":
+                hartCount = Integer.parseInt(value);
+                break;
+            case "--quantum":
+                hartQuantum = Long.parseLong(value);
+                break;
+            case "--memory-model":
+                if (value.equals("shared"))
+                {
+                    memoryModel = HartGroup.MODEL_SHARED;
+                }
+                else if (value.equals("quantum"))
+                {
+                    memoryModel = HartGroup.MODEL_QUANTUM;
+                }
+                else
+                {
+                    System.out.printf("Invalid memory model %s\n", value);
+                }
+                break;
+            case "--break":
+                getDebugger().addBreakpoint(value);
+                break;
+            case "--watch":
+                getDebugger().addWatchpoint(value);
+                break;
+            case "--profile":
+                profileOutput = value.isEmpty() ? "profil" : value;
+                break;
+            default:
+                System.out.printf("Invalid option %s\n", option);
+                break;
+        }
+    }
+
+    private static Debugger getDebugger() {
+        if (debugger == null)
+        {
+            debugger = new Debugger();
+        }
+        return debugger;
+    }
+
+    // applies --option arguments and returns the remaining positional arguments
+    public static String[] parseOptions(String[] args) {
+        ArrayList<String> positional = new ArrayList<String>();
+
+        for (String arg : args)
+        {
+            if (arg.startsWith("--"))
+            {
+                applyOption(arg);
+            }
+            else
+            {
+                positional.add(arg);
+            }
+        }
+
+        return positional.toArray(new String[0]);
+    }
+
+    public static void main(String[] args) {
+        String[] arguments = args;
+        args = parseOptions(args);
+
+        try {
+            if (resultCacheDirectory != null)
+            {
+                resultCache = new ResultCache(Paths.get(resultCacheDirectory), resultCacheSize);
+            }
+            if (daemonSocket != null) {
+                new SimulationDaemon(Paths.get(daemonSocket), Runtime.getRuntime().availableProcessors()).serve();
+            }
+            else if (submitSocket != null && args.length >= 1) {
+                // everything but --submit is the job, the daemon applies the options itself. Files are sent
+                // with absolute paths, the daemon may run in another directory
+                StringBuilder job = new StringBuilder();
+                for (String arg : arguments)
+                {
+                    if (arg.startsWith("--") || arg.equals("durdur"))
+                    {
+                        job.append(arg.startsWith("--submit") ? "" : arg + " ");
+                    }
+                    else
+                    {
+                        job.append(Paths.get(arg).toAbsolutePath()).append(' ');
+                    }
+                }
+                if (!SimulationDaemon.submit(Paths.get(submitSocket), job.toString().trim()))
+                {
+                    System.exit(1);
+                }
+            }
+            else if (sweepFile != null && args.length == 1) {
+                runSweep(sweepFile, args[0]);
+            }
+            else if (batchFile != null) {
+                runBatch(batchFile);
+            }
+            else if (sampleInterval > 0 && args.length >= 2) {
+                runSampled(args[0], Arrays.copyOfRange(args, 1, args.length));
+            }
+            else if (restoreFile != null && args.length >= 1) {
+                runFromCheckpoint(restoreFile, args);
+            }
+            else if (replayFile != null && args.length >= 1) {
+                replayTrace(replayFile, args);
+            }
+            else if (imageOutput != null && args.length == 1) {
+                Program program = readProgram(args[0]);
+                ProgramImage.write(program, Paths.get(imageOutput), ProgramImage.hashFile(Paths.get(args[0])));
+                System.out.println("Program imaji yazildi: " + imageOutput + " (" + program.size() + " buyruk)");
+            }
+            else if (hartCount > 1 && args.length == 2) {
+                runHarts(args[0], args[1]);
+            }
+            else if (args.length == 2) {
+                runSingle(args[0], args[1]);
+            }
+            else if (args.length >= 3) {
+                compareConfigs(args[0], Arrays.copyOfRange(args, 1, args.length));
+            }
+            else {
+                System.out.println("Incorrect usage. [java -jar benzetim.jar [--engine=interp|block|jit] [--jit-threshold=N] [--memory=1M|..|4G] [--misaligned=split|trap] [--image-cache=dir] [--profile=prefix] [--trace=file [--trace-compress] [--trace-policy=block|drop] [--trace-buffer=16M]] [--decoupled] [--result-cache=dir [--result-cache-size=64M]] program.txt islemci1-config.txt <islemci2-config.txt ...>]");
+                System.out.println("                 [java -jar benzetim.jar [options] --batch=jobs.txt]   (each line: program.txt config.txt)");
+                System.out.println("                 [java -jar benzetim.jar --assemble=program.bzim program.txt]   (images can be used in place of program.txt)");
+                System.out.println("                 [java -jar benzetim.jar --replay=trace.bin islemci1-config.txt <islemci2-config.txt ...>]   (evaluates configs on a recorded trace)");
+                System.out.println("                 [java -jar benzetim.jar --checkpoint=state.bzck --checkpoint-at=N|--checkpoint-pc=0x.. program.txt config.txt]");
+                System.out.println("                 [java -jar benzetim.jar --restore=state.bzck islemci1-config.txt <islemci2-config.txt ...>]   (checkpoints can also replace program.txt in --batch)");
+                System.out.println("                 [java -jar benzetim.jar --sample[=interval] [--sample-clusters=10] [--sample-warmup=N] [--sample-validate] program.txt islemci1-config.txt <islemci2-config.txt ...>]   (SimPoint style sampling)");
+                System.out.println("                 [java -jar benzetim.jar --sweep=tarama.txt [--sweep-output=tarama.csv] [--trace-compress] program.txt]   (design space sweep, Pareto front of time and cost)");
+                System.out.println("                 [java -jar benzetim.jar --daemon[=benzetim.sock]]   (serves jobs on a Unix socket, one job per line)");
+                System.out.println("                 [java -jar benzetim.jar --submit[=benzetim.sock] [--engine=..] program.txt islemci1-config.txt <islemci2-config.txt ...>|durdur]");
+                System.out.println("                 [java -jar benzetim.jar --break=PC[:xN==value] --watch=address[+length][:r|w|rw] program.txt config.txt]   (stops there, state in " + STOP_CHECKPOINT + ")");
+                System.out.println("                 [java -jar benzetim.jar --harts=N [--quantum=10000] [--memory-model=quantum|shared] program.txt config.txt]   (hart id in x10)");
+            }
+        } catch (Assembler.AssemblyException e) {
+            System.out.print("Program okunamadi: " + e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
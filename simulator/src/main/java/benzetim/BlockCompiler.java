@@ -0,0 +1,600 @@
+package benzetim;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Compiles hot basic blocks into JVM hidden classes.
+// Guest registers used by a block live in local variables and are written back to the
+// registers array only when the block exits, so C2 can register allocate the guest code.
+public class BlockCompiler {
+
+    interface CompiledBlock {
+        // returns (executed instruction count << 32) | next PC
+        long run(Simulator simulator, int[] registers);
+    }
+
+    private static final int REGISTER_LOCAL_BASE = 3;   // local 0: this, local 1: simulator, local 2: registers array
+    private static final AtomicInteger compiledClassCount = new AtomicInteger();
+
+    private final MethodHandles.Lookup lookup;
+    private final String className;
+
+    // constant pool, entries are kept encoded and deduplicated by a key
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final Map<String, Integer> poolIndex = new HashMap<String, Integer>();
+    private int poolCount = 1;
+
+    private byte[] code;
+    private int codeSize;
+    private List<Integer> frameTargets;
+    private boolean[] usedRegisters;
+    private boolean[] writtenRegisters;
+
+    private BlockCompiler(MethodHandles.Lookup lookup, String className) {
+        this.lookup = lookup;
+        this.className = className;
+    }
+
+    // ops holds (opcode, rd, rs1, rs2, imm) groups like the block translator produces,
+    // the last group is the exit instruction unless exitOpcode is -1
+    public static CompiledBlock compile(MethodHandles.Lookup lookup, int startPC, int[] ops, int length,
+                                        int exitOpcode, int takenPC, int fallThroughPC) throws ReflectiveOperationException {
+        String packageName = lookup.lookupClass().getPackageName();
+        String className = (packageName.isEmpty() ? "" : packageName.replace('.', '/') + "/") + "CompiledBlock_" + Integer.toHexString(startPC) + "_" + compiledClassCount.getAndIncrement();
+        BlockCompiler compiler = new BlockCompiler(lookup, className);
+        byte[] classBytes = compiler.generate(startPC, ops, length, exitOpcode, takenPC, fallThroughPC);
+
+        MethodHandles.Lookup hiddenLookup = lookup.defineHiddenClass(classBytes, true, MethodHandles.Lookup.ClassOption.NESTMATE);
+        return (CompiledBlock) hiddenLookup.lookupClass().getConstructor().newInstance();
+    }
+
+    /////
+
+    private byte[] generate(int startPC, int[] ops, int length, int exitOpcode, int takenPC, int fallThroughPC) {
+        String hostName = lookup.lookupClass().getName().replace('.', '/');
+        int bodyLength = exitOpcode == -1 ? length : length - 1;
+
+        int thisClass = classEntry(className);
+        int superClass = classEntry("java/lang/Object");
+        int interfaceClass = classEntry(CompiledBlock.class.getName().replace('.', '/'));
+        int codeName = utf8Entry("Code");
+        int stackMapName = utf8Entry("StackMapTable");
+        int initName = utf8Entry("<init>");
+        int initType = utf8Entry("()V");
+        int runName = utf8Entry("run");
+        int runType = utf8Entry("(L" + hostName + ";[I)J");
+        int objectInit = methodEntry("java/lang/Object", "<init>", "()V");
+
+        findRegisters(ops, length);
+
+        // run(Simulator, int[])
+        code = new byte[256];
+        codeSize = 0;
+        frameTargets = new ArrayList<Integer>();
+        for (int reg = 0; reg < 32; reg++)
+        {
+            if (usedRegisters[reg])
+            {
+                emit(0x2C);                 // aload_2
+                pushInt(reg);
+                emit(0x2E);                 // iaload
+                storeLocal(reg);
+            }
+        }
+
+        for (int i = 0; i < bodyLength; i++)
+        {
+            int base = i * 5;
+            emitBodyInstruction(hostName, startPC + i * 4, i, ops[base], ops[base + 1], ops[base + 2], ops[base + 3], ops[base + 4]);
+        }
+
+        int base = bodyLength * 5;
+        int exitPC = startPC + bodyLength * 4;
+        switch (exitOpcode)
+        {
+            case -1:
+                emitExit(length, exitPC);
+                break;
+            case 7:     // jalr
+                pushInt(exitPC + 4);
+                storeLocal(ops[base + 1]);
+                writeBack();
+                loadLocal(ops[base + 2]);
+                pushInt(ops[base + 4]);
+                emit(0x60);                 // iadd
+                emit(0x85);                 // i2l
+                emitLong(0xFFFFFFFFL);
+                emit(0x7F);                 // land
+                emitLong((long) length << 32);
+                emit(0x81);                 // lor
+                emit(0xAD);                 // lreturn
+                break;
+            case 8:     // beq
+            case 9:     // bge
+            case 10:    // blt
+                loadLocal(ops[base + 2]);
+                loadLocal(ops[base + 3]);
+                int branchPos = codeSize;
+                emit(exitOpcode == 8 ? 0xA0 : exitOpcode == 9 ? 0xA1 : 0xA2);   // if_icmpne, if_icmplt, if_icmpge
+                emitShort(0);
+                emitExit(length, takenPC);
+                patchBranch(branchPos, codeSize);
+                emitExit(length, fallThroughPC);
+                break;
+            case 11:    // jal
+                pushInt(exitPC + 4);
+                storeLocal(ops[base + 1]);
+                emitExit(length, takenPC);
+                break;
+            default:    // SON and invalid opcodes leave PC on the exit instruction
+                emitExit(length, exitPC);
+                break;
+        }
+        byte[] runCode = Arrays.copyOf(code, codeSize);
+        byte[] runFrames = stackMapTable(thisClass, classEntry(hostName));
+
+        // <init>()
+        codeSize = 0;
+        emit(0x2A);                         // aload_0
+        emit(0xB7);                         // invokespecial
+        emitShort(objectInit);
+        emit(0xB1);                         // return
+        byte[] initCode = Arrays.copyOf(code, codeSize);
+
+        try {
+            ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(classBytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(61);             // Java 17
+            out.writeShort(poolCount);
+            out.write(pool.toByteArray());
+            out.writeShort(0x0001 | 0x0010 | 0x0020);   // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(interfaceClass);
+            out.writeShort(0);              // fields
+            out.writeShort(2);              // methods
+            writeMethod(out, initName, initType, codeName, 1, 1, initCode, stackMapName, null);
+            writeMethod(out, runName, runType, codeName, 6, REGISTER_LOCAL_BASE + 32, runCode, stackMapName, runFrames);
+            out.writeShort(0);              // attributes
+            out.flush();
+            return classBytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void findRegisters(int[] ops, int length) {
+        usedRegisters = new boolean[32];
+        writtenRegisters = new boolean[32];
+
+        for (int i = 0; i < length; i++)
+        {
+            int base = i * 5;
+            int opcode = ops[base];
+            int rd = ops[base + 1];
+            int rs1 = ops[base + 2];
+            int rs2 = ops[base + 3];
+
+            switch (opcode)
+            {
+                case 0:
+                case 1:
+                case 4:
+                case 6:
+                case 16:
+                case 17:
+                    markRead(rs1);
+                    markRead(rs2);
+                    markWritten(rd);
+                    break;
+                case 2:
+                case 3:
+                case 5:
+                case 7:
+                case 12:
+                case 14:
+                case 19:
+                    markRead(rs1);
+                    markWritten(rd);
+                    break;
+                case 18:    // slti compares the register number, not its value
+                case 11:
+                    markWritten(rd);
+                    break;
+                case 8:
+                case 9:
+                case 10:
+                case 13:
+                case 15:
+                    markRead(rs1);
+                    markRead(rs2);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void markRead(int reg) {
+        usedRegisters[reg] = true;
+    }
+
+    private void markWritten(int reg) {
+        usedRegisters[reg] = true;
+        writtenRegisters[reg] = true;
+    }
+
+    private void emitBodyInstruction(String hostName, int pc, int index, int opcode, int rd, int rs1, int rs2, int imm) {
+        switch (opcode)
+        {
+            case 0:
+                emitRegisterOp(rd, rs1, rs2, 0x60);     // iadd
+                break;
+            case 1:
+                emitRegisterOp(rd, rs1, rs2, 0x64);     // isub
+                break;
+            case 2:
+                emitImmediateOp(rd, rs1, imm, 0x60);
+                break;
+            case 3:
+                emitImmediateOp(rd, rs1, imm, 0x64);
+                break;
+            case 4:
+                emitRegisterOp(rd, rs1, rs2, 0x82);     // ixor
+                break;
+            case 5:
+                emitImmediateOp(rd, rs1, imm, 0x82);
+                break;
+            case 6:
+                emitRegisterOp(rd, rs1, rs2, 0x7E);     // iand
+                break;
+            case 12:
+                emit(0x2B);                 // aload_1
+                emitAddress(rs1, imm);
+                emitInvokeVirtual(hostName, "loadWord", "(I)I");
+                storeLocal(rd);
+                break;
+            case 13:
+                emit(0x2B);
+                emitAddress(rs1, imm);
+                loadLocal(rs2);
+                emitInvokeVirtual(hostName, "storeWord", "(II)V");
+                emitFlushCheck(hostName, index + 1, pc + 4);
+                break;
+            case 14:
+                emit(0x2B);
+                emitAddress(rs1, imm);
+                emitInvokeVirtual(hostName, "loadByte", "(I)I");
+                storeLocal(rd);
+                break;
+            case 15:
+                emit(0x2B);
+                emitAddress(rs1, imm);
+                loadLocal(rs2);
+                emitInvokeVirtual(hostName, "storeByte", "(II)V");
+                emitFlushCheck(hostName, index + 1, pc + 4);
+                break;
+            case 16:
+                emitRegisterOp(rd, rs1, rs2, 0x7C);     // iushr
+                break;
+            case 17:
+                emitRegisterOp(rd, rs1, rs2, 0x7A);     // ishr
+                break;
+            case 18:
+                pushInt(rs1 < imm ? 1 : 0);
+                storeLocal(rd);
+                break;
+            case 19:
+                emitImmediateOp(rd, rs1, imm, 0x7A);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void emitRegisterOp(int rd, int rs1, int rs2, int operation) {
+        loadLocal(rs1);
+        loadLocal(rs2);
+        emit(operation);
+        storeLocal(rd);
+    }
+
+    private void emitImmediateOp(int rd, int rs1, int imm, int operation) {
+        loadLocal(rs1);
+        pushInt(imm);
+        emit(operation);
+        storeLocal(rd);
+    }
+
+    private void emitAddress(int rs1, int imm) {
+        loadLocal(rs1);
+        pushInt(imm);
+        emit(0x60);                         // iadd
+    }
+
+    private void emitInvokeVirtual(String owner, String name, String type) {
+        emit(0xB6);                         // invokevirtual
+        emitShort(methodEntry(owner, name, type));
+    }
+
+    // leaves the block right after a store that hit translated code
+    private void emitFlushCheck(String hostName, int executed, int nextPC) {
+        emit(0x2B);                         // aload_1
+        emit(0xB4);                         // getfield
+        emitShort(fieldEntry(hostName, "blockCacheFlushed", "Z"));
+        int branchPos = codeSize;
+        emit(0x99);                         // ifeq
+        emitShort(0);
+        emitExit(executed, nextPC);
+        patchBranch(branchPos, codeSize);
+    }
+
+    private void emitExit(int executed, int nextPC) {
+        writeBack();
+        emitLong(((long) executed << 32) | (nextPC & 0xFFFFFFFFL));
+        emit(0xAD);                         // lreturn
+    }
+
+    private void writeBack() {
+        for (int reg = 0; reg < 32; reg++)
+        {
+            if (writtenRegisters[reg])
+            {
+                emit(0x2C);                 // aload_2
+                pushInt(reg);
+                loadLocal(reg);
+                emit(0x4F);                 // iastore
+            }
+        }
+    }
+
+    private void patchBranch(int branchPos, int target) {
+        int offset = target - branchPos;
+        code[branchPos + 1] = (byte) (offset >> 8);
+        code[branchPos + 2] = (byte) offset;
+        frameTargets.add(target);
+    }
+
+    /////
+
+    private void loadLocal(int reg) {
+        emit(0x15);                         // iload
+        emit(REGISTER_LOCAL_BASE + reg);
+    }
+
+    private void storeLocal(int reg) {
+        emit(0x36);                         // istore
+        emit(REGISTER_LOCAL_BASE + reg);
+    }
+
+    private void pushInt(int value) {
+        if (value >= -1 && value <= 5)
+        {
+            emit(0x03 + value);             // iconst_<n>
+        }
+        else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+        {
+            emit(0x10);                     // bipush
+            emit(value);
+        }
+        else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+        {
+            emit(0x11);                     // sipush
+            emitShort(value);
+        }
+        else
+        {
+            emit(0x13);                     // ldc_w
+            emitShort(intEntry(value));
+        }
+    }
+
+    private void emitLong(long value) {
+        emit(0x14);                         // ldc2_w
+        emitShort(longEntry(value));
+    }
+
+    private void emit(int value) {
+        if (codeSize == code.length)
+        {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        code[codeSize++] = (byte) value;
+    }
+
+    private void emitShort(int value) {
+        emit(value >> 8);
+        emit(value);
+    }
+
+    // every branch target sees the same locals: this, the simulator, the registers array and the used registers
+    private byte[] stackMapTable(int thisClass, int hostClass) {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(frames);
+        TreeSet<Integer> targets = new TreeSet<Integer>(frameTargets);
+        int lastUsed = -1;
+        int arrayClass = classEntry("[I");
+
+        for (int reg = 0; reg < 32; reg++)
+        {
+            if (usedRegisters[reg])
+            {
+                lastUsed = reg;
+            }
+        }
+
+        try {
+            out.writeShort(targets.size());
+            int previous = -1;
+            for (int target : targets)
+            {
+                out.writeByte(255);         // full_frame
+                out.writeShort(target - previous - 1);
+                out.writeShort(REGISTER_LOCAL_BASE + lastUsed + 1);
+                out.writeByte(7);           // Object_variable_info
+                out.writeShort(thisClass);
+                out.writeByte(7);
+                out.writeShort(hostClass);
+                out.writeByte(7);
+                out.writeShort(arrayClass);
+                for (int reg = 0; reg <= lastUsed; reg++)
+                {
+                    out.writeByte(usedRegisters[reg] ? 1 : 0);  // Integer or Top
+                }
+                out.writeShort(0);          // empty stack
+                previous = target;
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return targets.isEmpty() ? null : frames.toByteArray();
+    }
+
+    private void writeMethod(DataOutputStream out, int name, int type, int codeName, int maxStack, int maxLocals,
+                             byte[] methodCode, int stackMapName, byte[] frames) throws IOException {
+        int attributeLength = 12 + methodCode.length + (frames == null ? 0 : 6 + frames.length);
+
+        out.writeShort(0x0001);             // public
+        out.writeShort(name);
+        out.writeShort(type);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(attributeLength);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(methodCode.length);
+        out.write(methodCode);
+        out.writeShort(0);                  // exception table
+        if (frames == null)
+        {
+            out.writeShort(0);
+        }
+        else
+        {
+            out.writeShort(1);
+            out.writeShort(stackMapName);
+            out.writeInt(frames.length);
+            out.write(frames);
+        }
+    }
+
+    /////
+
+    private int utf8Entry(String value) {
+        Integer index = poolIndex.get("U" + value);
+        if (index != null)
+        {
+            return index;
+        }
+
+        try {
+            DataOutputStream out = new DataOutputStream(pool);
+            out.writeByte(1);
+            out.writeUTF(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return addEntry("U" + value, 1);
+    }
+
+    private int classEntry(String name) {
+        Integer index = poolIndex.get("C" + name);
+        if (index != null)
+        {
+            return index;
+        }
+
+        int nameIndex = utf8Entry(name);
+        pool.write(7);
+        writePoolShort(nameIndex);
+        return addEntry("C" + name, 1);
+    }
+
+    private int nameAndTypeEntry(String name, String type) {
+        Integer index = poolIndex.get("N" + name + ":" + type);
+        if (index != null)
+        {
+            return index;
+        }
+
+        int nameIndex = utf8Entry(name);
+        int typeIndex = utf8Entry(type);
+        pool.write(12);
+        writePoolShort(nameIndex);
+        writePoolShort(typeIndex);
+        return addEntry("N" + name + ":" + type, 1);
+    }
+
+    private int methodEntry(String owner, String name, String type) {
+        return memberEntry(10, owner, name, type);
+    }
+
+    private int fieldEntry(String owner, String name, String type) {
+        return memberEntry(9, owner, name, type);
+    }
+
+    private int memberEntry(int tag, String owner, String name, String type) {
+        String key = "M" + tag + owner + "." + name + ":" + type;
+        Integer index = poolIndex.get(key);
+        if (index != null)
+        {
+            return index;
+        }
+
+        int ownerIndex = classEntry(owner);
+        int nameAndType = nameAndTypeEntry(name, type);
+        pool.write(tag);
+        writePoolShort(ownerIndex);
+        writePoolShort(nameAndType);
+        return addEntry(key, 1);
+    }
+
+    private int intEntry(int value) {
+        Integer index = poolIndex.get("I" + value);
+        if (index != null)
+        {
+            return index;
+        }
+
+        pool.write(3);
+        writePoolShort(value >> 16);
+        writePoolShort(value);
+        return addEntry("I" + value, 1);
+    }
+
+    private int longEntry(long value) {
+        Integer index = poolIndex.get("J" + value);
+        if (index != null)
+        {
+            return index;
+        }
+
+        pool.write(5);
+        writePoolShort((int) (value >> 48));
+        writePoolShort((int) (value >> 32));
+        writePoolShort((int) (value >> 16));
+        writePoolShort((int) value);
+        return addEntry("J" + value, 2);    // long constants take two slots
+    }
+
+    private void writePoolShort(int value) {
+        pool.write((value >> 8) & 0xFF);
+        pool.write(value & 0xFF);
+    }
+
+    private int addEntry(String key, int slots) {
+        int index = poolCount;
+        poolIndex.put(key, index);
+        poolCount += slots;
+        return index;
+    }
+}
@@ -0,0 +1,260 @@
+package benzetim;
+
+import java.util.Arrays;
+
+// Branch direction predictor with an optional branch target buffer, for the timing models.
+//  - static: always not taken
+//  - bimodal: 2 bit saturating counters indexed by PC bits
+//  - gshare: the same counters indexed by PC bits xor the global history
+// The BTB is direct mapped and predicts the targets of jal, jalr and taken branches.
+// All tables are primitive arrays, per PC statistics use an open addressing table.
+public final class BranchPredictor {
+
+    public static final int STATIC_NOT_TAKEN = 0;
+    public static final int BIMODAL = 1;
+    public static final int GSHARE = 2;
+
+    private static final String[] NAMES = {"statik", "bimodal", "gshare"};
+    private static final int REPORTED_BRANCHES = 5;
+
+    public static final class Spec {
+        public static final Spec STATIC = new Spec(STATIC_NOT_TAKEN, 1, 0, 0);
+
+        public final int kind;
+        public final int entries;       // counters, power of two
+        public final int historyBits;   // gshare only
+        public final int btbEntries;    // power of two, 0 without BTB
+
+        public Spec(int kind, int entries, int historyBits, int btbEntries) {
+            if (kind < STATIC_NOT_TAKEN || kind > GSHARE)
+            {
+                throw new IllegalArgumentException("Invalid branch predictor " + kind);
+            }
+            if (Integer.bitCount(entries) != 1 || (btbEntries != 0 && Integer.bitCount(btbEntries) != 1)
+                    || historyBits < 0 || historyBits > 30)
+            {
+                throw new IllegalArgumentException("Predictor and BTB sizes must be powers of two: " + entries + ", " + btbEntries);
+            }
+            this.kind = kind;
+            this.entries = entries;
+            this.historyBits = historyBits;
+            this.btbEntries = btbEntries;
+        }
+    }
+
+    private final Spec spec;
+    private final byte[] counters;      // 0, 1 predict not taken, 2, 3 taken
+    private final int counterMask;
+    private final int historyMask;
+    private int history;
+    private final int[] btbPCs;
+    private final int[] btbTargets;
+    private final boolean[] btbValid;
+    private final int btbMask;
+
+    private long branches;
+    private long mispredictions;
+    private long targetLookups;
+    private long targetMisses;
+
+    // per PC statistics, a slot is free while its count is 0
+    private int[] statPCs = new int[256];
+    private long[] statCounts = new long[256];
+    private long[] statMisses = new long[256];
+    private int statUsed;
+
+    public BranchPredictor(Spec spec) {
+        this.spec = spec;
+        this.counters = new byte[spec.entries];
+        this.counterMask = spec.entries - 1;
+        this.historyMask = (1 << spec.historyBits) - 1;
+        this.btbPCs = new int[spec.btbEntries];
+        this.btbTargets = new int[spec.btbEntries];
+        this.btbValid = new boolean[spec.btbEntries];
+        this.btbMask = spec.btbEntries - 1;
+        reset();
+    }
+
+    public void reset() {
+        Arrays.fill(counters, (byte) 1);    // weakly not taken
+        history = 0;
+        Arrays.fill(btbValid, false);
+        branches = 0;
+        mispredictions = 0;
+        targetLookups = 0;
+        targetMisses = 0;
+        Arrays.fill(statCounts, 0);
+        Arrays.fill(statMisses, 0);
+        statUsed = 0;
+    }
+
+    public boolean hasBTB() {
+        return spec.btbEntries > 0;
+    }
+
+    // conditional branch at pc with its outcome, trains the predictor and returns true on a misprediction
+    public boolean branch(int pc, boolean taken) {
+        boolean predicted = false;
+
+        if (spec.kind != STATIC_NOT_TAKEN)
+        {
+            int index = spec.kind == GSHARE ? ((pc >>> 2) ^ history) & counterMask : (pc >>> 2) & counterMask;
+            int counter = counters[index];
+            predicted = counter >= 2;
+            counters[index] = (byte) (taken ? Math.min(3, counter + 1) : Math.max(0, counter - 1));
+            history = ((history << 1) | (taken ? 1 : 0)) & historyMask;
+        }
+
+        boolean mispredicted = predicted != taken;
+        branches++;
+        if (mispredicted)
+        {
+            mispredictions++;
+        }
+        countBranch(pc, mispredicted);
+        return mispredicted;
+    }
+
+    // looks up the BTB for a jump or taken branch, updates it and returns true when it had the right target
+    public boolean target(int pc, int target) {
+        if (!hasBTB())
+        {
+            return false;
+        }
+
+        int index = (pc >>> 2) & btbMask;
+        boolean hit = btbValid[index] && btbPCs[index] == pc && btbTargets[index] == target;
+        btbValid[index] = true;
+        btbPCs[index] = pc;
+        btbTargets[index] = target;
+        targetLookups++;
+        if (!hit)
+        {
+            targetMisses++;
+        }
+        return hit;
+    }
+
+    private void countBranch(int pc, boolean mispredicted) {
+        int mask = statPCs.length - 1;
+        int slot = (pc * 0x9E3779B1) >>> 8 & mask;
+
+        while (statCounts[slot] != 0 && statPCs[slot] != pc)
+        {
+            slot = (slot + 1) & mask;
+        }
+        if (statCounts[slot] == 0)
+        {
+            statPCs[slot] = pc;
+            if (++statUsed * 2 > statPCs.length)
+            {
+                statCounts[slot] = 1;
+                statMisses[slot] = mispredicted ? 1 : 0;
+                growStats();
+                return;
+            }
+        }
+        statCounts[slot]++;
+        if (mispredicted)
+        {
+            statMisses[slot]++;
+        }
+    }
+
+    private void growStats() {
+        int[] oldPCs = statPCs;
+        long[] oldCounts = statCounts;
+        long[] oldMisses = statMisses;
+        int mask = oldPCs.length * 2 - 1;
+
+        statPCs = new int[oldPCs.length * 2];
+        statCounts = new long[oldPCs.length * 2];
+        statMisses = new long[oldPCs.length * 2];
+        for (int i = 0; i < oldPCs.length; i++)
+        {
+            if (oldCounts[i] != 0)
+            {
+                int slot = (oldPCs[i] * 0x9E3779B1) >>> 8 & mask;
+                while (statCounts[slot] != 0)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                statPCs[slot] = oldPCs[i];
+                statCounts[slot] = oldCounts[i];
+                statMisses[slot] = oldMisses[i];
+            }
+        }
+    }
+
+    public long getBranches() {
+        return branches;
+    }
+
+    public long getMispredictions() {
+        return mispredictions;
+    }
+
+    public long getTargetMisses() {
+        return targetMisses;
+    }
+
+    public double getAccuracy() {
+        return branches == 0 ? 0 : 1 - (double) mispredictions / branches;
+    }
+
+    // executions and mispredictions of the branch at pc
+    public long getBranchCount(int pc) {
+        int slot = findStat(pc);
+        return slot < 0 ? 0 : statCounts[slot];
+    }
+
+    public long getBranchMispredictions(int pc) {
+        int slot = findStat(pc);
+        return slot < 0 ? 0 : statMisses[slot];
+    }
+
+    private int findStat(int pc) {
+        int mask = statPCs.length - 1;
+        int slot = (pc * 0x9E3779B1) >>> 8 & mask;
+
+        while (statCounts[slot] != 0)
+        {
+            if (statPCs[slot] == pc)
+            {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    // totals and the branches with the most mispredictions
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+
+        report.append(String.format("Dallanma ongorucusu (%s): %d dallanma, %d yanlis tahmin, dogruluk %%%.2f", NAMES[spec.kind],
+                branches, mispredictions, 100 * getAccuracy()));
+        if (hasBTB())
+        {
+            report.append(String.format(", BTB: %d hedef, %d iska", targetLookups, targetMisses));
+        }
+
+        Integer[] slots = new Integer[statUsed];
+        int count = 0;
+        for (int slot = 0; slot < statPCs.length; slot++)
+        {
+            if (statCounts[slot] != 0 && statMisses[slot] != 0)
+            {
+                slots[count++] = slot;
+            }
+        }
+        Arrays.sort(slots, 0, count, (a, b) -> Long.compare(statMisses[b], statMisses[a]));
+        for (int i = 0; i < Math.min(count, REPORTED_BRANCHES); i++)
+        {
+            int slot = slots[i];
+            report.append(String.format("\n  0x%x: %d kez, %d yanlis, dogruluk %%%.2f", statPCs[slot], statCounts[slot], statMisses[slot],
+                    100 - 100.0 * statMisses[slot] / statCounts[slot]));
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,149 @@
+package benzetim;
+
+import java.util.Arrays;
+
+// Set associative cache model, only tags are kept since the functional model already has the data.
+// Tags and replacement stamps are flat arrays indexed by set * ways + way.
+public final class Cache {
+
+    public static final int POLICY_LRU = 0;
+    public static final int POLICY_FIFO = 1;
+    public static final int POLICY_RANDOM = 2;
+
+    // cache geometry and latencies, hitLatency and missLatency are cycles added to the access
+    public static final class Spec {
+        public final int size;
+        public final int ways;
+        public final int lineSize;
+        public final int policy;
+        public final int hitLatency;
+        public final int missLatency;
+
+        public Spec(int size, int ways, int lineSize, int policy, int hitLatency, int missLatency) {
+            if (Integer.bitCount(size) != 1 || Integer.bitCount(lineSize) != 1 || lineSize < 4 || ways <= 0
+                    || size % (ways * lineSize) != 0 || Integer.bitCount(size / (ways * lineSize)) != 1)
+            {
+                throw new IllegalArgumentException("Invalid cache geometry: " + size + " bytes, " + ways + " ways, " + lineSize + " byte lines");
+            }
+            if (policy < POLICY_LRU || policy > POLICY_RANDOM)
+            {
+                throw new IllegalArgumentException("Invalid cache replacement policy " + policy);
+            }
+            this.size = size;
+            this.ways = ways;
+            this.lineSize = lineSize;
+            this.policy = policy;
+            this.hitLatency = hitLatency;
+            this.missLatency = missLatency;
+        }
+    }
+
+    private final Spec spec;
+    private final int lineShift;
+    private final int setMask;
+    private final int[] lines;      // line number + 1 of every way, 0 is an empty way
+    private final long[] stamps;    // last use for LRU, fill time for FIFO
+    private long clock;
+    private int random;
+    private long hits;
+    private long misses;
+
+    public Cache(Spec spec) {
+        this.spec = spec;
+        this.lineShift = Integer.numberOfTrailingZeros(spec.lineSize);
+        this.setMask = spec.size / (spec.ways * spec.lineSize) - 1;
+        this.lines = new int[spec.size / spec.lineSize];
+        this.stamps = new long[lines.length];
+        reset();
+    }
+
+    public void reset() {
+        Arrays.fill(lines, 0);
+        Arrays.fill(stamps, 0);
+        clock = 0;
+        random = 0x2545F491;
+        hits = 0;
+        misses = 0;
+    }
+
+    // looks up the line of address and fills it on a miss, returns true on a hit
+    public boolean access(int address) {
+        int line = (address >>> lineShift) + 1;
+        int base = ((line - 1) & setMask) * spec.ways;
+        int end = base + spec.ways;
+
+        clock++;
+        for (int way = base; way < end; way++)
+        {
+            if (lines[way] == line)
+            {
+                if (spec.policy == POLICY_LRU)
+                {
+                    stamps[way] = clock;
+                }
+                hits++;
+                return true;
+            }
+        }
+
+        lines[victim(base, end)] = line;
+        misses++;
+        return false;
+    }
+
+    // cycles the access adds
+    public int latency(int address) {
+        return access(address) ? spec.hitLatency : spec.missLatency;
+    }
+
+    private int victim(int base, int end) {
+        int victim = base;
+
+        for (int way = base; way < end; way++)
+        {
+            if (lines[way] == 0)
+            {
+                stamps[way] = clock;
+                return way;
+            }
+            if (stamps[way] < stamps[victim])
+            {
+                victim = way;
+            }
+        }
+
+        if (spec.policy == POLICY_RANDOM)
+        {
+            random ^= random << 13;     // xorshift, the same sequence on every run
+            random ^= random >>> 17;
+            random ^= random << 5;
+            victim = base + Integer.remainderUnsigned(random, spec.ways);
+        }
+        stamps[victim] = clock;
+        return victim;
+    }
+
+    public Spec getSpec() {
+        return spec;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public double getHitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    public String getReport(String name) {
+        if (hits + misses == 0)
+        {
+            return name + ": erisim yok";
+        }
+        return String.format("%s: %d isabet, %d iska, isabet orani %%%.2f", name, hits, misses, 100 * getHitRate());
+    }
+}
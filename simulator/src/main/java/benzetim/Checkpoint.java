@@ -0,0 +1,168 @@
+package benzetim;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+// Complete hart state at one point of a run: PC, registers, counters and a copy on write snapshot of the memory.
+// A checkpoint is immutable, so any number of simulators can be restored from it, also on different threads.
+//
+// File layout: magic "BZCK" and version, then a deflated stream of
+//   PC, processed instructions (long), cycles (long), 6 type counts (long), 32 registers,
+//   memory size (long), page count, then page number and PAGE_SIZE bytes for every page that is not all zero
+public final class Checkpoint {
+
+    public static final int MAGIC = 0x425A434B;   // "BZCK"
+    public static final int VERSION = 1;
+    public static final String EXTENSION = ".bzck";
+
+    private final int PC;
+    private final int[] registers;
+    private final long totalProcessedInstruction;
+    private final long totalCycle;
+    private final long[] instructionTypeCount;
+    private final Memory.Snapshot memory;
+
+    public Checkpoint(int PC, int[] registers, long totalProcessedInstruction, long totalCycle, long[] instructionTypeCount, Memory.Snapshot memory) {
+        this.PC = PC;
+        this.registers = registers.clone();
+        this.totalProcessedInstruction = totalProcessedInstruction;
+        this.totalCycle = totalCycle;
+        this.instructionTypeCount = instructionTypeCount.clone();
+        this.memory = memory;
+    }
+
+    public int getPC() {
+        return PC;
+    }
+
+    public int[] getRegisters() {
+        return registers.clone();
+    }
+
+    public long getTotalProcessedInstruction() {
+        return totalProcessedInstruction;
+    }
+
+    // cycles of the config the checkpoint was taken with
+    public long getTotalCycle() {
+        return totalCycle;
+    }
+
+    public long[] getInstructionTypeCount() {
+        return instructionTypeCount.clone();
+    }
+
+    public Memory.Snapshot getMemory() {
+        return memory;
+    }
+
+    public void write(Path path) throws IOException {
+        Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), "checkpoint", ".tmp");
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+
+                DeflaterOutputStream deflater = new DeflaterOutputStream(out);
+                DataOutputStream data = new DataOutputStream(deflater);
+                data.writeInt(PC);
+                data.writeLong(totalProcessedInstruction);
+                data.writeLong(totalCycle);
+                for (long count : instructionTypeCount)
+                {
+                    data.writeLong(count);
+                }
+                for (int value : registers)
+                {
+                    data.writeInt(value);
+                }
+
+                int[] pageNumbers = nonZeroPages();
+                data.writeLong(memory.getSize());
+                data.writeInt(pageNumbers.length);
+                for (int pageNumber : pageNumbers)
+                {
+                    data.writeInt(pageNumber);
+                    data.write(memory.getPage(pageNumber));
+                }
+                data.flush();
+                deflater.finish();
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // pages that were written but hold only zeros read the same when they are left out
+    private int[] nonZeroPages() {
+        int[] pageNumbers = memory.getPageNumbers();
+        int count = 0;
+
+        for (int pageNumber : pageNumbers)
+        {
+            byte[] page = memory.getPage(pageNumber);
+            for (byte value : page)
+            {
+                if (value != 0)
+                {
+                    pageNumbers[count++] = pageNumber;
+                    break;
+                }
+            }
+        }
+        return Arrays.copyOf(pageNumbers, count);
+    }
+
+    public static Checkpoint read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+            {
+                throw new IOException("not a checkpoint file: " + path);
+            }
+
+            DataInputStream data = new DataInputStream(new InflaterInputStream(in));
+            int PC = data.readInt();
+            long totalProcessedInstruction = data.readLong();
+            long totalCycle = data.readLong();
+            long[] instructionTypeCount = new long[6];
+            for (int i = 0; i < instructionTypeCount.length; i++)
+            {
+                instructionTypeCount[i] = data.readLong();
+            }
+            int[] registers = new int[32];
+            for (int i = 0; i < registers.length; i++)
+            {
+                registers[i] = data.readInt();
+            }
+
+            long size = data.readLong();
+            int pageCount = data.readInt();
+            if (size <= 0 || size > Memory.MAX_SIZE || pageCount < 0 || pageCount > (size >>> Memory.PAGE_SHIFT))
+            {
+                throw new IOException("corrupt checkpoint file: " + path);
+            }
+            int[] pageNumbers = new int[pageCount];
+            byte[][] pages = new byte[pageCount][];
+            for (int i = 0; i < pageCount; i++)
+            {
+                pageNumbers[i] = data.readInt();
+                pages[i] = new byte[Memory.PAGE_SIZE];
+                data.readFully(pages[i]);
+            }
+
+            try {
+                return new Checkpoint(PC, registers, totalProcessedInstruction, totalCycle, instructionTypeCount,
+                        Memory.Snapshot.of(size, pageNumbers, pages));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("corrupt checkpoint file: " + path, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package benzetim;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Processor config (frequency and cycle cost of every instruction type, optionally a pipeline timing model).
+// Immutable, so one instance can be shared by any number of simulators.
+//
+// Config file keys: Frekans, R, I, S, B, J and for the pipeline model
+//   Boruhatti 1        in order 5 stage pipeline instead of adding the type costs, see PipelineModel
+//   Yonlendirme 0|1    forwarding paths, default 1
+//   DallanmaCezasi N   cycles lost on a taken branch or jalr, default 2
+// and for the L1 caches, I for instructions and D for data (see Cache)
+//   IOnbellek N        cache size in bytes, enables the cache
+//   IOnbellekYol N     ways, default 2
+//   IOnbellekSatir N   line size in bytes, default 32
+//   IOnbellekPolitika  replacement, 0 LRU (default), 1 FIFO, 2 random
+//   IOnbellekIsabet N  cycles added on a hit, default 0
+//   IOnbellekIska N    cycles added on a miss, default 20
+//   DOnbellek...       the same keys for the data cache
+// and for the branch predictor (see BranchPredictor), DallanmaCezasi is then the misprediction penalty
+//   Ongorucu N         0 static not taken, 1 bimodal, 2 gshare, enables the predictor
+//   OngorucuBoyut N    counters, default 1024
+//   OngorucuGecmis N   global history bits of gshare, default 8
+//   BTB N              branch target buffer entries for jal, jalr and taken branches, default 0 (none)
+public final class Config {
+
+    public static final int DEFAULT_BRANCH_PENALTY = 2;
+    private static final int[] DEFAULT_CACHE = {0, 2, 32, Cache.POLICY_LRU, 0, 20};    // size, ways, line, policy, hit, miss
+    private static final int[] DEFAULT_PREDICTOR = {-1, 1024, 8, 0};                     // kind, counters, history, BTB
+    private static final List<String> KEYS = List.of("Frekans", "R", "I", "S", "B", "J", "Boruhatti", "Yonlendirme", "DallanmaCezasi",
+            "Ongorucu", "OngorucuBoyut", "OngorucuGecmis", "BTB");      // without the cache keys
+
+    private final int frequency;
+    private final int RTypeIPC;
+    private final int ITypeIPC;
+    private final int STypeIPC;
+    private final int BTypeIPC;
+    private final int JTypeIPC;
+    private final boolean pipeline;
+    private final boolean forwarding;
+    private final int branchPenalty;
+    private final Cache.Spec instructionCache;     // null without cache
+    private final Cache.Spec dataCache;
+    private final BranchPredictor.Spec branchPredictor;   // null without predictor
+
+    public Config(int frequency, int RTypeIPC, int ITypeIPC, int STypeIPC, int BTypeIPC, int JTypeIPC) {
+        this(frequency, RTypeIPC, ITypeIPC, STypeIPC, BTypeIPC, JTypeIPC, false, true, DEFAULT_BRANCH_PENALTY, null, null, null);
+    }
+
+    private Config(int frequency, int RTypeIPC, int ITypeIPC, int STypeIPC, int BTypeIPC, int JTypeIPC,
+                   boolean pipeline, boolean forwarding, int branchPenalty, Cache.Spec instructionCache, Cache.Spec dataCache,
+                   BranchPredictor.Spec branchPredictor) {
+        this.frequency = frequency;
+        this.RTypeIPC = RTypeIPC;
+        this.ITypeIPC = ITypeIPC;
+        this.STypeIPC = STypeIPC;
+        this.BTypeIPC = BTypeIPC;
+        this.JTypeIPC = JTypeIPC;
+        this.pipeline = pipeline;
+        this.forwarding = forwarding;
+        this.branchPenalty = branchPenalty;
+        this.instructionCache = instructionCache;
+        this.dataCache = dataCache;
+        this.branchPredictor = branchPredictor;
+    }
+
+    // the same config timed by the pipeline model, the type costs become execute stage latencies
+    public Config withPipeline(boolean forwarding, int branchPenalty) {
+        return new Config(frequency, RTypeIPC, ITypeIPC, STypeIPC, BTypeIPC, JTypeIPC, true, forwarding, branchPenalty,
+                instructionCache, dataCache, branchPredictor);
+    }
+
+    // the same config with L1 caches, null leaves a cache out
+    public Config withCaches(Cache.Spec instructionCache, Cache.Spec dataCache) {
+        return new Config(frequency, RTypeIPC, ITypeIPC, STypeIPC, BTypeIPC, JTypeIPC, pipeline, forwarding, branchPenalty,
+                instructionCache, dataCache, branchPredictor);
+    }
+
+    // the same config with a branch predictor, every misprediction costs branchPenalty cycles
+    public Config withBranchPredictor(BranchPredictor.Spec branchPredictor, int branchPenalty) {
+        return new Config(frequency, RTypeIPC, ITypeIPC, STypeIPC, BTypeIPC, JTypeIPC, pipeline, forwarding, branchPenalty,
+                instructionCache, dataCache, branchPredictor);
+    }
+
+    public static Config read(String configFileName) {
+        BufferedReader reader;
+        Map<String, Integer> values = new LinkedHashMap<String, Integer>();
+
+        try {
+            reader = new BufferedReader(new FileReader(configFileName));
+            String line = reader.readLine();
+
+            while (line != null) {
+                String[] data = line.split(" ");
+                values.put(data[0], Integer.parseInt(data[1]));
+                line = reader.readLine();
+            }
+            reader.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return of(values);
+    }
+
+    // a config from config file keys and their values, for configs that are not read from a file
+    public static Config of(Map<String, Integer> values) {
+        int frequency = 0;
+        int RTypeIPC = 0;
+        int ITypeIPC = 0;
+        int STypeIPC = 0;
+        int BTypeIPC = 0;
+        int JTypeIPC = 0;
+        boolean pipeline = false;
+        boolean forwarding = true;
+        int branchPenalty = DEFAULT_BRANCH_PENALTY;
+        int[] instructionCache = DEFAULT_CACHE.clone();
+        int[] dataCache = DEFAULT_CACHE.clone();
+        int[] predictor = DEFAULT_PREDICTOR.clone();
+
+        for (Map.Entry<String, Integer> entry : values.entrySet())
+        {
+            int value = entry.getValue();
+
+            switch (entry.getKey())
+            {
+                case "Frekans":
+                    frequency = value;
+                    break;
+                case "R":
+                    RTypeIPC = value;
+                    break;
+                case "I":
+                    ITypeIPC = value;
+                    break;
+                case "B":
+                    BTypeIPC = value;
+                    break;
+                case "S":
+                    STypeIPC = value;
+                    break;
+                case "J":
+                    JTypeIPC = value;
+                    break;
+                case "Boruhatti":
+                    pipeline = value != 0;
+                    break;
+                case "Yonlendirme":
+                    forwarding = value != 0;
+                    break;
+                case "DallanmaCezasi":
+                    branchPenalty = value;
+                    break;
+                case "Ongorucu":
+                    predictor[0] = value;
+                    break;
+                case "OngorucuBoyut":
+                    predictor[1] = value;
+                    break;
+                case "OngorucuGecmis":
+                    predictor[2] = value;
+                    break;
+                case "BTB":
+                    predictor[3] = value;
+                    break;
+                default:
+                    if (!readCacheKey(entry.getKey(), value, "IOnbellek", instructionCache) && !readCacheKey(entry.getKey(), value, "DOnbellek", dataCache))
+                    {
+                        System.out.printf("Invalid line data %s %d\n", entry.getKey(), value);
+                    }
+                    break;
+            }
+        }
+
+        Config config = new Config(frequency, RTypeIPC, ITypeIPC, STypeIPC, BTypeIPC, JTypeIPC);
+        if (pipeline)
+        {
+            config = config.withPipeline(forwarding, branchPenalty);
+        }
+        if (instructionCache[0] > 0 || dataCache[0] > 0)
+        {
+            config = config.withCaches(cacheSpec(instructionCache), cacheSpec(dataCache));
+        }
+        if (predictor[0] >= 0 || predictor[3] > 0)
+        {
+            config = config.withBranchPredictor(new BranchPredictor.Spec(Math.max(0, predictor[0]), predictor[1], predictor[2], predictor[3]),
+                    branchPenalty);
+        }
+        return config;
+    }
+
+    // true for every key of(values) understands
+    public static boolean isKey(String key) {
+        int[] ignored = new int[DEFAULT_CACHE.length];
+
+        return KEYS.contains(key) || readCacheKey(key, 0, "IOnbellek", ignored) || readCacheKey(key, 0, "DOnbellek", ignored);
+    }
+
+    // fills values in DEFAULT_CACHE order, returns false when key is not a key of that cache
+    private static boolean readCacheKey(String key, int value, String prefix, int[] values) {
+        String[] suffixes = {"", "Yol", "Satir", "Politika", "Isabet", "Iska"};
+
+        for (int i = 0; i < suffixes.length; i++)
+        {
+            if (key.equals(prefix + suffixes[i]))
+            {
+                values[i] = value;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Cache.Spec cacheSpec(int[] values) {
+        return values[0] > 0 ? new Cache.Spec(values[0], values[1], values[2], values[3], values[4], values[5]) : null;
+    }
+
+    public int getFrequency() {
+        return frequency;
+    }
+
+    public boolean isForwarding() {
+        return forwarding;
+    }
+
+    public int getBranchPenalty() {
+        return branchPenalty;
+    }
+
+    public Cache.Spec getInstructionCache() {
+        return instructionCache;
+    }
+
+    public Cache.Spec getDataCache() {
+        return dataCache;
+    }
+
+    public BranchPredictor.Spec getBranchPredictor() {
+        return branchPredictor;
+    }
+
+    // every value that can change a result in a fixed order, equal configs give equal keys. Settings the
+    // timing models do not use are left out, a flat config does not depend on the branch penalty
+    public String getKey() {
+        StringBuilder key = new StringBuilder();
+
+        key.append("Frekans=").append(frequency).append(" R=").append(RTypeIPC).append(" I=").append(ITypeIPC).append(" S=").append(STypeIPC)
+                .append(" B=").append(BTypeIPC).append(" J=").append(JTypeIPC);
+        if (pipeline)
+        {
+            key.append(" Boruhatti=1 Yonlendirme=").append(forwarding ? 1 : 0);
+        }
+        if (pipeline || branchPredictor != null)
+        {
+            key.append(" DallanmaCezasi=").append(branchPenalty);
+        }
+        appendCacheKey(key, "IOnbellek", instructionCache);
+        appendCacheKey(key, "DOnbellek", dataCache);
+        if (branchPredictor != null)
+        {
+            key.append(" Ongorucu=").append(branchPredictor.kind).append(" OngorucuBoyut=").append(branchPredictor.entries)
+                    .append(" OngorucuGecmis=").append(branchPredictor.historyBits).append(" BTB=").append(branchPredictor.btbEntries);
+        }
+        return key.toString();
+    }
+
+    private static void appendCacheKey(StringBuilder key, String prefix, Cache.Spec cache) {
+        if (cache != null)
+        {
+            key.append(' ').append(prefix).append('=').append(cache.size).append(' ').append(prefix).append("Yol=").append(cache.ways)
+                    .append(' ').append(prefix).append("Satir=").append(cache.lineSize).append(' ').append(prefix).append("Politika=").append(cache.policy)
+                    .append(' ').append(prefix).append("Isabet=").append(cache.hitLatency).append(' ').append(prefix).append("Iska=").append(cache.missLatency);
+        }
+    }
+
+    // false for the flat model, where the cycles follow from the type counts alone
+    public boolean hasTimingModel() {
+        return pipeline || instructionCache != null || dataCache != null || branchPredictor != null;
+    }
+
+    // a new model for one simulator, null for the flat model which the engines charge themselves
+    public TimingModel createTimingModel() {
+        if (pipeline)
+        {
+            return new PipelineModel(this);
+        }
+        return hasTimingModel() ? new FlatModel(this) : null;
+    }
+
+    public int getInstructionIPC(int instructionType) {
+        int IPC = 0;
+
+        // R: 0, I: 1, S:2, B:3, J:4
+        switch (instructionType) {
+            case 0:
+                IPC = RTypeIPC;
+                break;
+            case 1:
+                IPC = ITypeIPC;
+                break;
+            case 2:
+                IPC = STypeIPC;
+                break;
+            case 3:
+                IPC = BTypeIPC;
+                break;
+            case 4:
+                IPC = JTypeIPC;
+                break;
+            default:
+                IPC = 0;
+                break;
+        }
+
+        return IPC;
+    }
+
+    // total cycles for the given executed instruction counts per type (R, I, S, B, J, others)
+    public long getCycles(long[] instructionTypeCount) {
+        long cycles = 0;
+
+        for (int type = 0; type < 5; type++)
+        {
+            cycles += instructionTypeCount[type] * getInstructionIPC(type);
+        }
+        return cycles;
+    }
+
+    public float getExecutionTime(long cycles) {
+        // 1MHz = 1000000 cycle/second
+        return cycles * ((float)1 / (float)(frequency * 1000000));    // in seconds
+    }
+}
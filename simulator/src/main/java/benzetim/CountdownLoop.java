@@ -0,0 +1,230 @@
+package benzetim;
+
+// A side effect free counting loop, fast forwarded in closed form instead of running every iteration.
+// Branches only jump forward, so a loop is a backward jal to its head with the exit test inside:
+//     H:  addi / subi on counters       (prefix)
+//         beq / bge / blt a b EXIT      exit when true, EXIT lies after the jal
+//         addi / subi on counters       (suffix)
+//         jal  link H
+// Every other instruction disqualifies the loop: no loads, stores or register to register ops. a and b are
+// counters or registers the loop does not write, the link register of the jal must be neither. The engines
+// only skip a loop right after its jal ran, so the link register already holds the return address. The exit
+// iteration is found with exact 64 bit arithmetic and the loop is only skipped when a and b never wrap around
+// on the way, so the result is always what the interpreter computes. Anything else is left to the engines.
+public final class CountdownLoop {
+
+    public static final CountdownLoop NONE = new CountdownLoop();     // analysed, not a countdown loop
+
+    private static final int MAX_LENGTH = 64;
+
+    final int headPC;
+    final int length;           // instructions per iteration, jal included
+    final int exitLength;       // instructions of the last, exiting iteration: prefix and branch
+    final int exitPC;
+    final int branchOpcode;
+    final int a;
+    final int b;
+    final int[] counters;       // registers the loop increments
+    final int[] increments;     // per iteration
+    final int[] prefixIncrements;
+    final int cycles;           // cycles of a whole iteration and of the exit iteration
+    final int exitCycles;
+    final int[] typeCounts;     // instructions per type of a whole iteration and of the exit iteration
+    final int[] exitTypeCounts;
+
+    private CountdownLoop() {
+        this(0, 0, 0, 0, 0, 0, 0, new int[0], new int[0], new int[0], 0, 0, new int[6], new int[6]);
+    }
+
+    private CountdownLoop(int headPC, int length, int exitLength, int exitPC, int branchOpcode, int a, int b,
+                          int[] counters, int[] increments, int[] prefixIncrements, int cycles, int exitCycles, int[] typeCounts, int[] exitTypeCounts) {
+        this.headPC = headPC;
+        this.length = length;
+        this.exitLength = exitLength;
+        this.exitPC = exitPC;
+        this.branchOpcode = branchOpcode;
+        this.a = a;
+        this.b = b;
+        this.counters = counters;
+        this.increments = increments;
+        this.prefixIncrements = prefixIncrements;
+        this.cycles = cycles;
+        this.exitCycles = exitCycles;
+        this.typeCounts = typeCounts;
+        this.exitTypeCounts = exitTypeCounts;
+    }
+
+    public static int getMaxLength() {
+        return MAX_LENGTH;
+    }
+
+    // ops holds (opcode, rd, rs1, rs2, imm) groups of the instructions from headPC to the jal, like a Block.
+    // Returns NONE when they are not a countdown loop
+    public static CountdownLoop analyze(int headPC, int[] ops, int[] cycles, int[] types, int length) {
+        long[] increments = new long[32];
+        long[] prefixIncrements = new long[32];
+        boolean[] written = new boolean[32];
+        int branch = -1;
+        int iterationCycles = 0;
+        int exitCycles = 0;
+        int[] typeCounts = new int[6];
+        int[] exitTypeCounts = new int[6];
+        int jalPC = headPC + (length - 1) * 4;
+
+        if (length < 2 || length > MAX_LENGTH || ops[(length - 1) * 5] != 11)
+        {
+            return NONE;
+        }
+
+        for (int i = 0; i < length - 1; i++)
+        {
+            int opcode = ops[i * 5];
+            int rd = ops[i * 5 + 1];
+            int rs1 = ops[i * 5 + 2];
+            int imm = ops[i * 5 + 4];
+
+            if ((opcode == 2 || opcode == 3) && rd == rs1)
+            {
+                long step = opcode == 2 ? imm : -(long) imm;
+                increments[rd] += step;
+                if (branch < 0)
+                {
+                    prefixIncrements[rd] += step;
+                }
+                written[rd] = true;
+            }
+            else if (opcode >= 8 && opcode <= 10 && branch < 0 && headPC + i * 4 + imm * 2 > jalPC)
+            {
+                branch = i;     // the only way out of the loop
+            }
+            else
+            {
+                return NONE;
+            }
+
+            iterationCycles += cycles[i];
+            typeCounts[types[i]]++;
+            if (branch < 0 || branch == i)
+            {
+                exitCycles += cycles[i];
+                exitTypeCounts[types[i]]++;
+            }
+        }
+        iterationCycles += cycles[length - 1];
+        typeCounts[types[length - 1]]++;
+
+        if (branch < 0)
+        {
+            return NONE;
+        }
+        int link = ops[(length - 1) * 5 + 1];
+        int a = ops[branch * 5 + 2];
+        int b = ops[branch * 5 + 3];
+        if (written[link] || link == a || link == b || increments[a] == increments[b])
+        {
+            return NONE;    // a and b move in lockstep, the exit test never changes
+        }
+
+        int count = 0;
+        for (int r = 0; r < 32; r++)
+        {
+            count += written[r] ? 1 : 0;
+        }
+        int[] counters = new int[count];
+        int[] counterIncrements = new int[count];
+        int[] counterPrefixIncrements = new int[count];
+        count = 0;
+        for (int r = 0; r < 32; r++)
+        {
+            if (written[r])
+            {
+                counters[count] = r;
+                counterIncrements[count] = (int) increments[r];     // only matters modulo 2^32
+                counterPrefixIncrements[count] = (int) prefixIncrements[r];
+                count++;
+            }
+        }
+
+        return new CountdownLoop(headPC, length, branch + 1, headPC + branch * 4 + ops[branch * 5 + 4] * 2, ops[branch * 5],
+                a, b, counters, counterIncrements, counterPrefixIncrements, iterationCycles, exitCycles, typeCounts, exitTypeCounts);
+    }
+
+    // whole iterations before the exit test succeeds, starting at the head with registers. -1 when the test only
+    // succeeds after a or b wrapped around or never does, the loop then has to be run
+    public long iterations(int[] registers) {
+        long a0 = (int) (registers[a] + prefixIncrement(a));     // wrapped like the registers the branch reads
+        long b0 = (int) (registers[b] + prefixIncrement(b));
+        long da = increment(a);
+        long db = increment(b);
+        long difference = a0 - b0;
+        long step = da - db;
+        long n;
+
+        switch (branchOpcode)
+        {
+            case 8:     // beq
+                if (difference == 0)
+                {
+                    return 0;
+                }
+                if (step == 0 || difference % step != 0 || (difference > 0) == (step > 0))
+                {
+                    return -1;
+                }
+                n = -difference / step;
+                break;
+            case 9:     // bge
+                if (difference >= 0)
+                {
+                    return 0;
+                }
+                if (step <= 0)
+                {
+                    return -1;
+                }
+                n = (-difference + step - 1) / step;
+                break;
+            default:    // blt
+                if (difference < 0)
+                {
+                    return 0;
+                }
+                if (step >= 0)
+                {
+                    return -1;
+                }
+                n = difference / -step + 1;
+                break;
+        }
+
+        long aN = a0 + n * da;
+        long bN = b0 + n * db;
+        if (aN != (int) aN || bN != (int) bN)
+        {
+            return -1;
+        }
+        return n;
+    }
+
+    private long increment(int register) {
+        for (int i = 0; i < counters.length; i++)
+        {
+            if (counters[i] == register)
+            {
+                return increments[i];
+            }
+        }
+        return 0;
+    }
+
+    private long prefixIncrement(int register) {
+        for (int i = 0; i < counters.length; i++)
+        {
+            if (counters[i] == register)
+            {
+                return prefixIncrements[i];
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,281 @@
+package benzetim;
+
+import java.util.*;
+
+// Breakpoints and watchpoints of one simulator, see Simulator.setDebugger. A run stops in front of an
+// instruction with a breakpoint whose condition holds, or right after the load or store that touched a watched
+// range, with the same counters and registers on every engine. Points are given like the command line options:
+//   breakpoint   PC  or  PC:xN<op>value       op is ==, !=, <, <=, > or >=, the comparison is signed
+//   watchpoint   address[+length][:r|w|rw]   length defaults to 4 bytes, the access to w
+// Numbers are decimal, or hexadecimal with 0x.
+public final class Debugger {
+
+    public static final int READ = 1;
+    public static final int WRITE = 2;
+
+    private static final int REPORT_WORDS = 16;
+    private static final String[] COMPARISONS = {"==", "!=", "<=", ">=", "<", ">"};
+
+    private static final class Breakpoint {
+        final int pc;
+        final int register;     // -1 without a condition
+        final String comparison;
+        final int value;
+
+        Breakpoint(int pc, int register, String comparison, int value) {
+            this.pc = pc;
+            this.register = register;
+            this.comparison = comparison;
+            this.value = value;
+        }
+
+        boolean holds(int[] registers) {
+            if (register < 0)
+            {
+                return true;
+            }
+
+            int r = registers[register];
+            switch (comparison)
+            {
+                case "==":
+                    return r == value;
+                case "!=":
+                    return r != value;
+                case "<":
+                    return r < value;
+                case "<=":
+                    return r <= value;
+                case ">":
+                    return r > value;
+                default:
+                    return r >= value;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "0x" + Integer.toHexString(pc) + (register < 0 ? "" : " (x" + register + " " + comparison + " " + value + ")");
+        }
+    }
+
+    private static final class Watchpoint {
+        final int address;
+        final int length;
+        final int access;
+
+        Watchpoint(int address, int length, int access) {
+            this.address = address;
+            this.length = length;
+            this.access = access;
+        }
+
+        boolean overlaps(int address, int size) {
+            long first = address & 0xFFFFFFFFL;
+            long start = this.address & 0xFFFFFFFFL;
+            return first < start + length && start < first + size;
+        }
+
+        @Override
+        public String toString() {
+            return "0x" + Integer.toHexString(address) + "+" + length + (access == READ ? " okuma" : access == WRITE ? " yazma" : " okuma/yazma");
+        }
+    }
+
+    private final List<Breakpoint> breakpoints = new ArrayList<Breakpoint>();
+    private final Set<Integer> breakpointPCs = new HashSet<Integer>();
+    private final List<Watchpoint> watchpoints = new ArrayList<Watchpoint>();
+
+    // why the run stopped, null while it has not
+    private String reason = null;
+    private Watchpoint watchHit = null;
+
+    public Debugger() {
+    }
+
+    // a debugger with the same points that has not stopped yet, every simulator needs one of its own
+    public Debugger copy() {
+        Debugger copy = new Debugger();
+
+        copy.breakpoints.addAll(breakpoints);
+        copy.breakpointPCs.addAll(breakpointPCs);
+        copy.watchpoints.addAll(watchpoints);
+        return copy;
+    }
+
+    public void addBreakpoint(String point) {
+        String[] data = point.split(":", 2);
+        int pc = parseNumber(data[0]);
+        int register = -1;
+        String comparison = null;
+        int value = 0;
+
+        if ((pc & 3) != 0)
+        {
+            throw new IllegalArgumentException("breakpoint PC is not word aligned: " + data[0]);
+        }
+        if (data.length > 1)
+        {
+            String condition = data[1].trim();
+            for (String c : COMPARISONS)
+            {
+                int index = condition.indexOf(c);
+                if (index > 0)
+                {
+                    register = parseRegister(condition.substring(0, index));
+                    comparison = c;
+                    value = parseNumber(condition.substring(index + c.length()));
+                    break;
+                }
+            }
+            if (comparison == null)
+            {
+                throw new IllegalArgumentException("invalid breakpoint condition: " + condition);
+            }
+        }
+
+        breakpoints.add(new Breakpoint(pc, register, comparison, value));
+        breakpointPCs.add(pc);
+    }
+
+    public void addWatchpoint(String point) {
+        String[] data = point.split(":", 2);
+        String[] range = data[0].split("\\+", 2);
+        int address = parseNumber(range[0]);
+        int length = range.length > 1 ? parseNumber(range[1]) : 4;
+        String access = data.length > 1 ? data[1].trim() : "w";
+
+        if (length <= 0)
+        {
+            throw new IllegalArgumentException("invalid watchpoint length: " + range[1]);
+        }
+        switch (access)
+        {
+            case "r":
+                watchpoints.add(new Watchpoint(address, length, READ));
+                break;
+            case "w":
+                watchpoints.add(new Watchpoint(address, length, WRITE));
+                break;
+            case "rw":
+                watchpoints.add(new Watchpoint(address, length, READ | WRITE));
+                break;
+            default:
+                throw new IllegalArgumentException("invalid watchpoint access: " + access);
+        }
+    }
+
+    private static int parseNumber(String number) {
+        return (int) (long) Long.decode(number.trim());
+    }
+
+    private static int parseRegister(String register) {
+        String name = register.trim();
+        int index = name.startsWith("x") ? Integer.parseInt(name.substring(1)) : -1;
+
+        if (index < 0 || index > 31)
+        {
+            throw new IllegalArgumentException("invalid register: " + name);
+        }
+        return index;
+    }
+
+    public boolean isEmpty() {
+        return breakpoints.isEmpty() && watchpoints.isEmpty();
+    }
+
+    // marks the pages of every watchpoint in memory
+    void arm(Memory memory, Memory.Watcher watcher) {
+        memory.unwatch();
+        for (Watchpoint watchpoint : watchpoints)
+        {
+            memory.watch(watchpoint.address, watchpoint.length, watcher);
+        }
+    }
+
+    boolean hasReadWatchpoints() {
+        for (Watchpoint watchpoint : watchpoints)
+        {
+            if ((watchpoint.access & READ) != 0)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean hasBreakpoint(int pc) {
+        return breakpointPCs.contains(pc);
+    }
+
+    // true when the run has to stop in front of the instruction at pc: a watchpoint fired behind it or a
+    // breakpoint condition holds
+    boolean breaks(int pc, int[] registers) {
+        if (reason != null)
+        {
+            return true;
+        }
+        for (Breakpoint breakpoint : breakpoints)
+        {
+            if (breakpoint.pc == pc && breakpoint.holds(registers))
+            {
+                reason = "kesme noktasi " + breakpoint;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // a load or store of a watched page, true when it touched a watchpoint and the run has to stop after it
+    boolean watches(int address, int size, boolean write) {
+        if (reason != null)
+        {
+            return false;   // already stopping, the first hit is reported
+        }
+        for (Watchpoint watchpoint : watchpoints)
+        {
+            if ((watchpoint.access & (write ? WRITE : READ)) != 0 && watchpoint.overlaps(address, size))
+            {
+                reason = "izleme noktasi " + watchpoint + ", 0x" + Integer.toHexString(address) + " adresinden " + size
+                        + " bayt " + (write ? "yazildi" : "okundu");
+                watchHit = watchpoint;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean hasStopped() {
+        return reason != null;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    // the state of simulator where the run stopped: the stop, counters, registers and the watched words
+    public String getReport(Simulator simulator) {
+        StringBuilder report = new StringBuilder();
+        int pc = simulator.getPC();
+        int[] registers = simulator.getRegisters();
+
+        report.append("Durdu: ").append(reason).append('\n');
+        report.append(String.format("PC 0x%x (%s), %d buyruk, %d cevrim\n", pc, Assembler.getMnemonic(Simulator.getOPCode(simulator.getMemory().fetchWord(pc))),
+                simulator.getTotalProcessedInstruction(), simulator.getTotalCycle()));
+        for (int r = 0; r < 32; r++)
+        {
+            report.append(String.format("x%-2d %11d%s", r, registers[r], r % 4 == 3 ? "\n" : "    "));
+        }
+        if (watchHit != null)
+        {
+            // fetchWord reads without going through the watcher, long ranges are cut at REPORT_WORDS
+            long first = watchHit.address & 0xFFFFFFFCL;
+            long end = Math.min((watchHit.address & 0xFFFFFFFFL) + watchHit.length, first + REPORT_WORDS * 4);
+            for (long address = first; address < end; address += 4)
+            {
+                report.append(String.format("0x%08x: %08x\n", address, simulator.getMemory().fetchWord((int) address)));
+            }
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,246 @@
+package benzetim;
+
+import java.io.Closeable;
+import java.util.concurrent.locks.LockSupport;
+
+// Runs timing models on their own threads, decoupled from functional execution. The simulation thread only
+// copies every retired instruction into a batch of a preallocated ring and publishes full batches, each model
+// has a consumer thread that replays the batches in order. Every consumer is a single producer, single consumer
+// pair with the simulation thread: positions are plain volatile counters and nothing is allocated per record.
+// The producer only waits when the slowest consumer is a whole ring behind, so a run takes about as long as the
+// slower of the two sides. With several models one functional run times every config at once.
+//
+// The cycles reach the simulator through drain, instruction itself returns 0.
+public final class DecoupledTiming implements TimingModel, Closeable {
+
+    private static final int RECORD_INTS = 7;           // pc, opcode, rd, rs1, rs2, address, nextPC
+    private static final int BATCH_RECORDS = 4096;
+    private static final int BATCH_COUNT = 64;
+
+    private final TimingModel[] models;
+    private final int[][] batches = new int[BATCH_COUNT][BATCH_RECORDS * RECORD_INTS];
+    private final int[] batchRecords = new int[BATCH_COUNT];
+    private final Consumer[] consumers;
+
+    // batches handed to the consumers, the ring slot of batch n is n % BATCH_COUNT
+    private volatile long published = 0;
+    private volatile boolean closing = false;
+    private volatile Thread waitingProducer = null;
+
+    // producer side
+    private int[] current = batches[0];
+    private int position = 0;
+    private long drainedCycles = 0;
+    private long records = 0;
+    private long producerWaits = 0;
+
+    private final class Consumer implements Runnable {
+        final TimingModel model;
+        final Thread thread;
+        volatile long consumed = 0;
+        volatile long cycles = 0;       // written by the consumer thread only
+        volatile RuntimeException error = null;
+
+        Consumer(TimingModel model, int index) {
+            this.model = model;
+            this.thread = new Thread(this, "timing-" + index);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true)
+            {
+                long next = consumed;
+                if (next == published)
+                {
+                    if (closing)
+                    {
+                        break;
+                    }
+                    LockSupport.parkNanos(this, 100000);
+                    continue;
+                }
+
+                int slot = (int) (next % BATCH_COUNT);
+                if (error == null)
+                {
+                    try {
+                        cycles += replay(batches[slot], batchRecords[slot]);
+                    } catch (RuntimeException e) {
+                        error = e;      // later batches are skipped, drain rethrows it
+                    }
+                }
+
+                consumed = next + 1;
+                Thread producer = waitingProducer;
+                if (producer != null)
+                {
+                    LockSupport.unpark(producer);
+                }
+            }
+        }
+
+        private long replay(int[] batch, int count) {
+            long sum = 0;
+
+            for (int i = 0, end = count * RECORD_INTS; i < end; i += RECORD_INTS)
+            {
+                sum += model.instruction(batch[i], batch[i + 1], batch[i + 2], batch[i + 3], batch[i + 4], batch[i + 5], batch[i + 6]);
+            }
+            return sum;
+        }
+    }
+
+    public DecoupledTiming(TimingModel... models) {
+        if (models.length == 0)
+        {
+            throw new IllegalArgumentException("At least one timing model is needed");
+        }
+        this.models = models.clone();
+        consumers = new Consumer[models.length];
+        for (int i = 0; i < models.length; i++)
+        {
+            consumers[i] = new Consumer(models[i], i);
+            consumers[i].thread.start();
+        }
+    }
+
+    // waits until every consumer is idle, then resets the models on this thread. The next publish makes
+    // the reset visible to the consumers
+    @Override
+    public void reset() {
+        sync();
+        for (Consumer consumer : consumers)
+        {
+            consumer.model.reset();
+            consumer.cycles = 0;
+            consumer.error = null;
+        }
+        drainedCycles = 0;
+        records = 0;
+        producerWaits = 0;
+    }
+
+    @Override
+    public int instruction(int pc, int opcode, int rd, int rs1, int rs2, int address, int nextPC) {
+        int[] batch = current;
+        int i = position;
+
+        batch[i] = pc;
+        batch[i + 1] = opcode;
+        batch[i + 2] = rd;
+        batch[i + 3] = rs1;
+        batch[i + 4] = rs2;
+        batch[i + 5] = address;
+        batch[i + 6] = nextPC;
+        position = i + RECORD_INTS;
+        records++;
+        if (position == batch.length)
+        {
+            publish();
+        }
+        return 0;
+    }
+
+    // cycles of the first model since the last drain, after every consumer caught up
+    @Override
+    public long drain() {
+        sync();
+        for (Consumer consumer : consumers)
+        {
+            RuntimeException error = consumer.error;
+            if (error != null)
+            {
+                throw error;
+            }
+        }
+
+        long cycles = consumers[0].cycles;
+        long delta = cycles - drainedCycles;
+        drainedCycles = cycles;
+        return delta;
+    }
+
+    // total cycles of model i since the last reset, valid after drain
+    public long getCycles(int i) {
+        return consumers[i].cycles;
+    }
+
+    public TimingModel getModel(int i) {
+        return models[i];
+    }
+
+    public int getModelCount() {
+        return models.length;
+    }
+
+    // publishes the partial batch and waits until every consumer replayed everything
+    private void sync() {
+        if (position > 0)
+        {
+            publish();
+        }
+        awaitConsumers(published);
+    }
+
+    private void publish() {
+        int slot = (int) (published % BATCH_COUNT);
+
+        batchRecords[slot] = position / RECORD_INTS;
+        published = published + 1;     // volatile write, makes the batch contents visible to the consumers
+        for (Consumer consumer : consumers)
+        {
+            LockSupport.unpark(consumer.thread);
+        }
+
+        awaitConsumers(published - BATCH_COUNT + 1);    // the next slot has to be free
+        current = batches[(int) (published % BATCH_COUNT)];
+        position = 0;
+    }
+
+    // waits until every consumer has consumed at least target batches
+    private void awaitConsumers(long target) {
+        for (Consumer consumer : consumers)
+        {
+            while (consumer.consumed < target)
+            {
+                producerWaits++;
+                waitingProducer = Thread.currentThread();
+                if (consumer.consumed < target)
+                {
+                    LockSupport.parkNanos(this, 100000);
+                }
+                waitingProducer = null;
+            }
+        }
+    }
+
+    @Override
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+
+        report.append("Ayrik zamanlama: ").append(models.length).append(" model, ").append(records).append(" kayit, uretici ")
+                .append(producerWaits).append(" kez bekledi");
+        for (TimingModel model : models)
+        {
+            report.append('\n').append(model.getReport());
+        }
+        return report.toString();
+    }
+
+    // stops the consumer threads, records that were not drained are dropped
+    @Override
+    public void close() {
+        closing = true;
+        for (Consumer consumer : consumers)
+        {
+            LockSupport.unpark(consumer.thread);
+            try {
+                consumer.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package benzetim;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.IntStream;
+
+// Design space exploration: expands parameter ranges into configs, evaluates all of them on one program and
+// marks the Pareto front of execution time against a linear cost. Sweep file lines:
+//   Key a              fixed value, Key is any config file key (Frekans, R, Boruhatti, IOnbellek, ...)
+//   Key a,b,c          list of values
+//   Key a b [step]     a to b, step defaults to 1, *f multiplies by f instead
+//   Ornek N            N random points of the grid instead of the whole grid
+//   Tohum N            seed of the random points, default 1
+//   Maliyet Key w      cost += w * value of Key, Maliyet Sabit c adds a constant
+// The functional run does not depend on the config, so the program is simulated once. Flat configs follow
+// from its type counts, configs with a timing model replay its trace. The points are evaluated in parallel.
+public final class DesignSweep {
+
+    public static final String DEFAULT_OUTPUT = "tarama.csv";
+
+    private static final long MAX_GRID = 1000000;      // without Ornek
+    private static final String CONSTANT_COST = "Sabit";
+
+    private final List<String> keys = new ArrayList<String>();
+    private final List<int[]> ranges = new ArrayList<int[]>();
+    private final Map<String, Double> costWeights = new LinkedHashMap<String, Double>();
+    private double costConstant = 0;
+    private long samples = 0;
+    private long seed = 1;
+
+    // points, one row of values per point in key order, filled by expand
+    private int[][] points;
+    private Config[] configs;
+    private long[] cycles;
+    private float[] times;
+    private double[] costs;
+    private boolean[] pareto;
+    private long instructions;
+
+    public DesignSweep(String sweepFileName) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(sweepFileName))) {
+            String line = reader.readLine();
+            int lineNumber = 1;
+
+            while (line != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("//"))
+                {
+                    try {
+                        parseLine(line.split("\\s+"));
+                    } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                        throw new IOException("invalid sweep line " + lineNumber + " (" + line + "): " + e.getMessage());
+                    }
+                }
+                line = reader.readLine();
+                lineNumber++;
+            }
+        }
+        if (keys.isEmpty())
+        {
+            throw new IOException("sweep file has no parameters: " + sweepFileName);
+        }
+        expand();
+    }
+
+    private void parseLine(String[] data) {
+        switch (data[0])
+        {
+            case "Ornek":
+                samples = Long.parseLong(data[1]);
+                break;
+            case "Tohum":
+                seed = Long.parseLong(data[1]);
+                break;
+            case "Maliyet":
+                if (data[1].equals(CONSTANT_COST))
+                {
+                    costConstant = Double.parseDouble(data[2]);
+                }
+                else if (Config.isKey(data[1]))
+                {
+                    costWeights.put(data[1], Double.parseDouble(data[2]));
+                }
+                else
+                {
+                    throw new IllegalArgumentException("unknown key " + data[1]);
+                }
+                break;
+            default:
+                if (!Config.isKey(data[0]) || keys.contains(data[0]))
+                {
+                    throw new IllegalArgumentException("unknown or repeated key " + data[0]);
+                }
+                keys.add(data[0]);
+                ranges.add(parseValues(Arrays.copyOfRange(data, 1, data.length)));
+                break;
+        }
+    }
+
+    private static int[] parseValues(String[] data) {
+        if (data.length == 1)
+        {
+            return Arrays.stream(data[0].split(",")).mapToInt(Integer::parseInt).toArray();
+        }
+        if (data.length != 2 && data.length != 3)
+        {
+            throw new IllegalArgumentException("expected a value, a list or a range");
+        }
+
+        int first = Integer.parseInt(data[0]);
+        int last = Integer.parseInt(data[1]);
+        boolean multiply = data.length == 3 && data[2].startsWith("*");
+        int step = data.length == 3 ? Integer.parseInt(multiply ? data[2].substring(1) : data[2]) : 1;
+        if (first > last || (multiply ? step < 2 || first <= 0 : step <= 0))
+        {
+            throw new IllegalArgumentException("empty range or invalid step");
+        }
+
+        List<Integer> values = new ArrayList<Integer>();
+        for (long value = first; value <= last; value = multiply ? value * step : value + step)
+        {
+            values.add((int) value);
+        }
+        return values.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // the whole grid, or samples distinct random points of it in grid order
+    private void expand() throws IOException {
+        long total = 1;
+        for (int[] range : ranges)
+        {
+            try {
+                total = Math.multiplyExact(total, range.length);
+            } catch (ArithmeticException e) {
+                total = Long.MAX_VALUE;     // far too many for a grid, sampling still works
+            }
+        }
+
+        long[] indices;
+        if (samples > 0 && samples < total)
+        {
+            Random random = new Random(seed);
+            TreeSet<Long> chosen = new TreeSet<Long>();
+            while (chosen.size() < samples)
+            {
+                chosen.add(random.nextLong(total));
+            }
+            indices = chosen.stream().mapToLong(Long::longValue).toArray();
+        }
+        else if (total <= MAX_GRID)
+        {
+            indices = IntStream.range(0, (int) total).asLongStream().toArray();
+        }
+        else
+        {
+            throw new IOException("the grid has " + total + " points, more than " + MAX_GRID + ", use Ornek");
+        }
+
+        // mixed radix, the last key changes fastest
+        points = new int[indices.length][keys.size()];
+        configs = new Config[indices.length];
+        for (int p = 0; p < indices.length; p++)
+        {
+            long index = indices[p];
+            Map<String, Integer> values = new LinkedHashMap<String, Integer>();
+            for (int k = keys.size() - 1; k >= 0; k--)
+            {
+                int[] range = ranges.get(k);
+                points[p][k] = range[(int) (index % range.length)];
+                index /= range.length;
+            }
+            for (int k = 0; k < keys.size(); k++)
+            {
+                values.put(keys.get(k), points[p][k]);
+            }
+            configs[p] = Config.of(values);
+        }
+    }
+
+    public int getPointCount() {
+        return points.length;
+    }
+
+    public long getInstructions() {
+        return instructions;
+    }
+
+    // runs the program once on simulator and evaluates every point. Timed points replay a trace of the run,
+    // written to a temporary file
+    public void evaluate(Simulator simulator, boolean compressTrace) throws IOException {
+        boolean timed = Arrays.stream(configs).anyMatch(Config::hasTimingModel);
+        Path tracePath = timed ? Files.createTempFile("tarama", ".iz") : null;
+
+        try {
+            simulator.setTimingModel(null);
+            if (timed)
+            {
+                TraceRecorder tracer = new TraceRecorder(tracePath, 16 << 20, TraceRecorder.POLICY_BLOCK, compressTrace);
+                simulator.setTraceRecorder(tracer);
+                try {
+                    simulator.simulateProgram();
+                } finally {
+                    simulator.setTraceRecorder(null);
+                    tracer.close();
+                }
+            }
+            else
+            {
+                simulator.simulateProgram();
+            }
+
+            instructions = simulator.getTotalProcessedInstruction();
+            long[] typeCount = simulator.getInstructionTypeCount();
+            TraceReplay replay = timed ? new TraceReplay(tracePath) : null;
+            cycles = new long[points.length];
+            times = new float[points.length];
+            costs = new double[points.length];
+            IntStream.range(0, points.length).parallel().forEach(p -> {
+                try {
+                    cycles[p] = configs[p].hasTimingModel() ? replay.getCycles(configs[p].createTimingModel()) : configs[p].getCycles(typeCount);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                times[p] = configs[p].getExecutionTime(cycles[p]);
+                costs[p] = cost(p);
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            if (tracePath != null)
+            {
+                Files.deleteIfExists(tracePath);
+            }
+        }
+        markParetoFront();
+    }
+
+    private double cost(int p) {
+        double cost = costConstant;
+
+        for (int k = 0; k < keys.size(); k++)
+        {
+            cost += costWeights.getOrDefault(keys.get(k), 0.0) * points[p][k];
+        }
+        return cost;
+    }
+
+    // a point is on the front when no other point is at least as fast and as cheap and better in one of them
+    private void markParetoFront() {
+        Integer[] order = getOrder();
+        double cheapest = Double.POSITIVE_INFINITY;
+        double lastTime = Double.NaN;
+
+        pareto = new boolean[points.length];
+        for (int p : order)
+        {
+            // a point with the same time and cost as the last one on the front is not dominated either
+            if (costs[p] < cheapest || (costs[p] == cheapest && times[p] == lastTime))
+            {
+                pareto[p] = true;
+                cheapest = costs[p];
+                lastTime = times[p];
+            }
+        }
+    }
+
+    // point indices by execution time, then cost
+    private Integer[] getOrder() {
+        Integer[] order = new Integer[points.length];
+
+        for (int p = 0; p < points.length; p++)
+        {
+            order[p] = p;
+        }
+        Arrays.sort(order, Comparator.<Integer>comparingDouble(p -> times[p]).thenComparingDouble(p -> costs[p]));
+        return order;
+    }
+
+    public void writeCsv(Path path) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path))) {
+            writer.println(String.join(",", keys) + ",Cevrim,Buyruk,Zaman,Maliyet,Pareto");
+            for (int p = 0; p < points.length; p++)
+            {
+                StringBuilder row = new StringBuilder();
+                for (int value : points[p])
+                {
+                    row.append(value).append(',');
+                }
+                row.append(cycles[p]).append(',').append(instructions).append(',').append(times[p]).append(',')
+                        .append(costs[p]).append(',').append(pareto[p] ? 1 : 0);
+                writer.println(row);
+            }
+        }
+    }
+
+    // the Pareto front from the fastest point to the cheapest
+    public String getParetoReport() {
+        StringBuilder report = new StringBuilder();
+
+        report.append(String.format("%-60s %15s %22s %12s", "Pareto Noktasi", "Cevrim Sayisi", "Yurutme Zamani (s)", "Maliyet"));
+        for (int p : getOrder())
+        {
+            if (pareto[p])
+            {
+                StringJoiner point = new StringJoiner(" ");
+                for (int k = 0; k < keys.size(); k++)
+                {
+                    point.add(keys.get(k) + "=" + points[p][k]);
+                }
+                report.append(String.format("\n%-60s %15d %22s %12.3f", point, cycles[p], Float.toString(times[p]), costs[p]));
+            }
+        }
+        return report.toString();
+    }
+}
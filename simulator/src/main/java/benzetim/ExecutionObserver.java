@@ -0,0 +1,15 @@
+package benzetim;
+
+// Receives the executed instructions of a simulator, see Simulator.setObserver.
+// The interpreter reports every instruction before it runs, the block engines report whole blocks after they ran.
+public interface ExecutionObserver {
+
+    // a run starts from the program start or from a checkpoint
+    void restart();
+
+    void instruction(int pc, int opcode, int rd, int cycles);
+
+    // the first executed instructions of an engine block, ops holds (opcode, rd, rs1, rs2, imm) groups
+    // and cyclesUpTo the cycles charged when leaving right after instruction i
+    void block(int startPC, int[] ops, int executed, int[] cyclesUpTo);
+}
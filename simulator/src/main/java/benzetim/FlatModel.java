@@ -0,0 +1,116 @@
+package benzetim;
+
+// The flat type costs of the config plus the latency of the L1 caches: every instruction fetch goes through
+// the instruction cache and every load and store through the data cache. With a branch predictor every
+// mispredicted branch, and every jalr without the right BTB target, adds the branch penalty.
+public final class FlatModel implements TimingModel {
+
+    private final int[] latency = new int[128];
+    private final Cache instructionCache;     // null without cache
+    private final Cache dataCache;
+    private final BranchPredictor predictor;     // null without predictor
+    private final int branchPenalty;
+
+    public FlatModel(Config config) {
+        for (int opcode = 0; opcode < 128; opcode++)
+        {
+            latency[opcode] = config.getInstructionIPC(Simulator.getInstructionType(opcode));
+        }
+        instructionCache = config.getInstructionCache() == null ? null : new Cache(config.getInstructionCache());
+        dataCache = config.getDataCache() == null ? null : new Cache(config.getDataCache());
+        predictor = config.getBranchPredictor() == null ? null : new BranchPredictor(config.getBranchPredictor());
+        branchPenalty = config.getBranchPenalty();
+    }
+
+    @Override
+    public void reset() {
+        if (instructionCache != null)
+        {
+            instructionCache.reset();
+        }
+        if (dataCache != null)
+        {
+            dataCache.reset();
+        }
+        if (predictor != null)
+        {
+            predictor.reset();
+        }
+    }
+
+    @Override
+    public int instruction(int pc, int opcode, int rd, int rs1, int rs2, int address, int nextPC) {
+        int cycles = latency[opcode];
+
+        if (instructionCache != null)
+        {
+            cycles += instructionCache.latency(pc);
+        }
+        if (dataCache != null && Simulator.accessesMemory(opcode))
+        {
+            cycles += dataCache.latency(address);
+        }
+        if (predictor != null)
+        {
+            if (opcode >= 8 && opcode <= 10)
+            {
+                boolean taken = nextPC != pc + 4;
+                if (predictor.branch(pc, taken))
+                {
+                    cycles += branchPenalty;
+                }
+                else if (taken)
+                {
+                    predictor.target(pc, nextPC);
+                }
+            }
+            else if (opcode == 11)
+            {
+                predictor.target(pc, nextPC);   // resolved in decode, the J cost covers it
+            }
+            else if (opcode == 7 && !predictor.target(pc, nextPC))
+            {
+                cycles += branchPenalty;
+            }
+        }
+        return cycles;
+    }
+
+    public BranchPredictor getBranchPredictor() {
+        return predictor;
+    }
+
+    public Cache getInstructionCache() {
+        return instructionCache;
+    }
+
+    public Cache getDataCache() {
+        return dataCache;
+    }
+
+    @Override
+    public String getReport() {
+        String caches = getCacheReport(instructionCache, dataCache);
+
+        if (predictor == null)
+        {
+            return caches;
+        }
+        return predictor.getReport() + (caches.isEmpty() ? "" : "\n" + caches);
+    }
+
+    // one line per cache that is present
+    static String getCacheReport(Cache instructionCache, Cache dataCache) {
+        StringBuilder report = new StringBuilder();
+
+        if (instructionCache != null)
+        {
+            report.append(instructionCache.getReport("Buyruk onbellegi"));
+        }
+        if (dataCache != null)
+        {
+            report.append(report.length() > 0 ? "\n" : "").append(dataCache.getReport("Veri onbellegi"));
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,218 @@
+package benzetim;
+
+import java.util.Arrays;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+// Several harts running one program on one guest memory, every hart on its own thread with its own registers,
+// counters and timing model. Hart i starts at PC 0 with its id in x10. The harts run in lockstep: each one
+// executes a quantum of instructions, then all of them meet at a barrier before the next quantum starts.
+//
+// Memory models:
+//  - MODEL_QUANTUM: in a quantum every hart works on a private copy on write copy of the shared memory. At the
+//    barrier the bytes each hart changed are merged into the shared memory in hart order, so stores reach the
+//    other harts with the next quantum, like a store buffer drained at every barrier. amoadd, amoswap and fence
+//    end the quantum of their hart, the amos then run at the barrier one after another in hart order on the
+//    merged memory. The results do not depend on thread scheduling at all.
+//  - MODEL_SHARED: the harts use views of the shared memory directly. Plain loads and stores are not ordered
+//    between harts, amos are atomic VarHandle read-modify-writes and fence is a full VarHandle fence. Race free
+//    programs give the same results on every run, racy ones may not. Code written by another hart is not seen.
+public final class HartGroup {
+
+    public static final int MODEL_QUANTUM = 0;
+    public static final int MODEL_SHARED = 1;
+    public static final long DEFAULT_QUANTUM = 10000;
+
+    private static final int HART_ID_REGISTER = 10;
+    private static final int RUNNING = -1;
+    private static final int HALTED = 127;
+
+    private final Memory memory;
+    private final Simulator[] harts;
+    private final int model;
+    private final long quantum;
+
+    // written by the hart threads before the barrier and by the barrier action, the barrier orders them
+    private final int[] state;              // RUNNING, HALTED or the amo / fence opcode the hart waits at
+    private final boolean[] ranQuantum;
+    private Memory.Snapshot quantumStart;
+    private int[] changedAddresses = new int[64];
+    private int[] changedLengths = new int[64];
+    private int changeCount;
+    private long quanta;
+    private boolean finished;
+
+    private CyclicBarrier barrier;
+    private volatile Throwable error;
+
+    public HartGroup(Config config, Program program, int hartCount, int model, long quantum, long memorySize) {
+        if (hartCount <= 0 || quantum <= 0 || (model != MODEL_QUANTUM && model != MODEL_SHARED))
+        {
+            throw new IllegalArgumentException("Invalid hart group: " + hartCount + " harts, quantum " + quantum + ", model " + model);
+        }
+        this.model = model;
+        this.quantum = quantum;
+        this.memory = new Memory(memorySize);
+        program.loadInto(memory);
+
+        harts = new Simulator[hartCount];
+        for (int i = 0; i < hartCount; i++)
+        {
+            harts[i] = new Simulator(config, program, model == MODEL_QUANTUM ? new Memory(memorySize) : memory.share());
+            harts[i].setRegister(HART_ID_REGISTER, i);
+        }
+        state = new int[hartCount];
+        ranQuantum = new boolean[hartCount];
+    }
+
+    public int getHartCount() {
+        return harts.length;
+    }
+
+    public Simulator getHart(int i) {
+        return harts[i];
+    }
+
+    // the shared memory, holds the final state after run
+    public Memory getMemory() {
+        return memory;
+    }
+
+    public long getQuanta() {
+        return quanta;
+    }
+
+    // runs every hart to SON
+    public void run() {
+        Thread[] threads = new Thread[harts.length];
+
+        Arrays.fill(state, RUNNING);
+        quanta = 0;
+        finished = false;
+        error = null;
+        changeCount = 0;
+        quantumStart = model == MODEL_QUANTUM ? memory.snapshot() : null;
+        barrier = new CyclicBarrier(harts.length, this::endQuantum);
+        for (int i = 0; i < harts.length; i++)
+        {
+            int hart = i;
+            threads[i] = new Thread(() -> runHart(hart), "hart-" + i);
+            threads[i].start();
+        }
+
+        for (Thread thread : threads)
+        {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                barrier.reset();
+            }
+        }
+        if (error instanceof RuntimeException)
+        {
+            throw (RuntimeException) error;
+        }
+        if (error != null)
+        {
+            throw new IllegalStateException("Hart failed", error);
+        }
+    }
+
+    private void runHart(int i) {
+        Simulator hart = harts[i];
+
+        try {
+            while (true)
+            {
+                ranQuantum[i] = state[i] != HALTED;
+                if (ranQuantum[i])
+                {
+                    try {
+                        if (model == MODEL_QUANTUM)
+                        {
+                            hart.getMemory().restore(quantumStart);
+                            for (int c = 0; c < changeCount; c++)
+                            {
+                                hart.invalidateDecoded(changedAddresses[c], changedLengths[c]);     // code other harts wrote
+                            }
+                        }
+                        state[i] = hart.runQuantum(hart.getTotalProcessedInstruction() + quantum, model == MODEL_QUANTUM);
+                    } catch (Throwable e) {
+                        // the hart stops but keeps meeting the others at the barrier, the group ends with this quantum
+                        fail(e);
+                        state[i] = HALTED;
+                        ranQuantum[i] = false;
+                    }
+                }
+
+                barrier.await();
+                if (finished)
+                {
+                    return;
+                }
+            }
+        } catch (InterruptedException | BrokenBarrierException e) {
+            fail(e);
+        }
+    }
+
+    private synchronized void fail(Throwable e) {
+        if (error == null)
+        {
+            error = e;
+        }
+    }
+
+    // barrier action, runs on one thread while every hart waits
+    private void endQuantum() {
+        try {
+            changeCount = 0;
+            if (model == MODEL_QUANTUM)
+            {
+                for (int i = 0; i < harts.length; i++)
+                {
+                    if (ranQuantum[i])
+                    {
+                        memory.merge(harts[i].getMemory(), quantumStart, this::addChange);
+                    }
+                }
+                for (int i = 0; i < harts.length; i++)
+                {
+                    if (state[i] != RUNNING && state[i] != HALTED)
+                    {
+                        int address = harts[i].completeSync(memory);
+                        if (state[i] != 22)
+                        {
+                            addChange(address, 4);
+                        }
+                        state[i] = RUNNING;
+                    }
+                }
+                quantumStart = memory.snapshot();
+            }
+
+            quanta++;
+            finished = true;
+            for (int hartState : state)
+            {
+                finished &= hartState == HALTED;
+            }
+            finished |= error != null;
+        } catch (RuntimeException e) {
+            fail(e);
+            finished = true;    // the harts stop after this barrier
+        }
+    }
+
+    private void addChange(int address, int length) {
+        if (changeCount == changedAddresses.length)
+        {
+            changedAddresses = Arrays.copyOf(changedAddresses, changeCount * 2);
+            changedLengths = Arrays.copyOf(changedLengths, changeCount * 2);
+        }
+        changedAddresses[changeCount] = address;
+        changedLengths[changeCount] = length;
+        changeCount++;
+    }
+}
@@ -0,0 +1,599 @@
+package benzetim;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+
+// Sparse guest memory made of 4 KB pages that are allocated on first write.
+// Reads of untouched pages return zero, so reset only has to drop the page table.
+// Addresses are unsigned 32 bit values, the address space can be up to 4 GB.
+// Words and halfwords are big endian and read or written with a single VarHandle access.
+// Snapshots share pages copy on write: after snapshot or restore every page is marked shared and
+// the first write to it copies the page, so a snapshot costs only the page tables.
+// Harts on different threads use views made by share: the same pages with a TLB of their own.
+// Watched pages never enter the TLB, so their loads and stores always take the page table walk, where the
+// watcher sees them before they happen. Without watched pages nothing is checked on a TLB hit.
+public final class Memory {
+
+    // what happens to data accesses that are not aligned to their size
+    public static final int MISALIGNED_SPLIT = 0;   // allowed, split in bytes only when crossing a page
+    public static final int MISALIGNED_TRAP = 1;    // MisalignedAccessException
+
+    public static class MisalignedAccessException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public MisalignedAccessException(int addr, int size) {
+            super("Misaligned " + size + " byte access at 0x" + Integer.toHexString(addr));
+        }
+    }
+
+    private static final VarHandle WORD = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle HALFWORD = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+
+    public static final int PAGE_SHIFT = 12;
+    public static final int PAGE_SIZE = 1 << PAGE_SHIFT;    // 4 KB
+    public static final int PAGE_MASK = PAGE_SIZE - 1;
+    public static final long MAX_SIZE = 1L << 32;           // 4 GB
+
+    // two level page table, 1024 tables of 1024 pages
+    private static final int TABLE_SHIFT = 10;
+    private static final int TABLE_SIZE = 1 << TABLE_SHIFT;
+    private static final int TABLE_MASK = TABLE_SIZE - 1;
+
+    private static final byte[] ZERO_PAGE = new byte[PAGE_SIZE];
+
+    private final long size;
+    private final int pageCount;
+    private final byte[][][] directory;
+    private final long[][] sharedPages;    // one bit per page that is shared with a snapshot
+    private final Memory root;              // this, or the memory a view was made from
+    private int allocatedPages = 0;
+    private int misalignedPolicy = MISALIGNED_SPLIT;
+
+    // one entry TLB in front of the page table, writes through it only when the page is not shared
+    private int tlbPageNumber = -1;
+    private byte[] tlbPage = null;
+    private boolean tlbWritable = false;
+
+    private long[][] watchedPages = null;   // one bit per watched page, null when nothing is watched
+    private Watcher watcher = null;
+
+    // receives the loads and stores of watched pages, instruction fetches and bulk copies are not reported
+    public interface Watcher {
+        void access(int address, int size, boolean write);
+    }
+
+    // receives the byte ranges merge changed
+    public interface ChangeListener {
+        void changed(int address, int length);
+    }
+
+    // frozen page tables, the pages are never written again and can be shared by any number of memories
+    public static final class Snapshot {
+        private final long size;
+        private final byte[][][] tables;
+        private final int allocatedPages;
+
+        private Snapshot(long size, byte[][][] tables, int allocatedPages) {
+            this.size = size;
+            this.tables = tables;
+            this.allocatedPages = allocatedPages;
+        }
+
+        // builds a snapshot from pages read back from a file, pages must be PAGE_SIZE bytes
+        public static Snapshot of(long size, int[] pageNumbers, byte[][] pages) {
+            byte[][][] tables = new byte[TABLE_SIZE][][];
+
+            for (int i = 0; i < pageNumbers.length; i++)
+            {
+                int pageNumber = pageNumbers[i];
+                if ((pageNumber & 0xFFFFFFFFL) << PAGE_SHIFT >= size || pages[i].length != PAGE_SIZE)
+                {
+                    throw new IllegalArgumentException("Invalid page 0x" + Integer.toHexString(pageNumber) + " in snapshot");
+                }
+                if (tables[pageNumber >>> TABLE_SHIFT] == null)
+                {
+                    tables[pageNumber >>> TABLE_SHIFT] = new byte[TABLE_SIZE][];
+                }
+                tables[pageNumber >>> TABLE_SHIFT][pageNumber & TABLE_MASK] = pages[i];
+            }
+            return new Snapshot(size, tables, pageNumbers.length);
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public int getPageCount() {
+            return allocatedPages;
+        }
+
+        // page numbers of the allocated pages in ascending order
+        public int[] getPageNumbers() {
+            int[] pageNumbers = new int[allocatedPages];
+            int count = 0;
+
+            for (int t = 0; t < TABLE_SIZE; t++)
+            {
+                if (tables[t] == null)
+                {
+                    continue;
+                }
+                for (int p = 0; p < TABLE_SIZE; p++)
+                {
+                    if (tables[t][p] != null)
+                    {
+                        pageNumbers[count++] = (t << TABLE_SHIFT) | p;
+                    }
+                }
+            }
+            return pageNumbers;
+        }
+
+        // the shared page itself, callers must not modify it
+        public byte[] getPage(int pageNumber) {
+            byte[][] table = tables[pageNumber >>> TABLE_SHIFT];
+            return table == null ? null : table[pageNumber & TABLE_MASK];
+        }
+    }
+
+    public Memory(long size) {
+        if (size <= 0 || size > MAX_SIZE)
+        {
+            throw new IllegalArgumentException("Memory size must be between 1 byte and 4 GB: " + size);
+        }
+
+        this.size = (size + PAGE_MASK) & ~(long) PAGE_MASK;
+        this.pageCount = (int) (this.size >>> PAGE_SHIFT);
+        this.directory = new byte[TABLE_SIZE][][];
+        this.sharedPages = new long[TABLE_SIZE][];
+        this.root = this;
+    }
+
+    private Memory(Memory root) {
+        this.size = root.size;
+        this.pageCount = root.pageCount;
+        this.directory = root.directory;
+        this.sharedPages = root.sharedPages;
+        this.root = root;
+        this.misalignedPolicy = root.misalignedPolicy;
+    }
+
+    // a view of the same pages with its own TLB, for harts sharing this memory on different threads.
+    // Views allocate pages under a lock on this memory, loads and stores are not ordered between views.
+    // Only loads and stores may be used on a view, and this memory must not be snapshot while views run
+    public Memory share() {
+        for (int t = 0; t < TABLE_SIZE; t++)
+        {
+            if (sharedPages[t] != null)
+            {
+                // copy on write can not work between threads, pages shared with a snapshot are copied now
+                for (int p = 0; p < TABLE_SIZE; p++)
+                {
+                    int pageNumber = (t << TABLE_SHIFT) | p;
+                    if (directory[t][p] != null && isShared(pageNumber))
+                    {
+                        directory[t][p] = directory[t][p].clone();
+                    }
+                }
+                sharedPages[t] = null;
+            }
+        }
+        tlbPageNumber = -1;
+        return new Memory(this);
+    }
+
+    // parses sizes like 1048576, 64K, 16M or 4G
+    public static long parseSize(String value) {
+        long unit = 1;
+        String number = value.trim().toUpperCase();
+
+        if (number.endsWith("K"))
+        {
+            unit = 1L << 10;
+        }
+        else if (number.endsWith("M"))
+        {
+            unit = 1L << 20;
+        }
+        else if (number.endsWith("G"))
+        {
+            unit = 1L << 30;
+        }
+
+        if (unit != 1)
+        {
+            number = number.substring(0, number.length() - 1);
+        }
+        return Long.parseLong(number) * unit;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setMisalignedPolicy(int misalignedPolicy) {
+        this.misalignedPolicy = misalignedPolicy;
+    }
+
+    public int getAllocatedPages() {
+        return allocatedPages;
+    }
+
+    // drops every page, the memory reads as zero again
+    public void reset() {
+        Arrays.fill(directory, null);
+        Arrays.fill(sharedPages, null);
+        allocatedPages = 0;
+        tlbPageNumber = -1;
+        tlbPage = null;
+    }
+
+    // reports every load and store of the pages holding address to address + length - 1 to watcher, watch can
+    // be called several times with the same watcher. unwatch forgets every watched page
+    public void watch(int address, int length, Watcher watcher) {
+        if (watchedPages == null)
+        {
+            watchedPages = new long[TABLE_SIZE][];
+        }
+        this.watcher = watcher;
+        for (long page = (address & 0xFFFFFFFFL) >>> PAGE_SHIFT; page <= ((address & 0xFFFFFFFFL) + length - 1) >>> PAGE_SHIFT; page++)
+        {
+            int pageNumber = (int) page;
+            if (watchedPages[pageNumber >>> TABLE_SHIFT] == null)
+            {
+                watchedPages[pageNumber >>> TABLE_SHIFT] = new long[TABLE_SIZE / 64];
+            }
+            watchedPages[pageNumber >>> TABLE_SHIFT][(pageNumber & TABLE_MASK) >>> 6] |= 1L << pageNumber;
+        }
+        tlbPageNumber = -1;     // the TLB may hold a page that is watched now
+    }
+
+    public void unwatch() {
+        watchedPages = null;
+        watcher = null;
+    }
+
+    private boolean isWatched(int pageNumber) {
+        long[] bits = watchedPages[pageNumber >>> TABLE_SHIFT];
+        return bits != null && (bits[(pageNumber & TABLE_MASK) >>> 6] & (1L << pageNumber)) != 0;
+    }
+
+    // freezes the current contents, only the page tables are copied
+    public Snapshot snapshot() {
+        byte[][][] tables = new byte[TABLE_SIZE][][];
+
+        for (int t = 0; t < TABLE_SIZE; t++)
+        {
+            if (directory[t] != null)
+            {
+                tables[t] = directory[t].clone();
+                markShared(t);
+            }
+        }
+        tlbWritable = false;
+        return new Snapshot(size, tables, allocatedPages);
+    }
+
+    // replaces the contents with the snapshot, pages are copied only when they are written
+    public void restore(Snapshot snapshot) {
+        if (snapshot.size != size)
+        {
+            throw new IllegalArgumentException("Snapshot of a " + snapshot.size + " byte memory can not be restored into " + size + " bytes");
+        }
+
+        reset();
+        for (int t = 0; t < TABLE_SIZE; t++)
+        {
+            if (snapshot.tables[t] != null)
+            {
+                directory[t] = snapshot.tables[t].clone();
+                markShared(t);
+            }
+        }
+        allocatedPages = snapshot.allocatedPages;
+    }
+
+    private void markShared(int table) {
+        if (sharedPages[table] == null)
+        {
+            sharedPages[table] = new long[TABLE_SIZE / 64];
+        }
+        Arrays.fill(sharedPages[table], -1L);
+    }
+
+    private byte[] getPage(int addr, boolean allocate) {
+        return getPage(addr, allocate, 0);
+    }
+
+    // returns the page holding addr, or null for an untouched page when allocate is false. size is the size of
+    // the load or store for the watcher, 0 for accesses it does not see
+    private byte[] getPage(int addr, boolean allocate, int size) {
+        int pageNumber = addr >>> PAGE_SHIFT;
+
+        if (pageNumber == tlbPageNumber && (tlbWritable || !allocate))
+        {
+            return tlbPage;
+        }
+        if (pageNumber >= pageCount)
+        {
+            throw new ArrayIndexOutOfBoundsException("Memory address out of range: 0x" + Integer.toHexString(addr));
+        }
+        if (watchedPages != null && size > 0 && isWatched(pageNumber))
+        {
+            watcher.access(addr, size, allocate);
+        }
+
+        byte[][] table = directory[pageNumber >>> TABLE_SHIFT];
+        if (table == null)
+        {
+            if (!allocate)
+            {
+                return null;
+            }
+            if (root != this)
+            {
+                return allocateShared(pageNumber);
+            }
+            table = new byte[TABLE_SIZE][];
+            directory[pageNumber >>> TABLE_SHIFT] = table;
+        }
+
+        byte[] page = table[pageNumber & TABLE_MASK];
+        if (page == null)
+        {
+            if (!allocate)
+            {
+                return null;
+            }
+            if (root != this)
+            {
+                return allocateShared(pageNumber);
+            }
+            page = new byte[PAGE_SIZE];
+            table[pageNumber & TABLE_MASK] = page;
+            allocatedPages++;
+            unshare(pageNumber);
+        }
+
+        boolean writable = !isShared(pageNumber);
+        if (allocate && !writable)
+        {
+            // first write since the page was shared with a snapshot
+            page = page.clone();
+            table[pageNumber & TABLE_MASK] = page;
+            unshare(pageNumber);
+            writable = true;
+        }
+
+        if (watchedPages == null || !isWatched(pageNumber))
+        {
+            tlbPageNumber = pageNumber;
+            tlbPage = page;
+            tlbWritable = writable;
+        }
+        return page;
+    }
+
+    // a view allocates through its root under the root's lock, the root is not used while views run
+    private byte[] allocateShared(int pageNumber) {
+        byte[] page;
+
+        synchronized (root) {
+            page = root.getPage(pageNumber << PAGE_SHIFT, true);
+        }
+        if (watchedPages == null || !isWatched(pageNumber))
+        {
+            tlbPageNumber = pageNumber;
+            tlbPage = page;
+            tlbWritable = true;
+        }
+        return page;
+    }
+
+    // copies every byte source changed since it was restored from base into this memory, for harts that run
+    // on private copies and publish their stores together. listener gets one range per changed page
+    public void merge(Memory source, Snapshot base, ChangeListener listener) {
+        for (int t = 0; t < TABLE_SIZE; t++)
+        {
+            byte[][] table = source.directory[t];
+            if (table == null)
+            {
+                continue;
+            }
+
+            for (int p = 0; p < TABLE_SIZE; p++)
+            {
+                int pageNumber = (t << TABLE_SHIFT) | p;
+                byte[] page = table[p];
+                if (page == null || source.isShared(pageNumber))
+                {
+                    continue;   // not written since the restore
+                }
+
+                byte[] original = base.getPage(pageNumber);
+                if (original == null)
+                {
+                    original = ZERO_PAGE;
+                }
+                int first = Arrays.mismatch(page, original);
+                if (first < 0)
+                {
+                    continue;
+                }
+
+                // copies the runs of changed bytes, bytes source did not change keep what other harts merged
+                byte[] target = getPage(pageNumber << PAGE_SHIFT, true);
+                int offset = first;
+                int end = first;
+                while (offset >= 0)
+                {
+                    end = offset + 1;
+                    while (end < PAGE_SIZE && page[end] != original[end])
+                    {
+                        end++;
+                    }
+                    System.arraycopy(page, offset, target, offset, end - offset);
+                    int next = end < PAGE_SIZE ? Arrays.mismatch(page, end, PAGE_SIZE, original, end, PAGE_SIZE) : -1;
+                    offset = next < 0 ? -1 : end + next;
+                }
+                listener.changed((pageNumber << PAGE_SHIFT) + first, end - first);
+            }
+        }
+    }
+
+    private boolean isShared(int pageNumber) {
+        long[] bits = sharedPages[pageNumber >>> TABLE_SHIFT];
+        return bits != null && (bits[(pageNumber & TABLE_MASK) >>> 6] & (1L << pageNumber)) != 0;
+    }
+
+    private void unshare(int pageNumber) {
+        long[] bits = sharedPages[pageNumber >>> TABLE_SHIFT];
+
+        if (bits != null)
+        {
+            bits[(pageNumber & TABLE_MASK) >>> 6] &= ~(1L << pageNumber);
+        }
+    }
+
+    public int loadByte(int addr) {
+        return loadByte(addr, 1);
+    }
+
+    // size 0 reads without telling the watcher
+    private int loadByte(int addr, int size) {
+        byte[] page = getPage(addr, false, size);
+        return page == null ? 0 : page[addr & PAGE_MASK];
+    }
+
+    public void storeByte(int addr, int value) {
+        getPage(addr, true, 1)[addr & PAGE_MASK] = (byte) value;
+    }
+
+    // instruction fetch, not affected by the misaligned data access policy
+    public int fetchWord(int addr) {
+        if ((addr & 3) == 0)
+        {
+            byte[] page = getPage(addr, false);
+            return page == null ? 0 : (int) WORD.get(page, addr & PAGE_MASK);
+        }
+        return loadUnalignedWord(addr, 0);
+    }
+
+    public int loadWord(int addr) {
+        if ((addr & 3) == 0)
+        {
+            byte[] page = getPage(addr, false, 4);
+            return page == null ? 0 : (int) WORD.get(page, addr & PAGE_MASK);
+        }
+
+        checkMisaligned(addr, 4);
+        return loadUnalignedWord(addr, 4);
+    }
+
+    public void storeWord(int addr, int value) {
+        if ((addr & 3) == 0)
+        {
+            WORD.set(getPage(addr, true, 4), addr & PAGE_MASK, value);
+            return;
+        }
+
+        checkMisaligned(addr, 4);
+        if ((addr & PAGE_MASK) > PAGE_SIZE - 4)
+        {
+            // crosses into the next page
+            storeByte(addr, value >> 24);
+            storeByte(addr + 1, value >> 16);
+            storeByte(addr + 2, value >> 8);
+            storeByte(addr + 3, value);
+            return;
+        }
+        WORD.set(getPage(addr, true, 4), addr & PAGE_MASK, value);
+    }
+
+    // atomic read-modify-write of an aligned word with volatile (acquire and release) ordering, so harts on
+    // views of the same memory see it in one order. Both return the old value
+    public int atomicAddWord(int addr, int value) {
+        checkAtomic(addr);
+        return (int) WORD.getAndAdd(getPage(addr, true, 4), addr & PAGE_MASK, value);
+    }
+
+    public int atomicSwapWord(int addr, int value) {
+        checkAtomic(addr);
+        return (int) WORD.getAndSet(getPage(addr, true, 4), addr & PAGE_MASK, value);
+    }
+
+    // VarHandle atomics need natural alignment whatever the misaligned policy is
+    private static void checkAtomic(int addr) {
+        if ((addr & 3) != 0)
+        {
+            throw new MisalignedAccessException(addr, 4);
+        }
+    }
+
+    // bulk copy of length bytes from src starting at offset, one array copy per page
+    public void storeBytes(int addr, ByteBuffer src, int offset, int length) {
+        while (length > 0)
+        {
+            int pageOffset = addr & PAGE_MASK;
+            int count = Math.min(length, PAGE_SIZE - pageOffset);
+
+            src.get(offset, getPage(addr, true), pageOffset, count);
+            addr += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    // halfwords are sign extended like lb does for bytes
+    public int loadHalfword(int addr) {
+        if ((addr & 1) != 0)
+        {
+            checkMisaligned(addr, 2);
+            if ((addr & PAGE_MASK) == PAGE_MASK)
+            {
+                return (short) ((loadByte(addr) << 8) | (loadByte(addr + 1) & 0xff));
+            }
+        }
+
+        byte[] page = getPage(addr, false, 2);
+        return page == null ? 0 : (short) HALFWORD.get(page, addr & PAGE_MASK);
+    }
+
+    public void storeHalfword(int addr, int value) {
+        if ((addr & 1) != 0)
+        {
+            checkMisaligned(addr, 2);
+            if ((addr & PAGE_MASK) == PAGE_MASK)
+            {
+                storeByte(addr, value >> 8);
+                storeByte(addr + 1, value);
+                return;
+            }
+        }
+
+        HALFWORD.set(getPage(addr, true, 2), addr & PAGE_MASK, (short) value);
+    }
+
+    private void checkMisaligned(int addr, int size) {
+        if (misalignedPolicy == MISALIGNED_TRAP)
+        {
+            throw new MisalignedAccessException(addr, size);
+        }
+    }
+
+    private int loadUnalignedWord(int addr, int size) {
+        if ((addr & PAGE_MASK) > PAGE_SIZE - 4)
+        {
+            // crosses into the next page, a watcher sees the bytes
+            int byteSize = size == 0 ? 0 : 1;
+            return ((loadByte(addr, byteSize) & 0xff) << 24) + ((loadByte(addr + 1, byteSize) & 0xff) << 16)
+                    + ((loadByte(addr + 2, byteSize) & 0xff) << 8) + (loadByte(addr + 3, byteSize) & 0xff);
+        }
+
+        byte[] page = getPage(addr, false, size);
+        return page == null ? 0 : (int) WORD.get(page, addr & PAGE_MASK);
+    }
+}
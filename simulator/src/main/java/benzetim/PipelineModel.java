@@ -0,0 +1,208 @@
+package benzetim;
+
+import java.util.Arrays;
+
+// Classic in order 5 stage pipeline (IF, ID, EX, MEM, WB) with one instruction per stage.
+// The type cost of the config is the number of cycles an instruction occupies EX, everything behind it waits.
+//  - RAW hazards: an instruction enters EX when its source registers are ready. With forwarding ALU results
+//    are ready right after EX and loaded values after MEM (one load-use stall), without forwarding every
+//    result is read from the register file in the cycle it is written back
+//  - branches go through the branch predictor of the config, static not taken without one. A mispredicted
+//    branch or a jalr without the right BTB target flushes the fetched instructions and costs the branch
+//    penalty. A taken branch or jal the BTB does not know is redirected in ID and costs one cycle
+//  - with L1 caches an instruction cache miss stalls IF and a data cache miss stalls MEM, both block the pipeline
+// Only timing is modelled, x0 is an ordinary register just like in the functional model.
+public final class PipelineModel implements TimingModel {
+
+    private static final int FRONT_END = 2;     // IF and ID before the first EX
+    private static final int BACK_END = 2;      // MEM and WB after EX
+
+    private static final boolean[] READS_RS1 = new boolean[128];
+    private static final boolean[] READS_RS2 = new boolean[128];
+    private static final boolean[] WRITES_RD = new boolean[128];
+
+    static {
+        for (int opcode : new int[]{0, 1, 4, 6, 16, 17, 20, 21})   // R and amos
+        {
+            READS_RS1[opcode] = READS_RS2[opcode] = WRITES_RD[opcode] = true;
+        }
+        for (int opcode : new int[]{2, 3, 5, 7, 12, 14, 19})   // I, slti compares the register index and reads nothing
+        {
+            READS_RS1[opcode] = WRITES_RD[opcode] = true;
+        }
+        for (int opcode : new int[]{8, 9, 10, 13, 15})         // B and S
+        {
+            READS_RS1[opcode] = READS_RS2[opcode] = true;
+        }
+        WRITES_RD[11] = WRITES_RD[18] = true;
+    }
+
+    private final int[] latency = new int[128];
+    private final boolean forwarding;
+    private final int branchPenalty;
+    private final Cache instructionCache;     // null without cache
+    private final Cache dataCache;
+    private final BranchPredictor predictor;
+
+    private final long[] ready = new long[32];           // first cycle a consumer can start EX with the value
+    private final boolean[] loaded = new boolean[32];    // the value comes from a load
+    private long executeFree;
+    private long fetchReady;
+    private long lastCompletion;
+
+    private long dataStalls;
+    private long loadUseStalls;
+    private long flushes;
+    private long flushCycles;
+
+    public PipelineModel(Config config) {
+        for (int opcode = 0; opcode < 128; opcode++)
+        {
+            latency[opcode] = Math.max(1, config.getInstructionIPC(Simulator.getInstructionType(opcode)));
+        }
+        forwarding = config.isForwarding();
+        branchPenalty = config.getBranchPenalty();
+        instructionCache = config.getInstructionCache() == null ? null : new Cache(config.getInstructionCache());
+        dataCache = config.getDataCache() == null ? null : new Cache(config.getDataCache());
+        predictor = new BranchPredictor(config.getBranchPredictor() == null ? BranchPredictor.Spec.STATIC : config.getBranchPredictor());
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        Arrays.fill(ready, 0);
+        Arrays.fill(loaded, false);
+        executeFree = FRONT_END;
+        fetchReady = FRONT_END;
+        lastCompletion = 0;
+        dataStalls = 0;
+        loadUseStalls = 0;
+        flushes = 0;
+        flushCycles = 0;
+        predictor.reset();
+        if (instructionCache != null)
+        {
+            instructionCache.reset();
+        }
+        if (dataCache != null)
+        {
+            dataCache.reset();
+        }
+    }
+
+    @Override
+    public int instruction(int pc, int opcode, int rd, int rs1, int rs2, int address, int nextPC) {
+        long front = Math.max(executeFree, fetchReady);
+        if (instructionCache != null)
+        {
+            front += instructionCache.latency(pc);
+        }
+        long operands = 0;
+        boolean fromLoad = false;
+
+        if (READS_RS1[opcode])
+        {
+            operands = ready[rs1];
+            fromLoad = loaded[rs1];
+        }
+        if (READS_RS2[opcode] && ready[rs2] >= operands)
+        {
+            fromLoad = ready[rs2] > operands ? loaded[rs2] : fromLoad || loaded[rs2];
+            operands = ready[rs2];
+        }
+
+        long start = Math.max(front, operands);
+        if (start > front)
+        {
+            dataStalls += start - front;
+            if (fromLoad && forwarding)
+            {
+                loadUseStalls += start - front;
+            }
+        }
+
+        long end = start + latency[opcode];
+        if (dataCache != null && Simulator.accessesMemory(opcode))
+        {
+            end += dataCache.latency(address);    // the MEM stall holds everything behind it
+        }
+        executeFree = end;
+        if (WRITES_RD[opcode])
+        {
+            boolean load = opcode == 12 || opcode == 14 || opcode == 20 || opcode == 21;
+            ready[rd] = !forwarding ? end + BACK_END : load ? end + 1 : end;
+            loaded[rd] = load;
+        }
+
+        if (opcode >= 8 && opcode <= 10)
+        {
+            boolean taken = nextPC != pc + 4;
+            if (predictor.branch(pc, taken))
+            {
+                flush(end + branchPenalty, end);
+            }
+            else if (taken && !predictor.target(pc, nextPC))
+            {
+                flush(start + 2, end);      // target known in ID
+            }
+        }
+        else if (opcode == 11 && !predictor.target(pc, nextPC))
+        {
+            flush(start + 2, end);
+        }
+        else if (opcode == 7 && !predictor.target(pc, nextPC))
+        {
+            flush(end + branchPenalty, end);
+        }
+
+        long completion = end + BACK_END;
+        int cycles = (int) (completion - lastCompletion);
+        lastCompletion = completion;
+        return cycles;
+    }
+
+    private void flush(long restart, long end) {
+        flushes++;
+        if (restart > end)
+        {
+            flushCycles += restart - end;
+        }
+        fetchReady = restart;
+    }
+
+    public long getDataStalls() {
+        return dataStalls;
+    }
+
+    public long getLoadUseStalls() {
+        return loadUseStalls;
+    }
+
+    public long getFlushes() {
+        return flushes;
+    }
+
+    public long getFlushCycles() {
+        return flushCycles;
+    }
+
+    public BranchPredictor getBranchPredictor() {
+        return predictor;
+    }
+
+    public Cache getInstructionCache() {
+        return instructionCache;
+    }
+
+    public Cache getDataCache() {
+        return dataCache;
+    }
+
+    @Override
+    public String getReport() {
+        String caches = FlatModel.getCacheReport(instructionCache, dataCache);
+
+        return "Boru hatti: " + dataStalls + " veri bagimliligi bekleme cevrimi (" + loadUseStalls + " yukle-kullan), "
+                + flushes + " bosaltma (" + flushCycles + " cevrim)\n" + predictor.getReport() + (caches.isEmpty() ? "" : "\n" + caches);
+    }
+}
@@ -0,0 +1,404 @@
+package benzetim;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.Function;
+
+// Execution profile of a simulator: executed instructions and cycles per opcode, per PC and per basic block,
+// plus cycles per guest call stack for flamegraphs. All counters are primitive arrays.
+// The simulator only calls it when a profiler is set, the interpreter reports every instruction,
+// the block engines report whole blocks.
+//
+// Basic blocks are dynamic: a block starts at the first instruction after a jump, branch or engine block cut.
+// The call stack is a shadow stack: jal / jalr linking x1 or x5 (the RISC-V convention) is a call,
+// a jalr to a return address on the stack returns to that frame.
+public final class Profiler implements ExecutionObserver {
+
+    private static final int PC_PAGE_SHIFT = 12;
+    private static final int PC_PAGE_WORDS = 1 << (PC_PAGE_SHIFT - 2);
+    private static final int MAX_CALL_DEPTH = 256;
+    private static final int HOT_SPOT_COUNT = 20;
+
+    // per opcode, opcodes are 7 bits
+    private final long[] opcodeCount = new long[128];
+    private final long[] opcodeCycles = new long[128];
+
+    // per word aligned PC, one page per 4 KB of code in a two level directory indexed by pc >>> 12
+    private static class PcPage {
+        final long[] count = new long[PC_PAGE_WORDS];
+        final long[] cycles = new long[PC_PAGE_WORDS];
+        final long[] blockEntries = new long[PC_PAGE_WORDS];
+        final long[] blockCycles = new long[PC_PAGE_WORDS];
+        final byte[] opcode = new byte[PC_PAGE_WORDS];    // last opcode executed at the PC
+    }
+
+    private final PcPage[][] pcPages = new PcPage[1024][];
+    private int lastPage = -1;
+    private PcPage lastPcPage;
+
+    // stack trie for the folded output, node 0 is the root. A node is a function frame or a block leaf
+    private int nodeCount = 1;
+    private int[] nodeParent = new int[256];
+    private int[] nodePC = new int[256];
+    private boolean[] nodeIsBlock = new boolean[256];
+    private long[] nodeCycles = new long[256];
+    private long[] nodeKeys = new long[512];    // open addressing: (parent, kind, pc) -> node + 1
+    private int[] nodeValues = new int[512];
+
+    // shadow call stack of function nodes and their return addresses
+    private final int[] stackNodes = new int[MAX_CALL_DEPTH + 1];
+    private final int[] stackReturns = new int[MAX_CALL_DEPTH + 1];
+    private int depth = 0;
+
+    // current dynamic block and the exit instruction that ended the previous one
+    private boolean blockEnded = true;
+    private int blockPC;
+    private int blockNode;
+    private long[] blockCyclesCounters;
+    private int exitOpcode = -1;
+    private int exitPC;
+    private int exitRd;
+
+    // forgets the call stack and the current block, the counters are kept
+    @Override
+    public void restart() {
+        depth = 0;
+        stackNodes[0] = 0;
+        blockEnded = true;
+        exitOpcode = -1;
+    }
+
+    // one instruction executed by the interpreter, called before it runs
+    @Override
+    public void instruction(int pc, int opcode, int rd, int cycles) {
+        if (blockEnded)
+        {
+            startBlock(pc);
+        }
+        count(pc, opcode, cycles);
+
+        if (isBlockExit(opcode))
+        {
+            endBlock(opcode, pc, rd);
+        }
+    }
+
+    // the first executed instructions of an engine block, ops and cyclesUpTo in Simulator.Block form
+    @Override
+    public void block(int startPC, int[] ops, int executed, int[] cyclesUpTo) {
+        int previousCycles = 0;
+
+        startBlock(startPC);
+        for (int i = 0; i < executed; i++)
+        {
+            count(startPC + i * 4, ops[i * 5], cyclesUpTo[i] - previousCycles);
+            previousCycles = cyclesUpTo[i];
+        }
+
+        int lastOpcode = ops[(executed - 1) * 5];
+        if (isBlockExit(lastOpcode))
+        {
+            endBlock(lastOpcode, startPC + (executed - 1) * 4, ops[(executed - 1) * 5 + 1]);
+        }
+        else
+        {
+            blockEnded = true;  // cut block or early exit, the next block continues in the same frame
+            exitOpcode = -1;
+        }
+    }
+
+    private static boolean isBlockExit(int opcode) {
+        return (opcode >= 7 && opcode <= 11) || opcode < 0 || opcode > 19;
+    }
+
+    private void count(int pc, int opcode, int cycles) {
+        opcodeCount[opcode]++;
+        opcodeCycles[opcode] += cycles;
+
+        int page = pc >>> PC_PAGE_SHIFT;
+        if (page != lastPage)
+        {
+            lastPcPage = pcPage(page);
+            lastPage = page;
+        }
+        int word = (pc >> 2) & (PC_PAGE_WORDS - 1);
+        lastPcPage.count[word]++;
+        lastPcPage.cycles[word] += cycles;
+        lastPcPage.opcode[word] = (byte) opcode;
+
+        blockCyclesCounters[(blockPC >> 2) & (PC_PAGE_WORDS - 1)] += cycles;
+        nodeCycles[blockNode] += cycles;
+    }
+
+    private PcPage pcPage(int page) {
+        PcPage[] table = pcPages[page >>> 10];
+        if (table == null)
+        {
+            table = new PcPage[1024];
+            pcPages[page >>> 10] = table;
+        }
+        if (table[page & 1023] == null)
+        {
+            table[page & 1023] = new PcPage();
+        }
+        return table[page & 1023];
+    }
+
+    // the page of pc if it was ever executed, null otherwise
+    private PcPage findPcPage(int pc) {
+        PcPage[] table = pcPages[pc >>> (PC_PAGE_SHIFT + 10)];
+        return table == null ? null : table[(pc >>> PC_PAGE_SHIFT) & 1023];
+    }
+
+    private void endBlock(int opcode, int pc, int rd) {
+        blockEnded = true;
+        exitOpcode = opcode;
+        exitPC = pc;
+        exitRd = rd;
+    }
+
+    // applies the call or return of the previous block's exit and starts counting the block at pc
+    private void startBlock(int pc) {
+        if (exitOpcode == 7 || exitOpcode == 11)
+        {
+            if (exitRd == 1 || exitRd == 5)
+            {
+                if (depth < MAX_CALL_DEPTH)
+                {
+                    depth++;
+                    stackNodes[depth] = node(stackNodes[depth - 1], pc, false);
+                    stackReturns[depth] = exitPC + 4;
+                }
+            }
+            else if (exitOpcode == 7)
+            {
+                for (int frame = depth; frame > 0; frame--)
+                {
+                    if (stackReturns[frame] == pc)
+                    {
+                        depth = frame - 1;
+                        break;
+                    }
+                }
+            }
+        }
+
+        blockEnded = false;
+        exitOpcode = -1;
+        blockPC = pc & ~3;
+        blockNode = node(stackNodes[depth], blockPC, true);
+        PcPage page = pcPage(blockPC >>> PC_PAGE_SHIFT);
+        page.blockEntries[(blockPC >> 2) & (PC_PAGE_WORDS - 1)]++;
+        blockCyclesCounters = page.blockCycles;
+    }
+
+    // finds or adds the trie node for a child of parent
+    private int node(int parent, int pc, boolean isBlock) {
+        long key = ((long) parent << 33) | (isBlock ? 1L << 32 : 0) | (pc & 0xFFFFFFFFL);
+        int mask = nodeKeys.length - 1;
+        int index = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+
+        while (nodeValues[index] != 0)
+        {
+            if (nodeKeys[index] == key)
+            {
+                return nodeValues[index] - 1;
+            }
+            index = (index + 1) & mask;
+        }
+
+        int node = nodeCount++;
+        if (node == nodeParent.length)
+        {
+            nodeParent = Arrays.copyOf(nodeParent, node * 2);
+            nodePC = Arrays.copyOf(nodePC, node * 2);
+            nodeIsBlock = Arrays.copyOf(nodeIsBlock, node * 2);
+            nodeCycles = Arrays.copyOf(nodeCycles, node * 2);
+        }
+        nodeParent[node] = parent;
+        nodePC[node] = pc;
+        nodeIsBlock[node] = isBlock;
+        nodeKeys[index] = key;
+        nodeValues[index] = node + 1;
+
+        if (nodeCount * 2 > nodeKeys.length)
+        {
+            rehash();
+        }
+        return node;
+    }
+
+    private void rehash() {
+        long[] keys = nodeKeys;
+        int[] values = nodeValues;
+
+        nodeKeys = new long[keys.length * 2];
+        nodeValues = new int[keys.length * 2];
+        int mask = nodeKeys.length - 1;
+        for (int i = 0; i < keys.length; i++)
+        {
+            if (values[i] != 0)
+            {
+                int index = (int) ((keys[i] * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+                while (nodeValues[index] != 0)
+                {
+                    index = (index + 1) & mask;
+                }
+                nodeKeys[index] = keys[i];
+                nodeValues[index] = values[i];
+            }
+        }
+    }
+
+    /////
+
+    public long getOpcodeCount(int opcode) {
+        return opcodeCount[opcode];
+    }
+
+    public long getOpcodeCycles(int opcode) {
+        return opcodeCycles[opcode];
+    }
+
+    public long getPCCount(int pc) {
+        PcPage page = findPcPage(pc);
+        return page == null ? 0 : page.count[(pc >> 2) & (PC_PAGE_WORDS - 1)];
+    }
+
+    public long getPCCycles(int pc) {
+        PcPage page = findPcPage(pc);
+        return page == null ? 0 : page.cycles[(pc >> 2) & (PC_PAGE_WORDS - 1)];
+    }
+
+    // instructions and cycles per type, in the order of Simulator.getInstructionTypeCount
+    public long[] getTypeCounts() {
+        long[] counts = new long[6];
+        for (int opcode = 0; opcode < 128; opcode++)
+        {
+            counts[Simulator.getTypeCountIndex(Simulator.getInstructionType(opcode))] += opcodeCount[opcode];
+        }
+        return counts;
+    }
+
+    public long[] getTypeCycles() {
+        long[] cycles = new long[6];
+        for (int opcode = 0; opcode < 128; opcode++)
+        {
+            cycles[Simulator.getTypeCountIndex(Simulator.getInstructionType(opcode))] += opcodeCycles[opcode];
+        }
+        return cycles;
+    }
+
+    // word aligned PCs with a non zero counter, sorted by the counter, highest first
+    private int[] hottest(Function<PcPage, long[]> counter, int limit) {
+        List<long[]> entries = new ArrayList<long[]>();
+
+        for (int table = 0; table < pcPages.length; table++)
+        {
+            for (int index = 0; pcPages[table] != null && index < 1024; index++)
+            {
+                PcPage page = pcPages[table][index];
+                for (int word = 0; page != null && word < PC_PAGE_WORDS; word++)
+                {
+                    long value = counter.apply(page)[word];
+                    if (value != 0)
+                    {
+                        long pc = ((long) table << (PC_PAGE_SHIFT + 10)) | ((long) index << PC_PAGE_SHIFT) | (word << 2);
+                        entries.add(new long[]{value, pc});
+                    }
+                }
+            }
+        }
+        entries.sort((a, b) -> Long.compare(b[0], a[0]));
+
+        int[] pcs = new int[Math.min(limit, entries.size())];
+        for (int i = 0; i < pcs.length; i++)
+        {
+            pcs[i] = (int) entries.get(i)[1];
+        }
+        return pcs;
+    }
+
+    private static String percent(long part, long total) {
+        return String.format("%6.2f%%", total == 0 ? 0.0 : 100.0 * part / total);
+    }
+
+    public void writeReport(String fileName) throws IOException {
+        String[] typeNames = {"R", "I", "S", "B", "J", "diger"};
+        long totalCount = 0;
+        long totalCycles = 0;
+
+        for (int opcode = 0; opcode < 128; opcode++)
+        {
+            totalCount += opcodeCount[opcode];
+            totalCycles += opcodeCycles[opcode];
+        }
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(fileName)))) {
+            out.printf("Toplam Buyruk Sayisi: %d\nToplam Cevrim Sayisi: %d\n\n", totalCount, totalCycles);
+
+            out.printf("%-8s %15s %8s %15s %8s\n", "Buyruk", "Sayi", "", "Cevrim", "");
+            for (int opcode = 0; opcode < 128; opcode++)
+            {
+                if (opcodeCount[opcode] != 0)
+                {
+                    out.printf("%-8s %15d %8s %15d %8s\n", Assembler.getMnemonic(opcode), opcodeCount[opcode], percent(opcodeCount[opcode], totalCount),
+                            opcodeCycles[opcode], percent(opcodeCycles[opcode], totalCycles));
+                }
+            }
+
+            long[] typeCounts = getTypeCounts();
+            long[] typeCycles = getTypeCycles();
+            out.printf("\n%-8s %15s %8s %15s %8s\n", "Tip", "Sayi", "", "Cevrim", "");
+            for (int type = 0; type < 6; type++)
+            {
+                out.printf("%-8s %15d %8s %15d %8s\n", typeNames[type], typeCounts[type], percent(typeCounts[type], totalCount),
+                        typeCycles[type], percent(typeCycles[type], totalCycles));
+            }
+
+            out.printf("\nEn cok cevrim harcayan adresler\n%-12s %-8s %15s %15s %8s\n", "PC", "Buyruk", "Sayi", "Cevrim", "");
+            for (int pc : hottest(page -> page.cycles, HOT_SPOT_COUNT))
+            {
+                PcPage page = findPcPage(pc);
+                int word = (pc >> 2) & (PC_PAGE_WORDS - 1);
+                out.printf("0x%-10x %-8s %15d %15d %8s\n", pc, Assembler.getMnemonic(page.opcode[word]), page.count[word], page.cycles[word],
+                        percent(page.cycles[word], totalCycles));
+            }
+
+            out.printf("\nEn cok cevrim harcayan temel bloklar\n%-12s %15s %15s %8s\n", "Blok", "Giris", "Cevrim", "");
+            for (int pc : hottest(page -> page.blockCycles, HOT_SPOT_COUNT))
+            {
+                PcPage page = findPcPage(pc);
+                int word = (pc >> 2) & (PC_PAGE_WORDS - 1);
+                out.printf("0x%-10x %15d %15d %8s\n", pc, page.blockEntries[word], page.blockCycles[word], percent(page.blockCycles[word], totalCycles));
+            }
+        }
+    }
+
+    // one "frame;frame;... cycles" line per stack ending in a block, for flamegraph.pl and similar tools
+    public void writeFoldedStacks(String fileName) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(fileName)))) {
+            StringBuilder line = new StringBuilder();
+            for (int node = 1; node < nodeCount; node++)
+            {
+                if (nodeIsBlock[node] && nodeCycles[node] != 0)
+                {
+                    line.setLength(0);
+                    line.append(frameName(node));
+                    for (int parent = nodeParent[node]; parent != 0; parent = nodeParent[parent])
+                    {
+                        line.insert(0, frameName(parent) + ";");
+                    }
+                    out.println("program;" + line + " " + nodeCycles[node]);
+                }
+            }
+        }
+    }
+
+    private String frameName(int node) {
+        return (nodeIsBlock[node] ? "block_0x" : "func_0x") + Integer.toHexString(nodePC[node]);
+    }
+}
@@ -0,0 +1,100 @@
+package benzetim;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+// Assembled program, the address and encoded instruction of every program line.
+// Lines with consecutive word addresses are kept together as segments over one big endian word buffer,
+// which is either built from the assembled lines or mapped from a binary program image.
+// Immutable, so one instance can be loaded into any number of simulators.
+public final class Program {
+
+    private final int[] segmentAddresses;
+    private final int[] segmentOffsets;     // index of the first word of every segment, the word count at the end
+    private final ByteBuffer words;
+
+    public Program(int[] addresses, int[] instructions) {
+        int segmentCount = 0;
+        int[] starts = new int[addresses.length + 1];
+
+        for (int i = 0; i < addresses.length; i++)
+        {
+            if (i == 0 || addresses[i] != addresses[i - 1] + 4)
+            {
+                starts[segmentCount++] = i;
+            }
+        }
+        starts[segmentCount] = addresses.length;
+
+        this.segmentAddresses = new int[segmentCount];
+        for (int s = 0; s < segmentCount; s++)
+        {
+            segmentAddresses[s] = addresses[starts[s]];
+        }
+        this.segmentOffsets = Arrays.copyOf(starts, segmentCount + 1);
+
+        ByteBuffer buffer = ByteBuffer.allocate(instructions.length * 4);
+        buffer.asIntBuffer().put(instructions);
+        this.words = buffer.asReadOnlyBuffer();
+    }
+
+    // for binary program images, words holds segmentOffsets[segmentCount] words starting at index 0
+    Program(int[] segmentAddresses, int[] segmentOffsets, ByteBuffer words) {
+        this.segmentAddresses = segmentAddresses;
+        this.segmentOffsets = segmentOffsets;
+        this.words = words.asReadOnlyBuffer();
+    }
+
+    // assembles the program file, malformed lines are reported with an Assembler.AssemblyException
+    public static Program read(String programFileName) {
+        try {
+            return Assembler.assemble(programFileName);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new Program(new int[0], new int[0]);
+        }
+    }
+
+    // copies every segment into memory with one bulk copy per page, same result as storing the words in order
+    public void loadInto(Memory memory) {
+        for (int s = 0; s < segmentAddresses.length; s++)
+        {
+            int offset = segmentOffsets[s] * 4;
+            memory.storeBytes(segmentAddresses[s], words, offset, segmentOffsets[s + 1] * 4 - offset);
+        }
+    }
+
+    public int size() {
+        return segmentOffsets[segmentAddresses.length];
+    }
+
+    public int getAddress(int index) {
+        int s = Arrays.binarySearch(segmentOffsets, 0, segmentAddresses.length, index);
+        if (s < 0)
+        {
+            s = -s - 2;     // inside the segment starting before index
+        }
+        return segmentAddresses[s] + (index - segmentOffsets[s]) * 4;
+    }
+
+    public int getInstruction(int index) {
+        return words.getInt(index * 4);
+    }
+
+    int getSegmentCount() {
+        return segmentAddresses.length;
+    }
+
+    int getSegmentAddress(int segment) {
+        return segmentAddresses[segment];
+    }
+
+    int getSegmentOffset(int segment) {
+        return segmentOffsets[segment];
+    }
+
+    ByteBuffer getWords() {
+        return words.duplicate();
+    }
+}
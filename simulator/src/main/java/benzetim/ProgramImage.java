@@ -0,0 +1,175 @@
+package benzetim;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32C;
+
+// Binary program image, a program assembled once and loaded later without parsing.
+// The image file is mapped with FileChannel.map and its word area is used directly as the program's words,
+// Simulator.reset then copies the segments into guest memory in bulk.
+//
+// Layout, all values big endian:
+//   header:   magic "BZIM", version, segment count, word count, CRC32C of segments and words,
+//             SHA-256 of the source text (zero when unknown)
+//   segments: start address and word count of every segment
+//   words:    the encoded words of all segments one after another
+public final class ProgramImage {
+
+    public static final String EXTENSION = ".bzim";
+
+    private static final int MAGIC = 0x425A494D;   // "BZIM"
+    private static final int VERSION = 1;
+    private static final int HASH_SIZE = 32;
+    private static final int HEADER_SIZE = 20 + HASH_SIZE;
+    private static final int CHECKSUM_OFFSET = 16;
+
+    public static class InvalidImageException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public InvalidImageException(String fileName, String reason) {
+            super("Invalid program image " + fileName + ": " + reason);
+        }
+    }
+
+    private ProgramImage() {
+    }
+
+    // reads a program from a text file or an image, text files are cached as images in cacheDirectory when it is not null
+    public static Program read(String programFileName, String cacheDirectory) throws IOException {
+        Path path = Paths.get(programFileName);
+
+        if (isImage(path))
+        {
+            return load(path);
+        }
+        if (cacheDirectory == null)
+        {
+            return Assembler.assemble(programFileName);
+        }
+
+        byte[] sourceHash = hashFile(path);
+        Path imagePath = Paths.get(cacheDirectory, toHex(sourceHash) + EXTENSION);
+        if (Files.exists(imagePath))
+        {
+            try {
+                return load(imagePath);
+            } catch (InvalidImageException e) {
+                // stale or damaged cache entry, assemble again and replace it
+            }
+        }
+
+        Program program = Assembler.assemble(programFileName);
+        Files.createDirectories(imagePath.getParent());
+        write(program, imagePath, sourceHash);
+        return program;
+    }
+
+    public static boolean isImage(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            return channel.read(magic) == 4 && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    public static Program load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE)
+            {
+                throw new InvalidImageException(path.toString(), "bad size");
+            }
+
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (image.getInt(0) != MAGIC || image.getInt(4) != VERSION)
+            {
+                throw new InvalidImageException(path.toString(), "unknown format");
+            }
+
+            int segmentCount = image.getInt(8);
+            int wordCount = image.getInt(12);
+            long wordsOffset = HEADER_SIZE + 8L * segmentCount;
+            if (segmentCount < 0 || wordCount < 0 || wordsOffset + 4L * wordCount != image.capacity())
+            {
+                throw new InvalidImageException(path.toString(), "bad size");
+            }
+
+            CRC32C checksum = new CRC32C();
+            checksum.update(image.slice(HEADER_SIZE, image.capacity() - HEADER_SIZE));
+            if ((int) checksum.getValue() != image.getInt(CHECKSUM_OFFSET))
+            {
+                throw new InvalidImageException(path.toString(), "checksum mismatch");
+            }
+
+            int[] segmentAddresses = new int[segmentCount];
+            int[] segmentOffsets = new int[segmentCount + 1];
+            for (int s = 0; s < segmentCount; s++)
+            {
+                segmentAddresses[s] = image.getInt(HEADER_SIZE + 8 * s);
+                int length = image.getInt(HEADER_SIZE + 8 * s + 4);
+                if (length <= 0 || segmentOffsets[s] + length > wordCount)
+                {
+                    throw new InvalidImageException(path.toString(), "bad segment " + s);
+                }
+                segmentOffsets[s + 1] = segmentOffsets[s] + length;
+            }
+            if (segmentOffsets[segmentCount] != wordCount)
+            {
+                throw new InvalidImageException(path.toString(), "bad segments");
+            }
+
+            return new Program(segmentAddresses, segmentOffsets, image.slice((int) wordsOffset, 4 * wordCount));
+        }
+    }
+
+    // writes to a temporary file first and moves it in place, so readers never see a partial image
+    public static void write(Program program, Path path, byte[] sourceHash) throws IOException {
+        int segmentCount = program.getSegmentCount();
+        int wordCount = program.size();
+        ByteBuffer image = ByteBuffer.allocate(HEADER_SIZE + 8 * segmentCount + 4 * wordCount);
+
+        image.putInt(MAGIC).putInt(VERSION).putInt(segmentCount).putInt(wordCount).putInt(0);
+        image.put(sourceHash == null ? new byte[HASH_SIZE] : sourceHash);
+        for (int s = 0; s < segmentCount; s++)
+        {
+            image.putInt(program.getSegmentAddress(s));
+            image.putInt(program.getSegmentOffset(s + 1) - program.getSegmentOffset(s));
+        }
+        image.put(program.getWords());
+
+        CRC32C checksum = new CRC32C();
+        checksum.update(image.array(), HEADER_SIZE, image.capacity() - HEADER_SIZE);
+        image.putInt(CHECKSUM_OFFSET, (int) checksum.getValue());
+
+        Path temporary = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporary, image.array());
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    public static byte[] hashFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes)
+        {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,214 @@
+package benzetim;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+// On disk cache of simulation results, content addressed: the file name is a SHA-256 over the program file, the
+// normalized config (Config.getKey) and the memory settings, so a changed program or config never hits an old
+// result. Several processes can share a directory: entries are written to a temporary file and moved in place,
+// readers check the checksum and treat anything unreadable as a miss. A hit touches the file, eviction deletes
+// the least recently used entries once the directory grows past its size limit. Every process only counts its
+// own writes between eviction scans, so with several writers the limit can be passed until the next scan.
+//
+// Entry layout, all values big endian:
+//   magic "BZSN", version, key (SHA-256), cycles (long), instructions (long), execution time, 6 type counts (long),
+//   32 registers, CRC32C of everything before it. Entries of another version are misses
+public final class ResultCache {
+
+    public static final String EXTENSION = ".bzsn";
+    public static final long DEFAULT_MAX_SIZE = 64 << 20;
+
+    private static final int MAGIC = 0x425A534E;   // "BZSN"
+    private static final int VERSION = 1;
+    private static final int KEY_SIZE = 32;
+    private static final int ENTRY_SIZE = 8 + KEY_SIZE + 20 + 8 * 6 + 4 * 32 + 4;
+
+    // what a run leaves behind, enough to print its results without running it again
+    public static final class Result {
+        public final long totalCycle;
+        public final long totalProcessedInstruction;
+        public final float totalExecutionTime;
+        public final long[] instructionTypeCount;
+        public final int[] registers;
+
+        public Result(long totalCycle, long totalProcessedInstruction, float totalExecutionTime, long[] instructionTypeCount, int[] registers) {
+            this.totalCycle = totalCycle;
+            this.totalProcessedInstruction = totalProcessedInstruction;
+            this.totalExecutionTime = totalExecutionTime;
+            this.instructionTypeCount = instructionTypeCount;
+            this.registers = registers;
+        }
+
+        public static Result of(Simulator simulator) {
+            return new Result(simulator.getTotalCycle(), simulator.getTotalProcessedInstruction(), simulator.getTotalExecutionTime(),
+                    simulator.getInstructionTypeCount(), simulator.getRegisters());
+        }
+    }
+
+    private final Path directory;
+    private final long maxSize;
+    private long estimatedSize;     // this process' view, corrected by every eviction scan
+    private long hits;
+    private long misses;
+
+    public ResultCache(Path directory, long maxSize) throws IOException {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        Files.createDirectories(directory);
+        estimatedSize = (long) listEntries().size() * ENTRY_SIZE;
+    }
+
+    // the cache key of a program file run on config
+    public static byte[] key(Path programFile, Config config, long memorySize, int misalignedPolicy) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(ProgramImage.hashFile(programFile));
+            digest.update((config.getKey() + " memory=" + memorySize + " misaligned=" + misalignedPolicy).getBytes(StandardCharsets.UTF_8));
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // the stored result, null on a miss
+    public synchronized Result get(byte[] key) {
+        Path path = entryPath(key);
+        ByteBuffer entry;
+
+        try {
+            byte[] bytes = Files.readAllBytes(path);
+            entry = ByteBuffer.wrap(bytes);
+            if (bytes.length != ENTRY_SIZE || entry.getInt(0) != MAGIC || entry.getInt(4) != VERSION
+                    || !ByteBuffer.wrap(bytes, 8, KEY_SIZE).equals(ByteBuffer.wrap(key)) || checksum(bytes) != entry.getInt(ENTRY_SIZE - 4))
+            {
+                misses++;
+                return null;    // damaged or from another version, the next put replaces it
+            }
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException e) {
+            misses++;
+            return null;        // not cached, or evicted by another process meanwhile
+        } catch (IOException e) {
+            misses++;
+            return null;
+        }
+
+        entry.position(8 + KEY_SIZE);
+        long cycles = entry.getLong();
+        long instructions = entry.getLong();
+        float time = entry.getFloat();
+        long[] typeCount = new long[6];
+        int[] registers = new int[32];
+        for (int i = 0; i < typeCount.length; i++)
+        {
+            typeCount[i] = entry.getLong();
+        }
+        for (int i = 0; i < registers.length; i++)
+        {
+            registers[i] = entry.getInt();
+        }
+        hits++;
+        return new Result(cycles, instructions, time, typeCount, registers);
+    }
+
+    public synchronized void put(byte[] key, Result result) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+
+        entry.putInt(MAGIC).putInt(VERSION).put(key);
+        entry.putLong(result.totalCycle).putLong(result.totalProcessedInstruction).putFloat(result.totalExecutionTime);
+        for (long count : result.instructionTypeCount)
+        {
+            entry.putLong(count);
+        }
+        for (int register : result.registers)
+        {
+            entry.putInt(register);
+        }
+        entry.putInt(checksum(entry.array()));
+
+        Path path = entryPath(key);
+        Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporary, entry.array());
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+
+        estimatedSize += ENTRY_SIZE;
+        if (estimatedSize > maxSize)
+        {
+            evict();
+        }
+    }
+
+    // deletes the least recently used entries down to 90% of the limit, entries other processes delete at the
+    // same time are simply skipped
+    private void evict() throws IOException {
+        List<Path> entries = listEntries();
+        List<FileTime> times = new ArrayList<FileTime>();
+        List<Integer> order = new ArrayList<Integer>();
+
+        for (int i = 0; i < entries.size(); i++)
+        {
+            try {
+                times.add(Files.readAttributes(entries.get(i), BasicFileAttributes.class).lastModifiedTime());
+            } catch (NoSuchFileException e) {
+                times.add(null);
+            }
+            order.add(i);
+        }
+        order.removeIf(i -> times.get(i) == null);
+        order.sort(Comparator.comparing(times::get));
+
+        long size = (long) order.size() * ENTRY_SIZE;
+        for (int i = 0; i < order.size() && size > maxSize * 9 / 10; i++)
+        {
+            Files.deleteIfExists(entries.get(order.get(i)));
+            size -= ENTRY_SIZE;
+        }
+        estimatedSize = size;
+    }
+
+    private List<Path> listEntries() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return new ArrayList<Path>(files.filter(path -> path.getFileName().toString().endsWith(EXTENSION)).toList());
+        }
+    }
+
+    private Path entryPath(byte[] key) {
+        StringBuilder hex = new StringBuilder();
+
+        for (byte b : key)
+        {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return directory.resolve(hex + EXTENSION);
+    }
+
+    private static int checksum(byte[] entry) {
+        CRC32C checksum = new CRC32C();
+
+        checksum.update(entry, 0, ENTRY_SIZE - 4);
+        return (int) checksum.getValue();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,435 @@
+package benzetim;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+// SimPoint style sampled simulation for long workloads.
+//  1. profile: a functional run split into intervals of a fixed instruction count, with a basic block vector
+//     per interval (instructions executed per block, hashed into DIMENSIONS buckets) and its type counts
+//  2. the normalized vectors are clustered with k-means, the interval closest to a centroid represents its cluster
+//  3. takeCheckpoints: a second functional run stops a warm-up length before every representative and takes a
+//     checkpoint
+//  4. estimateCycles: per config the warm-up runs through the timing model to fill its caches, predictor and
+//     pipeline, then only the representatives are simulated in detail. The cycles per instruction of a
+//     representative stand for its whole cluster
+// Steps 1 to 3 do not depend on the config, a design space sweep pays only step 4 per config.
+public final class Sampler implements ExecutionObserver {
+
+    public static final long DEFAULT_INTERVAL = 10000000;
+    public static final int DEFAULT_MAX_CLUSTERS = 10;
+
+    private static final int DIMENSION_BITS = 5;
+    private static final int DIMENSIONS = 1 << DIMENSION_BITS;
+    private static final int KMEANS_ITERATIONS = 100;
+    private static final long KMEANS_SEED = 1;
+    private static final Program EMPTY_PROGRAM = new Program(new int[0], new int[0]);
+
+    private final long intervalLength;
+    private final int maxClusters;
+    private long warmup;                // instructions run through the model before a representative, not counted
+
+    // profile, intervals in execution order
+    private long base = 0;              // instructions executed before the profiled run, nonzero after a restore
+    private long executed = 0;
+    private long intervalStart = 0;
+    private long[] vector = new long[DIMENSIONS];
+    private long[] typeCount = new long[6];
+    private final ArrayList<long[]> vectors = new ArrayList<long[]>();
+    private final ArrayList<long[]> typeCounts = new ArrayList<long[]>();
+    private final ArrayList<Long> starts = new ArrayList<Long>();
+    private long memorySize;
+
+    // clusters, filled by profile
+    private int[] representatives;     // interval index of every cluster
+    private long[] clusterInstructions;
+    private Checkpoint[] checkpoints;
+
+    public Sampler(long intervalLength, int maxClusters) {
+        if (intervalLength <= 0 || maxClusters <= 0)
+        {
+            throw new IllegalArgumentException("Interval length and cluster count must be positive");
+        }
+        this.intervalLength = intervalLength;
+        this.maxClusters = maxClusters;
+        this.warmup = intervalLength;   // the preceding interval
+    }
+
+    // takes effect with the next takeCheckpoints
+    public void setWarmup(long warmup) {
+        if (warmup < 0)
+        {
+            throw new IllegalArgumentException("Warm-up length can not be negative");
+        }
+        this.warmup = warmup;
+    }
+
+    @Override
+    public void restart() {
+        executed = 0;
+        intervalStart = 0;
+        Arrays.fill(vector, 0);
+        Arrays.fill(typeCount, 0);
+        vectors.clear();
+        typeCounts.clear();
+        starts.clear();
+    }
+
+    // the interpreter reports instructions, so the vector counts instructions per PC instead of per block.
+    // Both describe the same code mix, one run only ever uses one of them
+    @Override
+    public void instruction(int pc, int opcode, int rd, int cycles) {
+        vector[bucket(pc)]++;
+        typeCount[Simulator.getTypeCountIndex(Simulator.getInstructionType(opcode))]++;
+        executed++;
+        if (executed - intervalStart >= intervalLength)
+        {
+            closeInterval();
+        }
+    }
+
+    // a block is counted in the interval it starts in
+    @Override
+    public void block(int startPC, int[] ops, int executed, int[] cyclesUpTo) {
+        vector[bucket(startPC)] += executed;
+        for (int i = 0; i < executed; i++)
+        {
+            typeCount[Simulator.getTypeCountIndex(Simulator.getInstructionType(ops[i * 5]))]++;
+        }
+        this.executed += executed;
+        if (this.executed - intervalStart >= intervalLength)
+        {
+            closeInterval();
+        }
+    }
+
+    private static int bucket(int pc) {
+        return (pc * 0x9E3779B1) >>> (32 - DIMENSION_BITS);
+    }
+
+    private void closeInterval() {
+        vectors.add(vector);
+        typeCounts.add(typeCount);
+        starts.add(base + intervalStart);
+        vector = new long[DIMENSIONS];
+        typeCount = new long[6];
+        intervalStart = executed;
+    }
+
+    // step 1 and 2, runs the simulator from its current state to the end with its own engine
+    public void profile(Simulator simulator) {
+        simulator.setObserver(this);
+        base = simulator.getTotalProcessedInstruction();
+        simulator.simulateProgram();
+        simulator.setObserver(null);
+        if (executed > intervalStart)
+        {
+            closeInterval();    // the last, shorter interval
+        }
+        memorySize = simulator.getMemory().getSize();
+        checkpoints = null;
+        cluster();
+    }
+
+    // step 3, simulator has to be in the state profile started from, usually right after reset
+    public void takeCheckpoints(Simulator simulator) {
+        Integer[] order = new Integer[representatives.length];
+
+        for (int c = 0; c < order.length; c++)
+        {
+            order[c] = c;
+        }
+        Arrays.sort(order, Comparator.comparingLong(c -> starts.get(representatives[c])));
+
+        checkpoints = new Checkpoint[representatives.length];
+        for (int c : order)
+        {
+            long warmupStart = Math.max(base, starts.get(representatives[c]) - warmup);
+            if (!simulator.fastForward(warmupStart))
+            {
+                throw new IllegalStateException("The program ended before sample interval " + representatives[c]);
+            }
+            checkpoints[c] = simulator.checkpoint();
+        }
+    }
+
+    // step 4, estimated cycles of the profiled run for config. The representatives run in parallel
+    public long estimateCycles(Config config) {
+        if (checkpoints == null)
+        {
+            throw new IllegalStateException("takeCheckpoints has to run before estimateCycles");
+        }
+
+        double[] cyclesPerInstruction = new double[representatives.length];
+        IntStream.range(0, representatives.length).parallel().forEach(c -> {
+            Simulator simulator = new Simulator(config, EMPTY_PROGRAM, memorySize);
+            simulator.restore(checkpoints[c]);
+            simulator.runUntil(starts.get(representatives[c]), -1);    // warm-up
+
+            long start = simulator.getTotalProcessedInstruction();
+            long startCycle = simulator.getTotalCycle();
+            simulator.runUntil(start + getIntervalInstructions(representatives[c]), -1);     // detailed part
+            long simulated = simulator.getTotalProcessedInstruction() - start;
+            cyclesPerInstruction[c] = simulated == 0 ? 0 : (double) (simulator.getTotalCycle() - startCycle) / simulated;
+        });
+
+        double cycles = 0;
+        for (int c = 0; c < representatives.length; c++)
+        {
+            cycles += cyclesPerInstruction[c] * clusterInstructions[c];
+        }
+        return Math.round(cycles);
+    }
+
+    // cycles of the whole profiled run, exact for the flat IPC config model which only needs the type counts.
+    // The reference the sampling error is measured against
+    public long getFullCycles(Config config) {
+        long[] total = new long[6];
+
+        for (long[] counts : typeCounts)
+        {
+            for (int type = 0; type < total.length; type++)
+            {
+                total[type] += counts[type];
+            }
+        }
+        return config.getCycles(total);
+    }
+
+    public int getIntervalCount() {
+        return starts.size();
+    }
+
+    public int getClusterCount() {
+        return representatives.length;
+    }
+
+    public long getIntervalLength() {
+        return intervalLength;
+    }
+
+    public long getWarmup() {
+        return warmup;
+    }
+
+    public long getProfiledInstructions() {
+        return executed;
+    }
+
+    // instructions simulated in detail per config
+    public long getSampledInstructions() {
+        long sampled = 0;
+
+        for (int interval : representatives)
+        {
+            sampled += getIntervalInstructions(interval);
+        }
+        return sampled;
+    }
+
+    private long getIntervalInstructions(int interval) {
+        long instructions = 0;
+
+        for (long count : typeCounts.get(interval))
+        {
+            instructions += count;
+        }
+        return instructions;
+    }
+
+    /////
+
+    // k-means for every k up to maxClusters, keeps the smallest k that gets 90% of the possible error reduction
+    private void cluster() {
+        int n = vectors.size();
+        double[][] points = new double[n][DIMENSIONS];
+
+        for (int i = 0; i < n; i++)
+        {
+            long instructions = Math.max(1, getIntervalInstructions(i));
+            for (int d = 0; d < DIMENSIONS; d++)
+            {
+                points[i][d] = (double) vectors.get(i)[d] / instructions;
+            }
+        }
+
+        int maxK = Math.max(1, Math.min(maxClusters, n));
+        int[][] assignments = new int[maxK + 1][];
+        double[] errors = new double[maxK + 1];
+        double minError = Double.MAX_VALUE;
+        for (int k = 1; k <= maxK; k++)
+        {
+            assignments[k] = kMeans(points, k);
+            errors[k] = squaredError(points, assignments[k], centroids(points, assignments[k], k));
+            minError = Math.min(minError, errors[k]);
+        }
+
+        int chosen = 1;
+        while (chosen < maxK && errors[chosen] > minError + 0.1 * (errors[1] - minError))
+        {
+            chosen++;
+        }
+        chooseRepresentatives(points, assignments[chosen], chosen);
+    }
+
+    private void chooseRepresentatives(double[][] points, int[] assignment, int k) {
+        double[][] centroids = centroids(points, assignment, k);
+        int[] closest = new int[k];
+        double[] closestDistance = new double[k];
+        long[] instructions = new long[k];
+
+        Arrays.fill(closest, -1);
+        for (int i = 0; i < points.length; i++)
+        {
+            int c = assignment[i];
+            double distance = distance(points[i], centroids[c]);
+            if (closest[c] == -1 || distance < closestDistance[c])
+            {
+                closest[c] = i;
+                closestDistance[c] = distance;
+            }
+            instructions[c] += getIntervalInstructions(i);
+        }
+
+        // k-means can leave a cluster empty, those are dropped
+        int clusters = 0;
+        for (int c = 0; c < k; c++)
+        {
+            if (closest[c] != -1)
+            {
+                clusters++;
+            }
+        }
+        representatives = new int[clusters];
+        clusterInstructions = new long[clusters];
+        for (int c = 0, next = 0; c < k; c++)
+        {
+            if (closest[c] != -1)
+            {
+                representatives[next] = closest[c];
+                clusterInstructions[next] = instructions[c];
+                next++;
+            }
+        }
+    }
+
+    // Lloyd's algorithm with k-means++ seeding, deterministic for the same profile
+    private static int[] kMeans(double[][] points, int k) {
+        Random random = new Random(KMEANS_SEED);
+        int n = points.length;
+        int[] assignment = new int[n];
+
+        if (n == 0)
+        {
+            return assignment;
+        }
+
+        double[][] centroids = new double[k][];
+        double[] nearest = new double[n];
+        centroids[0] = points[random.nextInt(n)];
+        for (int c = 1; c < k; c++)
+        {
+            double total = 0;
+            for (int i = 0; i < n; i++)
+            {
+                nearest[i] = Double.MAX_VALUE;
+                for (int j = 0; j < c; j++)
+                {
+                    nearest[i] = Math.min(nearest[i], distance(points[i], centroids[j]));
+                }
+                total += nearest[i];
+            }
+
+            double target = random.nextDouble() * total;
+            int chosen = 0;
+            while (chosen < n - 1 && (target -= nearest[chosen]) > 0)
+            {
+                chosen++;
+            }
+            centroids[c] = points[chosen];
+        }
+
+        boolean changed = true;
+        for (int iteration = 0; iteration < KMEANS_ITERATIONS && changed; iteration++)
+        {
+            changed = false;
+            for (int i = 0; i < n; i++)
+            {
+                int best = 0;
+                double bestDistance = Double.MAX_VALUE;
+                for (int c = 0; c < k; c++)
+                {
+                    double distance = distance(points[i], centroids[c]);
+                    if (distance < bestDistance)
+                    {
+                        best = c;
+                        bestDistance = distance;
+                    }
+                }
+                if (assignment[i] != best)
+                {
+                    assignment[i] = best;
+                    changed = true;
+                }
+            }
+            double[][] moved = centroids(points, assignment, k);
+            for (int c = 0; c < k; c++)
+            {
+                if (moved[c] != null)
+                {
+                    centroids[c] = moved[c];
+                }
+            }
+        }
+        return assignment;
+    }
+
+    // mean of every cluster, null for empty clusters
+    private static double[][] centroids(double[][] points, int[] assignment, int k) {
+        double[][] centroids = new double[k][];
+        int[] sizes = new int[k];
+
+        for (int i = 0; i < points.length; i++)
+        {
+            int c = assignment[i];
+            if (centroids[c] == null)
+            {
+                centroids[c] = new double[DIMENSIONS];
+            }
+            for (int d = 0; d < DIMENSIONS; d++)
+            {
+                centroids[c][d] += points[i][d];
+            }
+            sizes[c]++;
+        }
+        for (int c = 0; c < k; c++)
+        {
+            for (int d = 0; sizes[c] > 0 && d < DIMENSIONS; d++)
+            {
+                centroids[c][d] /= sizes[c];
+            }
+        }
+        return centroids;
+    }
+
+    private static double squaredError(double[][] points, int[] assignment, double[][] centroids) {
+        double error = 0;
+
+        for (int i = 0; i < points.length; i++)
+        {
+            error += distance(points[i], centroids[assignment[i]]);
+        }
+        return error;
+    }
+
+    // squared euclidean distance
+    private static double distance(double[] a, double[] b) {
+        double sum = 0;
+
+        for (int d = 0; d < DIMENSIONS; d++)
+        {
+            double difference = a[d] - b[d];
+            sum += difference * difference;
+        }
+        return sum;
+    }
+}
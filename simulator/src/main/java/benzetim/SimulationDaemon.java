@@ -0,0 +1,400 @@
+package benzetim;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Long lived simulation server on a Unix domain socket, so the JVM stays warm between jobs. A client sends one
+// job per line:
+//     [--engine=..] [--jit-threshold=N] [--memory=..] [--misaligned=..] program.txt config1.txt <config2.txt ...>
+// and gets a line for every config as soon as it finished, then the end of the job:
+//     sonuc <job> <config> <cycles> <instructions> <seconds>
+//     hata <job> <message>
+//     bitti <job>
+// Jobs are numbered per connection from 1. The line "durdur" stops the daemon once the jobs it has read sent
+// their results.
+//
+// Connections are served by their own threads, simulations run on a bounded pool of one thread per core. When
+// the pool queue is full the connection thread runs the job itself, which stops it reading further jobs.
+// Flat configs of a job share one functional run. Assembled programs and configs are cached by path and
+// reloaded when the file changes.
+public final class SimulationDaemon {
+
+    public static final String DEFAULT_SOCKET = "benzetim.sock";
+
+    private static final int QUEUE_SIZE = 1024;
+    private static final int CACHE_ENTRIES = 256;
+
+    private final Path socketPath;
+    private final ExecutorService connections;
+    private final ThreadPoolExecutor workers;
+    private final Map<Path, Cached<Program>> programs = new LinkedHashMap<Path, Cached<Program>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Cached<Program>> eldest) {
+            return size() > CACHE_ENTRIES;
+        }
+    };
+    private final Map<Path, Cached<Config>> configs = new LinkedHashMap<Path, Cached<Config>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Cached<Config>> eldest) {
+            return size() > CACHE_ENTRIES;
+        }
+    };
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final Set<SocketChannel> openChannels = ConcurrentHashMap.newKeySet();
+    private volatile ServerSocketChannel server;
+
+    // a loaded file and the modification time and size it had
+    private static final class Cached<T> {
+        final FileTime modified;
+        final long size;
+        final T value;
+
+        Cached(FileTime modified, long size, T value) {
+            this.modified = modified;
+            this.size = size;
+            this.value = value;
+        }
+    }
+
+    // per job settings, the same options main takes
+    private static final class JobOptions {
+        int engine = Simulator.ENGINE_INTERPRETER;
+        int jitThreshold = 1000;
+        long memorySize = Simulator.DEFAULT_MEMORY_SIZE;
+        int misalignedPolicy = Memory.MISALIGNED_SPLIT;
+    }
+
+    // the replies of one connection, lines of different jobs may interleave but never mix
+    private static final class Connection {
+        final PrintWriter writer;
+
+        Connection(SocketChannel channel) {
+            this.writer = new PrintWriter(Channels.newWriter(channel, StandardCharsets.UTF_8));
+        }
+
+        synchronized void send(String line) {
+            writer.print(line);
+            writer.print('\n');
+            writer.flush();
+        }
+    }
+
+    public SimulationDaemon(Path socketPath, int threads) {
+        this.socketPath = socketPath;
+        this.connections = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "baglanti-" + connectionCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(QUEUE_SIZE),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    // accepts connections until a client sends durdur
+    public void serve() throws IOException {
+        Files.deleteIfExists(socketPath);      // left over from a daemon that was killed
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            System.out.println("Benzetim sunucusu dinliyor: " + socketPath + " (" + workers.getMaximumPoolSize() + " is parcacigi)");
+            while (true)
+            {
+                SocketChannel channel;
+                try {
+                    channel = server.accept();
+                } catch (ClosedChannelException e) {
+                    break;      // stop closed the server
+                }
+                openChannels.add(channel);
+                connections.execute(() -> handle(channel));
+            }
+        } finally {
+            server.close();
+            Files.deleteIfExists(socketPath);
+            // no further jobs are read, every connection still sends the results of the jobs it has
+            for (SocketChannel channel : openChannels)
+            {
+                try {
+                    channel.shutdownInput();
+                } catch (IOException e) {
+                    // closed by its client already
+                }
+            }
+            connections.shutdown();
+            awaitTermination(connections);
+            workers.shutdown();
+            awaitTermination(workers);
+        }
+    }
+
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void stop() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // reads jobs until the client closes its side, then waits for the last results before closing
+    private void handle(SocketChannel channel) {
+        Connection connection = new Connection(channel);
+        List<Future<?>> pending = new ArrayList<Future<?>>();
+        int jobNumber = 0;
+
+        try (channel) {
+            BufferedReader reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8));
+            String line = reader.readLine();
+
+            while (line != null) {
+                line = line.trim();
+                if (line.equals("durdur"))
+                {
+                    stop();
+                    break;
+                }
+                if (!line.isEmpty())
+                {
+                    submit(++jobNumber, line.split("\\s+"), connection, pending);
+                }
+                pending.removeIf(Future::isDone);
+                line = reader.readLine();
+            }
+
+            for (Future<?> future : pending)
+            {
+                future.get();
+            }
+        } catch (IOException | ExecutionException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            openChannels.remove(channel);
+        }
+    }
+
+    private void submit(int job, String[] tokens, Connection connection, List<Future<?>> pending) {
+        JobOptions options = new JobOptions();
+        List<String> files = new ArrayList<String>();
+
+        try {
+            for (String token : tokens)
+            {
+                if (token.startsWith("--"))
+                {
+                    applyOption(options, token);
+                }
+                else
+                {
+                    files.add(token);
+                }
+            }
+            if (files.size() < 2)
+            {
+                throw new IllegalArgumentException("program ve en az bir islemci dosyasi gerekli");
+            }
+
+            Program program = loadProgram(files.get(0));
+            List<String> flatFiles = new ArrayList<String>();
+            List<Config> flatConfigs = new ArrayList<Config>();
+            List<Runnable> tasks = new ArrayList<Runnable>();
+            for (String configFile : files.subList(1, files.size()))
+            {
+                Config config = loadConfig(configFile);
+                if (config.hasTimingModel())
+                {
+                    tasks.add(() -> runTimed(job, configFile, config, program, options, connection));
+                }
+                else
+                {
+                    flatFiles.add(configFile);
+                    flatConfigs.add(config);
+                }
+            }
+            if (!flatConfigs.isEmpty())
+            {
+                tasks.add(() -> runFlat(job, flatFiles, flatConfigs, program, options, connection));
+            }
+
+            AtomicInteger remaining = new AtomicInteger(tasks.size());
+            for (Runnable task : tasks)
+            {
+                pending.add(workers.submit(() -> {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        connection.send("hata " + job + " " + describe(e));
+                    } finally {
+                        if (remaining.decrementAndGet() == 0)
+                        {
+                            connection.send("bitti " + job);
+                        }
+                    }
+                }));
+            }
+        } catch (IOException | RuntimeException e) {
+            connection.send("hata " + job + " " + describe(e));
+            connection.send("bitti " + job);
+        }
+    }
+
+    private static void applyOption(JobOptions options, String option) {
+        String[] data = option.split("=", 2);
+        String value = data.length > 1 ? data[1] : "";
+
+        switch (data[0])
+        {
+            case "--engine":
+                options.engine = value.equals("jit") ? Simulator.ENGINE_JIT : value.equals("block") ? Simulator.ENGINE_BLOCK : Simulator.ENGINE_INTERPRETER;
+                break;
+            case "--jit-threshold":
+                options.jitThreshold = Integer.parseInt(value);
+                break;
+            case "--memory":
+                options.memorySize = Memory.parseSize(value);
+                break;
+            case "--misaligned":
+                options.misalignedPolicy = value.equals("trap") ? Memory.MISALIGNED_TRAP : Memory.MISALIGNED_SPLIT;
+                break;
+            default:
+                throw new IllegalArgumentException("gecersiz secenek " + option);
+        }
+    }
+
+    private static Simulator createSimulator(Config config, Program program, JobOptions options) {
+        Simulator simulator = new Simulator(config, program, options.memorySize);
+
+        simulator.setEngine(options.engine);
+        simulator.setJitThreshold(options.jitThreshold);
+        simulator.getMemory().setMisalignedPolicy(options.misalignedPolicy);
+        return simulator;
+    }
+
+    // one functional run serves every flat config
+    private static void runFlat(int job, List<String> configFiles, List<Config> configs, Program program, JobOptions options, Connection connection) {
+        Simulator simulator = createSimulator(configs.get(0), program, options);
+        simulator.simulateProgram();
+        long[] instructionTypeCount = simulator.getInstructionTypeCount();
+
+        for (int i = 0; i < configs.size(); i++)
+        {
+            long cycles = configs.get(i).getCycles(instructionTypeCount);
+            connection.send(result(job, configFiles.get(i), cycles, simulator.getTotalProcessedInstruction(), configs.get(i).getExecutionTime(cycles)));
+        }
+    }
+
+    private static void runTimed(int job, String configFile, Config config, Program program, JobOptions options, Connection connection) {
+        Simulator simulator = createSimulator(config, program, options);
+        simulator.simulateProgram();
+        connection.send(result(job, configFile, simulator.getTotalCycle(), simulator.getTotalProcessedInstruction(), simulator.getTotalExecutionTime()));
+    }
+
+    private static String result(int job, String configFile, long cycles, long instructions, float time) {
+        return "sonuc " + job + " " + configFile + " " + cycles + " " + instructions + " " + time;
+    }
+
+    private static String describe(Exception e) {
+        if (e instanceof NoSuchFileException)
+        {
+            return "dosya bulunamadi: " + e.getMessage();
+        }
+        String message = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+        return message.replace('\n', ' ').trim();
+    }
+
+    private Program loadProgram(String fileName) throws IOException {
+        Path path = Path.of(fileName).toAbsolutePath().normalize();
+        Cached<Program> cached;
+        FileTime modified = Files.getLastModifiedTime(path);
+        long size = Files.size(path);
+
+        synchronized (programs) {
+            cached = programs.get(path);
+        }
+        if (cached == null || !cached.modified.equals(modified) || cached.size != size)
+        {
+            // assembled outside the lock, two connections may load the same new file at once
+            cached = new Cached<Program>(modified, size, ProgramImage.read(path.toString(), null));
+            synchronized (programs) {
+                programs.put(path, cached);
+            }
+        }
+        return cached.value;
+    }
+
+    private Config loadConfig(String fileName) throws IOException {
+        Path path = Path.of(fileName).toAbsolutePath().normalize();
+        Cached<Config> cached;
+        FileTime modified = Files.getLastModifiedTime(path);
+        long size = Files.size(path);
+
+        synchronized (configs) {
+            cached = configs.get(path);
+        }
+        if (cached == null || !cached.modified.equals(modified) || cached.size != size)
+        {
+            cached = new Cached<Config>(modified, size, Config.read(path.toString()));
+            synchronized (configs) {
+                configs.put(path, cached);
+            }
+        }
+        return cached.value;
+    }
+
+    // client side: sends one job and prints the replies until the job ended. Returns false on an error reply or
+    // when the connection ends before the job did
+    public static boolean submit(Path socketPath, String job) throws IOException {
+        boolean ok = true;
+
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socketPath))) {
+            Connection connection = new Connection(channel);
+            BufferedReader reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8));
+
+            connection.send(job);
+            if (job.trim().equals("durdur"))
+            {
+                return true;
+            }
+            String line = reader.readLine();
+            while (line != null && !line.startsWith("bitti "))
+            {
+                System.out.println(line);
+                ok &= !line.startsWith("hata ");
+                line = reader.readLine();
+            }
+            if (line == null)
+            {
+                System.out.println("hata: baglanti is bitmeden kapandi");
+                return false;
+            }
+        }
+        return ok;
+    }
+}
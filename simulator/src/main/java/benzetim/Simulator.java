@@ -0,0 +1,1571 @@
+package benzetim;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.*;
+
+// Instructions and Types: ////////////
+//
+//    add(R) sub(R)  addi(I) subi(I)
+//    xor(R) xori(I) and(R)  jalr(I)
+//    beq(B) bge(B)  blt(B)  jal(J)
+//    lw(I)  sw(S)   lb(I)   sb(S)
+//    srl(R) sra(R)  slti(I) srai(I?)
+//    amoadd(R) amoswap(R) fence
+//
+// amoadd / amoswap rd rs1 rs2: rd = word at rs1, then the word becomes rd + rs2 / rs2, atomically.
+// Both are counted as S type. fence orders memory accesses between harts and has no type.
+///////////////////////////////////////
+
+// One simulated hart. All state is owned by the instance, the config and the program are
+// immutable and can be shared, so independent simulators can run on different threads.
+public class Simulator {
+
+    // execution engines
+    public static final int ENGINE_INTERPRETER = 0;
+    public static final int ENGINE_BLOCK = 1;
+    public static final int ENGINE_JIT = 2;
+
+    public static final long DEFAULT_MEMORY_SIZE = 1048576;     // 1 MB
+
+    private final Config config;
+    private final Program program;
+    private int engine = ENGINE_INTERPRETER;
+    private int jitThreshold = 1000;    // block executions before a block is compiled to bytecode
+    private int compileThreshold = 1000;    // jitThreshold, or never while reads are watched
+
+    private long totalCycle = 0;
+    private long totalProcessedInstruction = 0;
+    private float totalExecutionTime = 0;
+    private int PC = 0;
+    private int[] registers = new int[32];       // 32 register
+    private long[] instructionTypeCount = new long[6];    // R, I, S, B, J, others
+    private final Memory memory;
+
+    // decoded instruction cache, struct of arrays. Every code page gets PAGE_SLOTS consecutive slots
+    // when it is first executed, slot 0 is a scratch slot used for unaligned PC values and never kept valid
+    private static final int DECODED_SCRATCH_SLOT = 0;
+    private static final int PAGE_SLOTS = Memory.PAGE_SIZE / 4;
+    private int[][] codePageBase = new int[1024][];     // first slot of every code page, 0 when it has none
+    private int decodedSlotCount = 1;
+    private int lastCodePage = -1;
+    private int lastCodePageBase = 0;
+    private int[] decodedOpcode = new int[1 + PAGE_SLOTS];
+    private int[] decodedRd = new int[1 + PAGE_SLOTS];
+    private int[] decodedRs1 = new int[1 + PAGE_SLOTS];
+    private int[] decodedRs2 = new int[1 + PAGE_SLOTS];
+    private int[] decodedImm = new int[1 + PAGE_SLOTS];
+    private int[] decodedCycle = new int[1 + PAGE_SLOTS];
+    private int[] decodedType = new int[1 + PAGE_SLOTS];
+    private boolean[] decodedValid = new boolean[1 + PAGE_SLOTS];
+
+    // translated basic blocks indexed by decoded slot, translatedCode marks every word covered by a block
+    private static final int MAX_BLOCK_LENGTH = 64;
+    private Block[] blockCache = new Block[1 + PAGE_SLOTS];
+    private boolean[] translatedCode = new boolean[1 + PAGE_SLOTS];
+    private int blockGeneration = 0;
+    private boolean blockCacheFlushed = false;
+    private boolean halted = false;
+    private boolean stopAtSync = false;     // set by runQuantum, runBlocks returns before amos and fences
+
+    // countdown loops behind backward jals indexed by the decoded slot of the jal, null until analysed. The engines
+    // skip loops only while loopInstructionLimit is positive: runs without observer, timing model and tracer set
+    // it to the instruction count they have to stop at, and loopStopPC to the PC they have to stop at
+    private CountdownLoop[] decodedLoop = new CountdownLoop[1 + PAGE_SLOTS];
+    private boolean loopSkipping = true;
+    private long loopInstructionLimit = 0;
+    private int loopStopPC = -1;
+
+    // set only in profiling or sampling mode, the engines check it once per block or use a separate interpreter loop
+    private ExecutionObserver observer = null;
+
+    // set only when debugging. Breakpoints are marked in the decoded instruction cache with the opcode
+    // BREAKPOINT, which keeps them out of blocks, and watchpoints on memory pages. Runs without them check nothing
+    private static final int BREAKPOINT = 126;
+    private Debugger debugger = null;
+    private int stopSlot = -1;      // one shot breakpoint a watchpoint placed behind the access, -1 when none
+
+    // set only when tracing, traced runs always use the interpreter so every engine records the same trace
+    private TraceRecorder tracer = null;
+
+    // null for the flat model of the config. Timed runs also use the interpreter, the model sees every instruction
+    private TimingModel timing;
+
+    // basic block in pre-resolved form. Instructions are stored as (opcode, rd, rs1, rs2, imm) groups,
+    // the last one is the exit instruction unless exitOpcode is -1 (block was cut at MAX_BLOCK_LENGTH)
+    private static class Block {
+        int startPC;
+        int generation;
+        int length;             // instructions in the block, exit instruction included
+        int cycles;             // cycle cost of the whole block
+        int[] ops;
+        int[] cyclesUpTo;       // cycles charged when leaving right after instruction i
+        int[] typeCounts;       // executed instructions per type, same order as instructionTypeCount
+        int exitOpcode;
+        int exitPC;
+        int takenPC;            // branch / jal target, already resolved
+        int fallThroughPC;
+        Block taken;            // chained successors
+        Block fallThrough;
+        int jalrTargetPC;       // one entry target cache for jalr
+        Block jalrTarget;
+        int executionCount;
+        BlockCompiler.CompiledBlock compiled;
+    }
+
+    public Simulator(Config config, Program program) {
+        this(config, program, DEFAULT_MEMORY_SIZE);
+    }
+
+    public Simulator(Config config, Program program, long memorySize) {
+        this.config = config;
+        this.program = program;
+        this.memory = new Memory(memorySize);
+        this.timing = config.createTimingModel();
+        reset();
+    }
+
+    // a hart running on memory as it is, like a view shared with other harts. The program has to be loaded
+    // into the memory already, reset would load it again
+    public Simulator(Config config, Program program, Memory memory) {
+        this.config = config;
+        this.program = program;
+        this.memory = memory;
+        this.timing = config.createTimingModel();
+        resetHart();
+        invalidateDecodedCache();
+    }
+
+    // clears the hart state and loads the program again, so an instance can be reused for another run
+    public void reset() {
+        resetHart();
+        memory.reset();
+        invalidateDecodedCache();
+        program.loadInto(memory);
+    }
+
+    private void resetHart() {
+        totalCycle = 0;
+        totalProcessedInstruction = 0;
+        totalExecutionTime = 0;
+        PC = 0;
+        Arrays.fill(registers, 0);
+        Arrays.fill(instructionTypeCount, 0);
+        if (timing != null)
+        {
+            timing.reset();
+        }
+        if (observer != null)
+        {
+            observer.restart();
+        }
+    }
+
+    // captures the hart state, the memory pages stay shared copy on write until this simulator writes them
+    public Checkpoint checkpoint() {
+        return new Checkpoint(PC, registers, totalProcessedInstruction, totalCycle, instructionTypeCount.clone(), memory.snapshot());
+    }
+
+    // continues from a checkpoint instead of the program start. The cycles so far are counted
+    // again with this simulator's config, the checkpoint may come from a run with another one.
+    // A timing model starts with an empty pipeline and the cycles before the checkpoint use the flat costs
+    public void restore(Checkpoint checkpoint) {
+        memory.restore(checkpoint.getMemory());
+        invalidateDecodedCache();
+        PC = checkpoint.getPC();
+        registers = checkpoint.getRegisters();
+        totalProcessedInstruction = checkpoint.getTotalProcessedInstruction();
+        instructionTypeCount = checkpoint.getInstructionTypeCount();
+        totalCycle = config.getCycles(instructionTypeCount);
+        totalExecutionTime = 0;
+        if (timing != null)
+        {
+            timing.reset();
+        }
+        if (observer != null)
+        {
+            observer.restart();
+        }
+    }
+
+    public void setEngine(int engine) {
+        this.engine = engine;
+    }
+
+    public void setProfiler(Profiler profiler) {
+        setObserver(profiler);
+    }
+
+    public Profiler getProfiler() {
+        return observer instanceof Profiler ? (Profiler) observer : null;
+    }
+
+    // one observer at a time, a profiler is an observer too
+    public void setObserver(ExecutionObserver observer) {
+        this.observer = observer;
+        if (observer != null)
+        {
+            observer.restart();
+        }
+    }
+
+    public void setTraceRecorder(TraceRecorder tracer) {
+        this.tracer = tracer;
+    }
+
+    // replaces the model of the config, null runs with the flat costs on any engine
+    public void setTimingModel(TimingModel timing) {
+        this.timing = timing;
+        if (timing != null)
+        {
+            timing.reset();
+        }
+    }
+
+    public TimingModel getTimingModel() {
+        return timing;
+    }
+
+    public void setJitThreshold(int jitThreshold) {
+        this.jitThreshold = jitThreshold;
+        this.compileThreshold = debugger != null && debugger.hasReadWatchpoints() ? Integer.MAX_VALUE : jitThreshold;
+    }
+
+    // null removes the debugger. Compiled blocks do not stop after loads, so blocks are not compiled while
+    // reads are watched
+    public void setDebugger(Debugger debugger) {
+        this.debugger = debugger;
+        invalidateDecodedCache();   // breakpoints are marked when the instructions are decoded again
+        memory.unwatch();
+        if (debugger != null)
+        {
+            debugger.arm(memory, this::watch);
+        }
+        setJitThreshold(jitThreshold);
+    }
+
+    public Debugger getDebugger() {
+        return debugger;
+    }
+
+    // countdown loops are skipped in closed form unless turned off, the results are the same either way
+    public void setLoopSkipping(boolean loopSkipping) {
+        this.loopSkipping = loopSkipping;
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    public Program getProgram() {
+        return program;
+    }
+
+    public long getTotalCycle() {
+        return totalCycle;
+    }
+
+    public long getTotalProcessedInstruction() {
+        return totalProcessedInstruction;
+    }
+
+    public float getTotalExecutionTime() {
+        return totalExecutionTime;
+    }
+
+    public Memory getMemory() {
+        return memory;
+    }
+
+    public int getPC() {
+        return PC;
+    }
+
+    public int[] getRegisters() {
+        return registers.clone();
+    }
+
+    public long[] getInstructionTypeCount() {
+        return instructionTypeCount.clone();
+    }
+
+    public void setRegister(int index, int value) {
+        registers[index] = value;
+    }
+
+    public void writeRegisterValues(String fileName) {
+        writeRegisterValues(fileName, registers);
+    }
+
+    // also used for results taken from a ResultCache
+    public static void writeRegisterValues(String fileName, int[] registers) {
+        File outputFile = new File(fileName);
+        FileWriter fWriter = null;
+
+        try {
+            fWriter = new FileWriter(outputFile);
+
+            for (int regIndex = 0; regIndex < 32; regIndex++)
+            {
+                fWriter.write("Register[" + regIndex + "]: " + registers[regIndex] + "\n");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }finally{
+            //close resources
+            try {
+                fWriter.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public int fetchInstruction() {
+        return memory.fetchWord(PC);
+    }
+
+    public int loadWord(int addr) {
+        return memory.loadWord(addr);
+    }
+
+    public int loadByte(int addr) {
+        return memory.loadByte(addr);
+    }
+
+    public void storeWord(int addr, int value) {
+        memory.storeWord(addr, value);
+        invalidateDecoded(addr, 4);
+    }
+
+    public void storeByte(int addr, int value) {
+        memory.storeByte(addr, value);
+        invalidateDecoded(addr, 1);
+    }
+
+    public static int getOPCode(int instruction) {
+        return instruction & 0x7F;
+    }
+
+    public static int getRDValue(int instruction) {
+        return ((0x1f << 7 ) & instruction) >> 7;
+    }
+
+    public static int getRS1Value(int instruction) {
+        return ((0x1f << 15 ) & instruction) >> 15;
+    }
+
+    public static int getRS2Value(int instruction) {
+        return ((0x1f << 20 ) & instruction) >> 20;
+    }
+
+    public static int getITypeImmValue(int instruction) {
+        return (0xFFF00000 & instruction) >> 20;
+    }
+
+    public static int getBSTypeImmValue(int instruction) {
+        int immPart1 = (0xF80 & instruction) << 13;
+        int immPart2 = ((0xFE000000 & instruction) + immPart1) >> 20;
+
+        return immPart2 & 0xFFF;
+    }
+
+    public static int getJTypeImmValue(int instruction) {
+        return (0xFFFFF000 & instruction) >> 12;
+    }
+
+    public static int getInstructionType(int instruction) {
+        int opcode = getOPCode(instruction);
+        int instructionType = -1;
+
+        // R: 0, I: 1, S:2, B:3, J:4
+        switch (opcode) {
+            case 0:
+            case 1:
+            case 4:
+            case 6:
+            case 16:
+            case 17:
+                instructionType = 0;
+                break;
+            case 2:
+            case 3:
+            case 5:
+            case 7:
+            case 12:
+            case 14:
+            case 18:
+                instructionType = 1;
+                break;
+            case 13:
+            case 15:
+            case 20:
+            case 21:
+                instructionType = 2;
+                break;
+            case 8:
+            case 9:
+            case 10:
+                instructionType = 3;
+                break;
+            case 11:
+                instructionType = 4;
+                break;
+            default:
+                instructionType = -1;
+                break;
+        }
+
+        return instructionType;
+    }
+
+    // index into instructionTypeCount, instructions without a type are counted last
+    public static int getTypeCountIndex(int instructionType) {
+        return instructionType == -1 ? 5 : instructionType;
+    }
+
+    public static int getImmValue(int instruction) {
+        int opcode = getOPCode(instruction);
+        int imm = 0;
+
+        switch (opcode) {
+            case 2:
+            case 3:
+            case 5:
+            case 7:
+            case 12:
+            case 14:
+            case 18:
+            case 19:
+                imm = getITypeImmValue(instruction);
+                break;
+            case 8:
+            case 9:
+            case 10:
+            case 13:
+            case 15:
+                imm = getBSTypeImmValue(instruction);
+                break;
+            case 11:
+                imm = getJTypeImmValue(instruction);
+                break;
+            default:
+                imm = 0;
+                break;
+        }
+
+        return imm;
+    }
+
+    public void decodeInstruction(int slot, int instruction) {
+        decodedOpcode[slot] = getOPCode(instruction);
+        decodedRd[slot] = getRDValue(instruction);
+        decodedRs1[slot] = getRS1Value(instruction);
+        decodedRs2[slot] = getRS2Value(instruction);
+        decodedImm[slot] = getImmValue(instruction);
+        decodedCycle[slot] = config.getInstructionIPC(getInstructionType(instruction));
+        decodedType[slot] = getTypeCountIndex(getInstructionType(instruction));
+        decodedValid[slot] = slot != DECODED_SCRATCH_SLOT;
+        decodedLoop[slot] = null;
+    }
+
+    // returns the decoded cache slot of the instruction at PC, decoding it on first execution
+    public int getDecodedSlot() {
+        if ((PC & 3) != 0)
+        {
+            decodeInstruction(DECODED_SCRATCH_SLOT, fetchInstruction());
+            return DECODED_SCRATCH_SLOT;
+        }
+
+        int slot = getCodeSlot(PC);
+        if (!decodedValid[slot])
+        {
+            decode(slot, PC);
+        }
+        return slot;
+    }
+
+    // decodes the instruction at the word aligned pc into its slot and marks breakpoints
+    private void decode(int slot, int pc) {
+        decodeInstruction(slot, memory.fetchWord(pc));
+        if (debugger != null && (slot == stopSlot || debugger.hasBreakpoint(pc)))
+        {
+            decodedOpcode[slot] = BREAKPOINT;
+        }
+    }
+
+    // returns the decoded cache slot of the word aligned address pc, giving its page slots on first use
+    private int getCodeSlot(int pc) {
+        int page = pc >>> Memory.PAGE_SHIFT;
+
+        if (page != lastCodePage)
+        {
+            int[] table = codePageBase[page >>> 10];
+            if (table == null)
+            {
+                table = new int[1024];
+                codePageBase[page >>> 10] = table;
+            }
+            if (table[page & 1023] == 0)
+            {
+                table[page & 1023] = allocateCodePage();
+            }
+            lastCodePage = page;
+            lastCodePageBase = table[page & 1023];
+        }
+        return lastCodePageBase + ((pc & Memory.PAGE_MASK) >> 2);
+    }
+
+    // returns the decoded cache slot of a word aligned address, or -1 when its page never held code
+    private int findCodeSlot(int addr) {
+        int page = addr >>> Memory.PAGE_SHIFT;
+        int[] table = codePageBase[page >>> 10];
+
+        if (table == null || table[page & 1023] == 0)
+        {
+            return -1;
+        }
+        return table[page & 1023] + ((addr & Memory.PAGE_MASK) >> 2);
+    }
+
+    private int allocateCodePage() {
+        int base = decodedSlotCount;
+
+        decodedSlotCount += PAGE_SLOTS;
+        if (decodedSlotCount > decodedOpcode.length)
+        {
+            int capacity = Math.max(decodedOpcode.length * 2, decodedSlotCount);
+            decodedOpcode = Arrays.copyOf(decodedOpcode, capacity);
+            decodedRd = Arrays.copyOf(decodedRd, capacity);
+            decodedRs1 = Arrays.copyOf(decodedRs1, capacity);
+            decodedRs2 = Arrays.copyOf(decodedRs2, capacity);
+            decodedImm = Arrays.copyOf(decodedImm, capacity);
+            decodedCycle = Arrays.copyOf(decodedCycle, capacity);
+            decodedType = Arrays.copyOf(decodedType, capacity);
+            decodedValid = Arrays.copyOf(decodedValid, capacity);
+            blockCache = Arrays.copyOf(blockCache, capacity);
+            translatedCode = Arrays.copyOf(translatedCode, capacity);
+            decodedLoop = Arrays.copyOf(decodedLoop, capacity);
+        }
+        return base;
+    }
+
+    // forgets every decoded instruction and code page
+    public void invalidateDecodedCache() {
+        flushBlockCache();
+        Arrays.fill(codePageBase, null);
+        Arrays.fill(decodedValid, 0, decodedSlotCount, false);
+        decodedSlotCount = 1;
+        lastCodePage = -1;
+        stopSlot = -1;
+    }
+
+    // drops cached instructions overlapping the written bytes
+    public void invalidateDecoded(int address, int length) {
+        int first = address & ~3;
+        int words = (((address + length - 1) & ~3) - first) / 4 + 1;
+
+        for (int word = 0; word < words; word++)
+        {
+            int slot = findCodeSlot(first + word * 4);
+            if (slot > 0)
+            {
+                decodedValid[slot] = false;
+                if (translatedCode[slot])
+                {
+                    flushBlockCache();  // self modifying code, rare enough to drop every block
+                }
+            }
+        }
+    }
+
+    public void flushBlockCache() {
+        Arrays.fill(blockCache, 0, decodedSlotCount, null);
+        Arrays.fill(translatedCode, 0, decodedSlotCount, false);
+        Arrays.fill(decodedLoop, 0, decodedSlotCount, null);    // loops mark their words as translated too
+        blockGeneration++;
+        blockCacheFlushed = true;
+    }
+
+    /////
+
+    public void instAdd(int rd, int rs1, int rs2) {
+        registers[rd] = registers[rs1] + registers[rs2];
+        PC += 4;
+    }
+
+    public void instSub(int rd, int rs1, int rs2) {
+        registers[rd] = registers[rs1] - registers[rs2];
+        PC += 4;
+    }
+
+    public void instAddi(int rd, int rs1, int imm) {
+        registers[rd] = registers[rs1] + imm;
+        PC += 4;
+    }
+
+    public void instSubi(int rd, int rs1, int imm) {
+        registers[rd] = registers[rs1] - imm;
+        PC += 4;
+    }
+
+    public void instXor(int rd, int rs1, int rs2) {
+        registers[rd] = registers[rs1] ^ registers[rs2];
+        PC += 4;
+    }
+
+    public void instXori(int rd, int rs1, int imm) {
+        registers[rd] = registers[rs1] ^ imm;
+        PC += 4;
+    }
+
+    public void instAnd(int rd, int rs1, int rs2) {
+        registers[rd] = registers[rs1] & registers[rs2];
+        PC += 4;
+    }
+
+    public void instJalr(int rd, int rs1, int imm) {
+        registers[rd] = PC + 4;    // save return address
+        PC = registers[rs1] + imm;
+    }
+
+    public void instBeq(int rs1, int rs2, int imm) {
+        if (registers[rs1] == registers[rs2])
+        {
+            PC += imm * 2;
+        }
+        else
+        {
+            PC += 4;
+        }
+    }
+
+    public void instBge(int rs1, int rs2, int imm) {
+        if (registers[rs1] >= registers[rs2])
+        {
+            PC += imm * 2;
+        }
+        else
+        {
+            PC += 4;
+        }
+    }
+
+    public void instBlt(int rs1, int rs2, int imm) {
+        if (registers[rs1] < registers[rs2])
+        {
+            PC += imm * 2;
+        }
+        else
+        {
+            PC += 4;
+        }
+    }
+
+    public void instJal(int rd, int imm) {
+        registers[rd] = PC + 4;    // save return address
+        PC += (imm * 2);
+    }
+
+    public void instLw(int rd, int rs1, int imm) {
+        int addr = imm + registers[rs1];
+        registers[rd] = loadWord(addr);
+        PC += 4;
+    }
+
+    public void instSw(int rs1, int rs2, int imm) {
+        int addr = imm + registers[rs1];
+        storeWord(addr, registers[rs2]);
+        PC += 4;
+    }
+
+    public void instLb(int rd, int rs1, int imm) {
+        int addr = imm + registers[rs1];
+        registers[rd] = loadByte(addr);
+        PC += 4;
+    }
+
+    public void instSb(int rs1, int rs2, int imm) {
+        int addr = imm + registers[rs1];
+        storeByte(addr, registers[rs2]);
+        PC += 4;
+    }
+
+    public void instSrl(int rd, int rs1, int rs2) {
+        registers[rd] = registers[rs1] >>> registers[rs2];  // logical right shift
+        PC += 4;
+    }
+
+    public void instSra(int rd, int rs1, int rs2) {
+        registers[rd] = registers[rs1] >> registers[rs2];  // logical arithmetic shift
+        PC += 4;
+    }
+
+    public void instSlti(int rd, int rs1, int imm) {
+        if (rs1 < imm)
+        {
+            registers[rd] = 1;
+        }
+        else
+        {
+            registers[rd] = 0;
+        }
+        PC += 4;
+    }
+
+    public void instSrai(int rd, int rs1, int shamt) {
+        registers[rd] = registers[rs1] >> shamt;
+        PC += 4;
+    }
+
+    // amoadd, amoswap and fence, the instructions harts synchronize with. Blocks leave them to the interpreter
+    public static boolean isSyncInstruction(int opcode) {
+        return opcode >= 20 && opcode <= 22;
+    }
+
+    // loads, stores and amos
+    public static boolean accessesMemory(int opcode) {
+        return (opcode >= 12 && opcode <= 15) || opcode == 20 || opcode == 21;
+    }
+
+    // returns the address of an amo
+    private int executeSync(int slot, Memory target) {
+        int addr = registers[decodedRs1[slot]];
+
+        switch (decodedOpcode[slot])
+        {
+            case 20:
+                registers[decodedRd[slot]] = target.atomicAddWord(addr, registers[decodedRs2[slot]]);
+                break;
+            case 21:
+                registers[decodedRd[slot]] = target.atomicSwapWord(addr, registers[decodedRs2[slot]]);
+                break;
+            default:
+                VarHandle.fullFence();
+                break;
+        }
+        if (target == memory && decodedOpcode[slot] != 22)
+        {
+            invalidateDecoded(addr, 4);
+        }
+        PC += 4;
+        return addr;
+    }
+
+    /////
+
+    // executes one decoded instruction, returns false when SON is reached
+    public boolean executeDecoded(int slot) {
+        boolean bContinue = true;
+        int opcode = decodedOpcode[slot];
+
+        totalProcessedInstruction += 1;
+        totalCycle = totalCycle + decodedCycle[slot];
+        instructionTypeCount[decodedType[slot]] += 1;
+
+        switch (opcode)
+        {
+            case 0:
+                instAdd(decodedRd[slot], decodedRs1[slot], decodedRs2[slot]);
+                break;
+            case 1:
+                instSub(decodedRd[slot], decodedRs1[slot], decodedRs2[slot]);
+                break;
+            case 2:
+                instAddi(decodedRd[slot], decodedRs1[slot], decodedImm[slot]);
+                break;
+            case 3:
+                instSubi(decodedRd[slot], decodedRs1[slot], decodedImm[slot]);
+                break;
+            case 4:
+                instXor(decodedRd[slot], decodedRs1[slot], decodedRs2[slot]);
+                break;
+            case 5:
+                instXori(decodedRd[slot], decodedRs1[slot], decodedImm[slot]);
+                break;
+            case 6:
+                instAnd(decodedRd[slot], decodedRs1[slot], decodedRs2[slot]);
+                break;
+            case 7:
+                instJalr(decodedRd[slot], decodedRs1[slot], decodedImm[slot]);
+                break;
+            case 8:
+                instBeq(decodedRs1[slot], decodedRs2[slot], decodedImm[slot]);
+                break;
+            case 9:
+                instBge(decodedRs1[slot], decodedRs2[slot], decodedImm[slot]);
+                break;
+            case 10:
+                instBlt(decodedRs1[slot], decodedRs2[slot], decodedImm[slot]);
+                break;
+            case 11:
+                instJal(decodedRd[slot], decodedImm[slot]);
+                if (decodedImm[slot] < 0 && loopInstructionLimit > 0)
+                {
+                    skipLoop(slot);     // PC is on the loop head now
+                }
+                break;
+            case 12:
+                instLw(decodedRd[slot], decodedRs1[slot], decodedImm[slot]);
+                break;
+            case 13:
+                instSw(decodedRs1[slot], decodedRs2[slot], decodedImm[slot]);
+                break;
+            case 14:
+                instLb(decodedRd[slot], decodedRs1[slot], decodedImm[slot]);
+                break;
+            case 15:
+                instSb(decodedRs1[slot], decodedRs2[slot], decodedImm[slot]);
+                break;
+            case 16:
+                instSrl(decodedRd[slot], decodedRs1[slot], decodedRs2[slot]);
+                break;
+            case 17:
+                instSra(decodedRd[slot], decodedRs1[slot], decodedRs2[slot]);
+                break;
+            case 18:
+                instSlti(decodedRd[slot], decodedRs1[slot], decodedImm[slot]);
+                break;
+            case 19:
+                instSrai(decodedRd[slot], decodedRs1[slot], decodedImm[slot]);
+                break;
+            case 20:
+            case 21:
+            case 22:
+                executeSync(slot, memory);
+                break;
+
+            case BREAKPOINT:
+                bContinue = breakpoint(slot);
+                break;
+
+            case 127:   // SON
+                bContinue = false;
+                break;
+            default:
+                break;
+        }
+
+        return bContinue;
+    }
+
+    // the instruction in slot has a breakpoint, its other decoded fields are its own. Returns false when the
+    // run stops in front of it, otherwise it runs
+    private boolean breakpoint(int slot) {
+        uncount(slot);      // executeDecoded counted it already
+
+        if (debugger.breaks(PC, registers))
+        {
+            clearStopSlot();
+            return false;
+        }
+
+        decodedOpcode[slot] = getOPCode(memory.fetchWord(PC));
+        boolean bContinue = executeDecoded(slot);
+        if (decodedValid[slot])
+        {
+            decodedOpcode[slot] = BREAKPOINT;   // unless it overwrote itself
+        }
+        return bContinue;
+    }
+
+    // Memory.Watcher of the debugger, called before the access. The interpreter stops at a one shot breakpoint
+    // behind the instruction at PC. In a block PC is the block start and the run ends with the block, which the
+    // flush makes leave right after the access
+    private void watch(int address, int size, boolean write) {
+        if (debugger.watches(address, size, write))
+        {
+            halted = true;
+            flushBlockCache();
+            if ((PC & 3) == 0)
+            {
+                stopSlot = getCodeSlot(PC + 4);
+                if (!decodedValid[stopSlot])
+                {
+                    decode(stopSlot, PC + 4);
+                }
+                decodedOpcode[stopSlot] = BREAKPOINT;
+            }
+        }
+    }
+
+    private void clearStopSlot() {
+        if (stopSlot >= 0)
+        {
+            decodedValid[stopSlot] = false;     // decoded again without the one shot breakpoint
+            stopSlot = -1;
+        }
+    }
+
+    public void runInterpreter() {
+        boolean bContinue = true;
+
+        if (observer != null)
+        {
+            runInterpreterObserved();
+            return;
+        }
+
+        loopInstructionLimit = loopSkipping ? Long.MAX_VALUE : 0;
+        while (bContinue)
+        {
+            bContinue = executeDecoded(getDecodedSlot());   // decode instruction at PC on first execution
+        }
+        loopInstructionLimit = 0;
+    }
+
+    // interprets until instructionCount instructions have been executed in total or PC reaches stopPC,
+    // returns false when the program reaches SON first. SON itself is left for simulateProgram
+    public boolean runUntil(long instructionCount, int stopPC) {
+        setLoopLimit(instructionCount, stopPC);
+        while (totalProcessedInstruction < instructionCount && PC != stopPC)
+        {
+            int slot = getDecodedSlot();
+            if (decodedOpcode[slot] == 127)
+            {
+                loopInstructionLimit = 0;
+                drainTiming();
+                return false;
+            }
+            boolean bContinue = observer == null && timing == null && tracer == null ? executeDecoded(slot) : step(slot);
+            if (!bContinue)
+            {
+                loopInstructionLimit = 0;
+                drainTiming();
+                return false;   // stopped by the debugger
+            }
+        }
+        loopInstructionLimit = 0;
+        drainTiming();
+        return true;
+    }
+
+    // lets executeDecoded skip loops up to instructionCount and stopPC when nothing watches single instructions
+    private void setLoopLimit(long instructionCount, int stopPC) {
+        boolean plain = loopSkipping && observer == null && timing == null && tracer == null;
+
+        loopInstructionLimit = plain ? instructionCount : 0;
+        loopStopPC = stopPC;
+    }
+
+    private void drainTiming() {
+        if (timing != null)
+        {
+            totalCycle += timing.drain();
+        }
+    }
+
+    // runUntil with the configured engine, blocks are entered while they can not pass instructionCount
+    // and the rest is interpreted. Returns false when the program ends first
+    public boolean fastForward(long instructionCount) {
+        if ((engine == ENGINE_BLOCK || engine == ENGINE_JIT) && timing == null && tracer == null)
+        {
+            runBlocks(instructionCount - MAX_BLOCK_LENGTH);
+            if (halted)
+            {
+                if (debugger == null || !debugger.hasStopped())
+                {
+                    uncount(getDecodedSlot());      // the block ran SON, runUntil leaves it uncounted
+                }
+                return false;
+            }
+        }
+        return runUntil(instructionCount, -1);
+    }
+
+    // takes back the counters of an executed instruction
+    private void uncount(int slot) {
+        totalProcessedInstruction -= 1;
+        totalCycle = totalCycle - decodedCycle[slot];
+        instructionTypeCount[decodedType[slot]] -= 1;
+    }
+
+    // one quantum of a hart running in lockstep with others: runs until instructionCount instructions in
+    // total, SON, or with stopAtSync the next amo or fence, which is left for completeSync.
+    // Returns 127 after SON, the opcode of the amo or fence, or -1 when instructionCount was reached
+    public int runQuantum(long instructionCount, boolean stopAtSync) {
+        if ((engine == ENGINE_BLOCK || engine == ENGINE_JIT) && timing == null && tracer == null)
+        {
+            this.stopAtSync = stopAtSync;
+            runBlocks(instructionCount - MAX_BLOCK_LENGTH);
+            this.stopAtSync = false;
+            if (halted)
+            {
+                totalExecutionTime = config.getExecutionTime(totalCycle);
+                return 127;
+            }
+        }
+
+        int opcode = -1;
+        setLoopLimit(instructionCount, -1);
+        while (totalProcessedInstruction < instructionCount)
+        {
+            int slot = getDecodedSlot();
+            if (stopAtSync && isSyncInstruction(decodedOpcode[slot]))
+            {
+                opcode = decodedOpcode[slot];
+                break;
+            }
+            boolean bContinue = observer == null && timing == null && tracer == null ? executeDecoded(slot) : step(slot);
+            if (!bContinue)
+            {
+                opcode = 127;
+                break;
+            }
+        }
+        loopInstructionLimit = 0;
+        drainTiming();
+        totalExecutionTime = config.getExecutionTime(totalCycle);
+        return opcode;
+    }
+
+    // executes the amo or fence runQuantum stopped at with the flat cost, an amo reads and writes target
+    // instead of the hart's own memory. Returns the amo address
+    public int completeSync(Memory target) {
+        int slot = getDecodedSlot();
+
+        totalProcessedInstruction += 1;
+        totalCycle = totalCycle + decodedCycle[slot];
+        instructionTypeCount[decodedType[slot]] += 1;
+        return executeSync(slot, target);
+    }
+
+    private void runInterpreterObserved() {
+        boolean bContinue = true;
+
+        while (bContinue)
+        {
+            bContinue = executeObserved(getDecodedSlot());
+        }
+    }
+
+    private boolean executeObserved(int slot) {
+        int opcode = decodedOpcode[slot];
+
+        if (opcode == BREAKPOINT)
+        {
+            // the observer sees the instruction itself, and nothing when the run stops in front of it
+            if (debugger.breaks(PC, registers))
+            {
+                clearStopSlot();
+                return false;
+            }
+            opcode = getOPCode(memory.fetchWord(PC));
+        }
+        observer.instruction(PC, opcode, decodedRd[slot], decodedCycle[slot]);
+        return executeDecoded(slot);
+    }
+
+    // one instruction at a time for tracing and timing models, every engine gives the same results here
+    private void runStepped() {
+        boolean bContinue = true;
+
+        while (bContinue)
+        {
+            bContinue = step(getDecodedSlot());
+        }
+    }
+
+    // executes one decoded instruction and reports it to the observer, the timing model and the tracer
+    private boolean step(int slot) {
+        int pc = PC;
+        int instruction = tracer == null ? 0 : memory.fetchWord(pc);     // before a store can change it
+        int opcode = decodedOpcode[slot] == BREAKPOINT ? getOPCode(memory.fetchWord(pc)) : decodedOpcode[slot];
+        int address = accessesMemory(opcode) ? registers[decodedRs1[slot]] + decodedImm[slot] : 0;
+        boolean bContinue = observer == null ? executeDecoded(slot) : executeObserved(slot);
+
+        if (!bContinue && debugger != null && debugger.hasStopped())
+        {
+            return false;   // the instruction did not run
+        }
+        if (timing != null)
+        {
+            // the model replaces the flat cost executeDecoded charged
+            totalCycle += timing.instruction(pc, opcode, decodedRd[slot], decodedRs1[slot], decodedRs2[slot], address, PC) - decodedCycle[slot];
+        }
+        if (tracer != null)
+        {
+            tracer.record(pc, instruction, getTraceValue(slot, opcode), address);
+        }
+        return bContinue;
+    }
+
+    // rd after execution, the stored value for stores and 0 for instructions without a result. opcode is the
+    // instruction itself, also in a breakpoint slot
+    private int getTraceValue(int slot, int opcode) {
+        switch (opcode)
+        {
+            case 8:
+            case 9:
+            case 10:
+                return 0;
+            case 13:
+            case 15:
+                return registers[decodedRs2[slot]];
+            default:
+                return opcode <= 21 ? registers[decodedRd[slot]] : 0;
+        }
+    }
+
+    private static boolean isBlockExit(int opcode) {
+        // jalr, beq, bge, blt, jal, SON and invalid opcodes end a basic block
+        return (opcode >= 7 && opcode <= 11) || opcode < 0 || opcode > 19;
+    }
+
+    private Block translateBlock(int startPC) {
+        Block block = new Block();
+        int[] ops = new int[MAX_BLOCK_LENGTH * 5];
+        int[] cyclesUpTo = new int[MAX_BLOCK_LENGTH];
+        int[] typeCounts = new int[6];
+        int pc = startPC;
+        int length = 0;
+        int cycles = 0;
+
+        block.startPC = startPC;
+        block.generation = blockGeneration;
+        block.exitOpcode = -1;
+
+        while (true)
+        {
+            int slot = getCodeSlot(pc);
+            if (!decodedValid[slot])
+            {
+                decode(slot, pc);
+            }
+
+            int opcode = decodedOpcode[slot];
+            if (isSyncInstruction(opcode) || opcode == BREAKPOINT)
+            {
+                break;      // the block falls through to the interpreter, lookupBlock never starts one here
+            }
+            ops[length * 5] = opcode;
+            ops[length * 5 + 1] = decodedRd[slot];
+            ops[length * 5 + 2] = decodedRs1[slot];
+            ops[length * 5 + 3] = decodedRs2[slot];
+            ops[length * 5 + 4] = decodedImm[slot];
+            cycles += decodedCycle[slot];
+            cyclesUpTo[length] = cycles;
+            typeCounts[decodedType[slot]]++;
+            translatedCode[slot] = true;
+            length++;
+
+            if (isBlockExit(opcode))
+            {
+                block.exitOpcode = opcode;
+                block.exitPC = pc;
+                break;
+            }
+
+            pc += 4;
+            if (length == MAX_BLOCK_LENGTH || (pc & Memory.PAGE_MASK) == 0)     // blocks stop at page ends
+            {
+                break;
+            }
+        }
+
+        block.length = length;
+        block.cycles = cycles;
+        block.ops = Arrays.copyOf(ops, length * 5);
+        block.cyclesUpTo = Arrays.copyOf(cyclesUpTo, length);
+        block.typeCounts = typeCounts;
+
+        switch (block.exitOpcode)
+        {
+            case 8:
+            case 9:
+            case 10:
+                block.takenPC = block.exitPC + ops[(length - 1) * 5 + 4] * 2;
+                block.fallThroughPC = block.exitPC + 4;
+                break;
+            case 11:
+                block.takenPC = block.exitPC + ops[(length - 1) * 5 + 4] * 2;
+                break;
+            case -1:
+                block.fallThroughPC = pc;
+                break;
+            default:
+                break;
+        }
+
+        return block;
+    }
+
+    // returns the block starting at pc, or null when pc can not start a block (unaligned)
+    private Block lookupBlock(int pc) {
+        if ((pc & 3) != 0)
+        {
+            return null;
+        }
+
+        int slot = getCodeSlot(pc);
+        Block block = blockCache[slot];
+        if (block == null)
+        {
+            if (!decodedValid[slot])
+            {
+                decode(slot, pc);
+            }
+            if (isSyncInstruction(decodedOpcode[slot]) || decodedOpcode[slot] == BREAKPOINT)
+            {
+                return null;
+            }
+            block = translateBlock(pc);
+            blockCache[slot] = block;
+        }
+        return block;
+    }
+
+    private Block takenSuccessor(Block block) {
+        PC = block.takenPC;
+        if (block.taken == null || block.taken.generation != blockGeneration)
+        {
+            block.taken = lookupBlock(PC);
+        }
+        return block.taken;
+    }
+
+    private Block fallThroughSuccessor(Block block) {
+        PC = block.fallThroughPC;
+        if (block.fallThrough == null || block.fallThrough.generation != blockGeneration)
+        {
+            block.fallThrough = lookupBlock(PC);
+        }
+        return block.fallThrough;
+    }
+
+    private void chargeBlock(Block block) {
+        int[] typeCounts = block.typeCounts;
+
+        totalProcessedInstruction += block.length;
+        totalCycle += block.cycles;
+        for (int type = 0; type < 6; type++)
+        {
+            instructionTypeCount[type] += typeCounts[type];
+        }
+        if (observer != null)
+        {
+            observer.block(block.startPC, block.ops, block.length, block.cyclesUpTo);
+        }
+    }
+
+    // charges only the first executed instructions of a block
+    private void chargePartialBlock(Block block, int executed) {
+        totalProcessedInstruction += executed;
+        totalCycle += block.cyclesUpTo[executed - 1];
+        for (int i = 0; i < executed; i++)
+        {
+            instructionTypeCount[getTypeCountIndex(getInstructionType(block.ops[i * 5]))] += 1;
+        }
+        if (observer != null)
+        {
+            observer.block(block.startPC, block.ops, executed, block.cyclesUpTo);
+        }
+    }
+
+    // follows the block links for the PC the block exited with
+    private Block successor(Block block) {
+        switch (block.exitOpcode)
+        {
+            case -1:
+                return fallThroughSuccessor(block);
+            case 7:
+                if (block.jalrTarget == null || block.jalrTargetPC != PC || block.jalrTarget.generation != blockGeneration)
+                {
+                    block.jalrTarget = lookupBlock(PC);
+                    block.jalrTargetPC = PC;
+                }
+                return block.jalrTarget;
+            case 8:
+            case 9:
+            case 10:
+                return PC == block.takenPC ? takenSuccessor(block) : fallThroughSuccessor(block);
+            case 11:
+                return takenSuccessor(block);
+            case 127:   // SON
+                halted = true;
+                return null;
+            default:    // invalid opcode, PC does not move just like in the interpreter
+                return null;
+        }
+    }
+
+    // runs a whole block and returns the chained successor, or null when the caller has to look it up
+    private Block executeBlock(Block block) {
+        int[] ops = block.ops;
+        int bodyLength = block.exitOpcode == -1 ? block.length : block.length - 1;
+        int rd;
+        int rs1;
+        int rs2;
+        int imm;
+
+        blockCacheFlushed = false;
+        for (int i = 0; i < bodyLength; i++)
+        {
+            int base = i * 5;
+            rd = ops[base + 1];
+            rs1 = ops[base + 2];
+            rs2 = ops[base + 3];
+            imm = ops[base + 4];
+
+            switch (ops[base])
+            {
+                case 0:
+                    registers[rd] = registers[rs1] + registers[rs2];
+                    break;
+                case 1:
+                    registers[rd] = registers[rs1] - registers[rs2];
+                    break;
+                case 2:
+                    registers[rd] = registers[rs1] + imm;
+                    break;
+                case 3:
+                    registers[rd] = registers[rs1] - imm;
+                    break;
+                case 4:
+                    registers[rd] = registers[rs1] ^ registers[rs2];
+                    break;
+                case 5:
+                    registers[rd] = registers[rs1] ^ imm;
+                    break;
+                case 6:
+                    registers[rd] = registers[rs1] & registers[rs2];
+                    break;
+                case 12:
+                    registers[rd] = loadWord(imm + registers[rs1]);
+                    break;
+                case 13:
+                    storeWord(imm + registers[rs1], registers[rs2]);
+                    break;
+                case 14:
+                    registers[rd] = loadByte(imm + registers[rs1]);
+                    break;
+                case 15:
+                    storeByte(imm + registers[rs1], registers[rs2]);
+                    break;
+                case 16:
+                    registers[rd] = registers[rs1] >>> registers[rs2];
+                    break;
+                case 17:
+                    registers[rd] = registers[rs1] >> registers[rs2];
+                    break;
+                case 18:
+                    registers[rd] = rs1 < imm ? 1 : 0;
+                    break;
+                case 19:
+                    registers[rd] = registers[rs1] >> imm;
+                    break;
+                default:
+                    break;
+            }
+
+            if (blockCacheFlushed)
+            {
+                // a store hit translated code, leave before running possibly stale instructions
+                chargePartialBlock(block, i + 1);
+                PC = block.startPC + (i + 1) * 4;
+                return null;
+            }
+        }
+
+        chargeBlock(block);
+
+        int base = bodyLength * 5;
+        switch (block.exitOpcode)
+        {
+            case -1:
+                PC = block.fallThroughPC;
+                break;
+            case 7:
+                registers[ops[base + 1]] = block.exitPC + 4;    // save return address
+                PC = registers[ops[base + 2]] + ops[base + 4];
+                break;
+            case 8:
+                PC = registers[ops[base + 2]] == registers[ops[base + 3]] ? block.takenPC : block.fallThroughPC;
+                break;
+            case 9:
+                PC = registers[ops[base + 2]] >= registers[ops[base + 3]] ? block.takenPC : block.fallThroughPC;
+                break;
+            case 10:
+                PC = registers[ops[base + 2]] < registers[ops[base + 3]] ? block.takenPC : block.fallThroughPC;
+                break;
+            case 11:
+                registers[ops[base + 1]] = block.exitPC + 4;    // save return address
+                PC = block.takenPC;
+                break;
+            default:    // SON and invalid opcodes leave PC on the exit instruction
+                PC = block.exitPC;
+                break;
+        }
+
+        return successor(block);
+    }
+
+    // tiered execution: blocks run translated until they get hot, then as compiled bytecode
+    private Block executeTiered(Block block) {
+        if (block.compiled == null)
+        {
+            if (++block.executionCount < compileThreshold)
+            {
+                return executeBlock(block);
+            }
+            block.compiled = compileBlock(block);
+        }
+
+        blockCacheFlushed = false;
+        long result = block.compiled.run(this, registers);
+        int executed = (int) (result >>> 32);
+        PC = (int) result;
+
+        if (executed == block.length)
+        {
+            chargeBlock(block);
+            return successor(block);
+        }
+
+        chargePartialBlock(block, executed);    // left early after a store into translated code
+        return null;
+    }
+
+    private BlockCompiler.CompiledBlock compileBlock(Block block) {
+        try {
+            return BlockCompiler.compile(MethodHandles.lookup(), block.startPC, block.ops, block.length,
+                    block.exitOpcode, block.takenPC, block.fallThroughPC);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can not compile block at " + block.startPC, e);
+        }
+    }
+
+    // called right after the backward jal in jalSlot ran: skips the iterations of its countdown loop that fit
+    // into loopInstructionLimit, with the loop exit when it fits too. Returns true when iterations were skipped
+    private boolean skipLoop(int jalSlot) {
+        CountdownLoop loop = decodedLoop[jalSlot];
+
+        if (loop == null)
+        {
+            loop = analyzeLoop(jalSlot);
+            decodedLoop[jalSlot] = loop;
+        }
+        if (loop == CountdownLoop.NONE || (loopStopPC >= loop.headPC && loopStopPC < loop.headPC + loop.length * 4))
+        {
+            return false;
+        }
+
+        long n = loop.iterations(registers);
+        long remaining = loopInstructionLimit - totalProcessedInstruction;
+        boolean exits = n * loop.length + loop.exitLength <= remaining;
+        long iterations = exits ? n : Math.min(n, remaining / loop.length);
+        if (n <= 0 || iterations <= 0)
+        {
+            return false;
+        }
+
+        // the counters wrap like the registers would, only a and b are known not to
+        for (int i = 0; i < loop.counters.length; i++)
+        {
+            registers[loop.counters[i]] += (int) (iterations * loop.increments[i] + (exits ? loop.prefixIncrements[i] : 0));
+        }
+        totalProcessedInstruction += (iterations * loop.length + (exits ? loop.exitLength : 0));
+        totalCycle += (iterations * loop.cycles + (exits ? loop.exitCycles : 0));
+        for (int type = 0; type < 6; type++)
+        {
+            instructionTypeCount[type] += (iterations * loop.typeCounts[type] + (exits ? loop.exitTypeCounts[type] : 0));
+        }
+        PC = exits ? loop.exitPC : loop.headPC;
+        return true;
+    }
+
+    private CountdownLoop analyzeLoop(int jalSlot) {
+        int jalPC = PC - decodedImm[jalSlot] * 2;
+        int length = (jalPC - PC) / 4 + 1;
+
+        if (jalSlot == DECODED_SCRATCH_SLOT || (PC & 3) != 0 || length > CountdownLoop.getMaxLength()
+                || (debugger != null && debugger.hasBreakpoint(jalPC)))
+        {
+            return CountdownLoop.NONE;
+        }
+
+        int[] ops = new int[length * 5];
+        int[] cycles = new int[length];
+        int[] types = new int[length];
+        for (int i = 0; i < length; i++)
+        {
+            int pc = PC + i * 4;
+            int slot = getCodeSlot(pc);
+            if (!decodedValid[slot])
+            {
+                decode(slot, pc);
+            }
+            ops[i * 5] = decodedOpcode[slot];
+            ops[i * 5 + 1] = decodedRd[slot];
+            ops[i * 5 + 2] = decodedRs1[slot];
+            ops[i * 5 + 3] = decodedRs2[slot];
+            ops[i * 5 + 4] = decodedImm[slot];
+            cycles[i] = decodedCycle[slot];
+            types[i] = decodedType[slot];
+            translatedCode[slot] = true;    // a store into the loop flushes it like a block
+        }
+        return CountdownLoop.analyze(PC, ops, cycles, types, length);
+    }
+
+    public void runBlocks() {
+        runBlocks(Long.MAX_VALUE);
+    }
+
+    // stops before the next block once instructionLimit instructions have been executed in total
+    private void runBlocks(long instructionLimit) {
+        Block block = null;
+
+        halted = false;
+        setLoopLimit(instructionLimit, -1);
+        while (!halted && totalProcessedInstruction < instructionLimit)
+        {
+            if (block == null)
+            {
+                block = lookupBlock(PC);
+                if (block == null)
+                {
+                    // blocks only start on aligned addresses and leave amos and fences to the interpreter
+                    int slot = getDecodedSlot();
+                    if (stopAtSync && isSyncInstruction(decodedOpcode[slot]))
+                    {
+                        break;
+                    }
+                    boolean bContinue = observer == null ? executeDecoded(slot) : executeObserved(slot);
+                    halted |= !bContinue;     // a watchpoint may have set it already
+                    continue;
+                }
+            }
+
+            Block executed = block;
+            block = engine == ENGINE_JIT ? executeTiered(block) : executeBlock(block);
+            if (executed.exitOpcode == 11 && executed.takenPC <= executed.exitPC && loopInstructionLimit > 0 && PC == executed.takenPC
+                    && skipLoop(getCodeSlot(executed.exitPC)))
+            {
+                block = null;   // PC moved past the loop or the chained head is still right, look it up again
+            }
+        }
+        loopInstructionLimit = 0;
+        clearStopSlot();    // a watchpoint ended the run inside a block
+    }
+
+    public void simulateProgram() {
+        if (tracer != null || timing != null)
+        {
+            runStepped();
+            drainTiming();
+        }
+        else if (engine == ENGINE_BLOCK || engine == ENGINE_JIT)
+        {
+            runBlocks();
+        }
+        else
+        {
+            runInterpreter();
+        }
+
+        totalExecutionTime = config.getExecutionTime(totalCycle);
+    }
+}
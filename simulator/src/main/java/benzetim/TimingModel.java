@@ -0,0 +1,22 @@
+package benzetim;
+
+// Cycle accounting separate from functional execution. The simulator reports every instruction after it ran
+// and adds the returned cycles to the run. Without a model (Config.createTimingModel returns null) the engines
+// charge the flat type costs themselves, which keeps the block engines and the JIT usable.
+public interface TimingModel {
+
+    // empty machine, a run starts from the program start or from a checkpoint
+    void reset();
+
+    // address is the memory address of loads and stores, nextPC the PC the instruction continued with
+    int instruction(int pc, int opcode, int rd, int rs1, int rs2, int address, int nextPC);
+
+    // cycles the model has not returned from instruction yet, the simulator adds them when a run stops.
+    // Models that time on another thread return 0 from instruction and hand the cycles over here
+    default long drain() {
+        return 0;
+    }
+
+    // statistics for the run report
+    String getReport();
+}
@@ -0,0 +1,248 @@
+package benzetim;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.Deflater;
+
+// Binary instruction trace writer. The simulation thread fills fixed size records into segments of a preallocated
+// off-heap ring buffer, a background thread drains full segments to the file, so the simulation never waits for disk
+// unless the ring is full and the policy is POLICY_BLOCK. With POLICY_DROP records are dropped and counted instead.
+//
+// File layout, all values big endian:
+//   header: magic "BZTR", version, record size, flags, total records (long), dropped records (long)
+//   frames: record count, stored length, flags (1 = deflated), 0, records dropped right before the frame (long),
+//           then stored length bytes of records, deflated or raw
+//   record: PC, instruction word, value (rd after execution, the stored value for stores), memory address (loads and stores)
+public final class TraceRecorder implements Closeable {
+
+    public static final int POLICY_BLOCK = 0;
+    public static final int POLICY_DROP = 1;
+
+    public static final int MAGIC = 0x425A5452;   // "BZTR"
+    public static final int VERSION = 1;
+    public static final int RECORD_SIZE = 16;
+    public static final int HEADER_SIZE = 32;
+    public static final int FRAME_HEADER_SIZE = 24;
+    public static final int FLAG_DEFLATED = 1;
+
+    private static final int SEGMENT_SIZE = 1 << 16;     // 4096 records
+
+    private final FileChannel channel;
+    private final int policy;
+    private final boolean compress;
+    private final int segmentCount;
+    private final ByteBuffer[] producerSegments;        // views of the ring, one set per thread
+    private final ByteBuffer[] writerSegments;
+    private final int[] segmentRecords;
+    private final long[] segmentDropped;
+    private final Thread writer;
+
+    // segments handed to the writer and segments written, the ring slot of segment n is n % segmentCount
+    private volatile long published = 0;
+    private volatile long written = 0;
+    private volatile boolean closing = false;
+    private volatile Thread waitingProducer = null;
+    private volatile IOException writerError = null;
+
+    // producer side
+    private ByteBuffer current = null;
+    private long droppedPending = 0;
+    private long totalRecords = 0;
+    private long droppedRecords = 0;
+
+    public TraceRecorder(Path path, long bufferSize, int policy, boolean compress) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.policy = policy;
+        this.compress = compress;
+        this.segmentCount = (int) Math.max(2, Math.min(bufferSize, Integer.MAX_VALUE) / SEGMENT_SIZE);
+
+        ByteBuffer ring = ByteBuffer.allocateDirect(segmentCount * SEGMENT_SIZE);
+        producerSegments = new ByteBuffer[segmentCount];
+        writerSegments = new ByteBuffer[segmentCount];
+        for (int i = 0; i < segmentCount; i++)
+        {
+            producerSegments[i] = ring.slice(i * SEGMENT_SIZE, SEGMENT_SIZE);
+            writerSegments[i] = ring.slice(i * SEGMENT_SIZE, SEGMENT_SIZE);
+        }
+        segmentRecords = new int[segmentCount];
+        segmentDropped = new long[segmentCount];
+
+        channel.position(HEADER_SIZE);     // the header is written on close, when the counts are known
+        writer = new Thread(this::drain, "trace-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public long getTotalRecords() {
+        return totalRecords;
+    }
+
+    public long getDroppedRecords() {
+        return droppedRecords;
+    }
+
+    // called by the simulation thread for every executed instruction
+    public void record(int pc, int instruction, int value, int address) {
+        if (current == null && !acquireSegment(policy == POLICY_DROP))
+        {
+            droppedRecords++;
+            droppedPending++;
+            return;
+        }
+
+        current.putInt(pc).putInt(instruction).putInt(value).putInt(address);
+        totalRecords++;
+        if (!current.hasRemaining())
+        {
+            publish();
+        }
+    }
+
+    // takes the next ring slot, waits for the writer when the ring is full unless mayDrop
+    private boolean acquireSegment(boolean mayDrop) {
+        while (published - written >= segmentCount)
+        {
+            if (mayDrop)
+            {
+                return false;
+            }
+            waitingProducer = Thread.currentThread();
+            if (published - written >= segmentCount)
+            {
+                LockSupport.parkNanos(this, 100000);
+            }
+            waitingProducer = null;
+        }
+
+        int slot = (int) (published % segmentCount);
+        current = producerSegments[slot];
+        current.clear();
+        segmentDropped[slot] = droppedPending;
+        droppedPending = 0;
+        return true;
+    }
+
+    private void publish() {
+        int slot = (int) (published % segmentCount);
+
+        segmentRecords[slot] = current.position() / RECORD_SIZE;
+        current = null;
+        published = published + 1;     // volatile write, makes the segment contents visible to the writer
+        LockSupport.unpark(writer);
+    }
+
+    private void drain() {
+        Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        ByteBuffer frameHeader = ByteBuffer.allocateDirect(FRAME_HEADER_SIZE);
+        ByteBuffer compressed = ByteBuffer.allocateDirect(SEGMENT_SIZE + SEGMENT_SIZE / 8 + 64);
+
+        while (true)
+        {
+            long next = written;
+            if (next == published)
+            {
+                if (closing && next == published)
+                {
+                    break;
+                }
+                LockSupport.parkNanos(this, 1000000);
+                continue;
+            }
+
+            int slot = (int) (next % segmentCount);
+            if (writerError == null)
+            {
+                try {
+                    writeFrame(slot, deflater, frameHeader, compressed);
+                } catch (IOException e) {
+                    writerError = e;   // later segments are discarded, close reports the error
+                }
+            }
+
+            written = next + 1;
+            Thread producer = waitingProducer;
+            if (producer != null)
+            {
+                LockSupport.unpark(producer);
+            }
+        }
+
+        if (deflater != null)
+        {
+            deflater.end();
+        }
+    }
+
+    private void writeFrame(int slot, Deflater deflater, ByteBuffer frameHeader, ByteBuffer compressed) throws IOException {
+        ByteBuffer records = writerSegments[slot];
+        int length = segmentRecords[slot] * RECORD_SIZE;
+        ByteBuffer payload = records.duplicate().position(0).limit(length);
+        int flags = 0;
+
+        if (deflater != null && length > 0)
+        {
+            deflater.reset();
+            deflater.setInput(payload.duplicate());
+            deflater.finish();
+            compressed.clear();
+            deflater.deflate(compressed);
+            if (deflater.finished() && compressed.position() < length)
+            {
+                payload = compressed.flip();
+                flags = FLAG_DEFLATED;
+            }
+        }
+
+        frameHeader.clear();
+        frameHeader.putInt(segmentRecords[slot]).putInt(payload.remaining()).putInt(flags).putInt(0).putLong(segmentDropped[slot]).flip();
+        while (frameHeader.hasRemaining())
+        {
+            channel.write(frameHeader);
+        }
+        while (payload.hasRemaining())
+        {
+            channel.write(payload);
+        }
+    }
+
+    // flushes the last records, waits for the writer and writes the header
+    @Override
+    public void close() throws IOException {
+        if (current != null || droppedPending > 0)
+        {
+            if (current == null)
+            {
+                acquireSegment(false);  // an empty frame carries the records dropped at the end
+            }
+            publish();
+        }
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            if (writerError != null)
+            {
+                throw writerError;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(compress ? FLAG_DEFLATED : 0);
+            header.putLong(totalRecords).putLong(droppedRecords).flip();
+            while (header.hasRemaining())
+            {
+                channel.write(header, header.position());
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package benzetim;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// Replays a trace written by TraceRecorder through the timing model without executing the program again.
+// The frame headers are scanned once, then the frames are grouped into chunks that are mapped and decoded in
+// parallel. The flat IPC model only needs per type instruction counts, so chunk results are simply added up
+// and one pass over the trace serves any number of flat configs. Timing models replay the records in order.
+public final class TraceReplay {
+
+    private static final long CHUNK_SIZE = 8 << 20;    // stored bytes per parallel task, well below the 2 GB map limit
+
+    private static final int[] TYPE_INDEX = new int[128];
+
+    static {
+        for (int opcode = 0; opcode < 128; opcode++)
+        {
+            TYPE_INDEX[opcode] = Simulator.getTypeCountIndex(Simulator.getInstructionType(opcode));
+        }
+    }
+
+    private final Path path;
+    private final long totalRecords;
+    private final long droppedRecords;
+    private final long[] chunkStarts;      // file offsets, chunk i covers chunkStarts[i] .. chunkStarts[i + 1]
+
+    public TraceReplay(Path path) throws IOException {
+        this.path = path;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(TraceRecorder.HEADER_SIZE);
+            readFully(channel, header, 0);
+            if (header.getInt(0) != TraceRecorder.MAGIC || header.getInt(4) != TraceRecorder.VERSION
+                    || header.getInt(8) != TraceRecorder.RECORD_SIZE)
+            {
+                throw new IOException("not a trace file: " + path);
+            }
+            totalRecords = header.getLong(16);
+            droppedRecords = header.getLong(24);
+
+            // only the frame headers are read here, the payloads are skipped
+            ArrayList<Long> starts = new ArrayList<Long>();
+            ByteBuffer frameHeader = ByteBuffer.allocate(TraceRecorder.FRAME_HEADER_SIZE);
+            long size = channel.size();
+            long position = TraceRecorder.HEADER_SIZE;
+            long chunkStart = position;
+            long records = 0;
+
+            starts.add(chunkStart);
+            while (position < size)
+            {
+                readFully(channel, frameHeader.clear(), position);
+                int count = frameHeader.getInt(0);
+                int storedLength = frameHeader.getInt(4);
+                if (count < 0 || storedLength < 0 || position + TraceRecorder.FRAME_HEADER_SIZE + storedLength > size)
+                {
+                    throw new IOException("truncated trace frame at offset " + position + ": " + path);
+                }
+                records += count;
+                position += TraceRecorder.FRAME_HEADER_SIZE + storedLength;
+                if (position - chunkStart >= CHUNK_SIZE)
+                {
+                    chunkStart = position;
+                    starts.add(chunkStart);
+                }
+            }
+            if (chunkStart != position)
+            {
+                starts.add(position);
+            }
+            if (records != totalRecords)
+            {
+                throw new IOException("trace frames hold " + records + " records, header says " + totalRecords + ": " + path);
+            }
+
+            chunkStarts = new long[starts.size()];
+            for (int i = 0; i < chunkStarts.length; i++)
+            {
+                chunkStarts[i] = starts.get(i);
+            }
+        }
+    }
+
+    public long getTotalRecords() {
+        return totalRecords;
+    }
+
+    // records the recorder had to drop, their instructions are missing from the counts
+    public long getDroppedRecords() {
+        return droppedRecords;
+    }
+
+    public int getChunkCount() {
+        return chunkStarts.length - 1;
+    }
+
+    // executed instructions per type, indexed like Simulator.getInstructionTypeCount
+    public long[] getInstructionTypeCount() throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return IntStream.range(0, getChunkCount()).parallel()
+                    .mapToObj(chunk -> {
+                        long[] counts = new long[6];
+                        readChunk(channel, chunk, (records, offset, count) -> countRecords(records, offset, count, counts));
+                        return counts;
+                    })
+                    .reduce(new long[6], TraceReplay::add);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // cycles of the traced run under a timing model. The model state depends on every earlier instruction,
+    // so the chunks are fed in order on one thread
+    public long getCycles(TimingModel model) throws IOException {
+        long[] cycles = new long[1];
+        int[] pending = new int[3];    // PC, instruction word and address of the record waiting for its next PC
+        boolean[] hasPending = new boolean[1];
+
+        model.reset();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (int chunk = 0; chunk < getChunkCount(); chunk++)
+            {
+                readChunk(channel, chunk, (records, offset, count) -> {
+                    int end = offset + count * TraceRecorder.RECORD_SIZE;
+                    for (int position = offset; position < end; position += TraceRecorder.RECORD_SIZE)
+                    {
+                        int pc = records.getInt(position);
+                        if (hasPending[0])
+                        {
+                            cycles[0] += replay(model, pending, pc);
+                        }
+                        pending[0] = pc;
+                        pending[1] = records.getInt(position + 4);
+                        pending[2] = records.getInt(position + 12);
+                        hasPending[0] = true;
+                    }
+                });
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        if (hasPending[0])
+        {
+            // the last record is SON, which stays on its PC
+            cycles[0] += replay(model, pending, Simulator.getOPCode(pending[1]) == 127 ? pending[0] : pending[0] + 4);
+        }
+        return cycles[0];
+    }
+
+    private static int replay(TimingModel model, int[] record, int nextPC) {
+        int instruction = record[1];
+
+        return model.instruction(record[0], Simulator.getOPCode(instruction), Simulator.getRDValue(instruction),
+                Simulator.getRS1Value(instruction), Simulator.getRS2Value(instruction), record[2], nextPC);
+    }
+
+    private interface RecordConsumer {
+        void accept(ByteBuffer records, int offset, int count);
+    }
+
+    // maps a chunk and hands the records of every frame to consumer, inflating compressed frames
+    private void readChunk(FileChannel channel, int chunk, RecordConsumer consumer) {
+        try {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, chunkStarts[chunk], chunkStarts[chunk + 1] - chunkStarts[chunk]);
+            Inflater inflater = null;
+            ByteBuffer inflated = null;
+            int position = 0;
+
+            while (position < map.limit())
+            {
+                int count = map.getInt(position);
+                int storedLength = map.getInt(position + 4);
+                int flags = map.getInt(position + 8);
+                int payload = position + TraceRecorder.FRAME_HEADER_SIZE;
+
+                if ((flags & TraceRecorder.FLAG_DEFLATED) == 0)
+                {
+                    consumer.accept(map, payload, count);
+                }
+                else
+                {
+                    if (inflater == null)
+                    {
+                        inflater = new Inflater();
+                    }
+                    int length = count * TraceRecorder.RECORD_SIZE;
+                    if (inflated == null || inflated.capacity() < length)
+                    {
+                        inflated = ByteBuffer.allocate(length);
+                    }
+                    inflater.reset();
+                    inflater.setInput(map.slice(payload, storedLength));
+                    inflated.clear().limit(length);
+                    while (inflated.hasRemaining() && !inflater.finished())
+                    {
+                        if (inflater.inflate(inflated) == 0 && inflater.needsInput())
+                        {
+                            break;
+                        }
+                    }
+                    if (inflated.hasRemaining())
+                    {
+                        throw new IOException("corrupt trace frame at offset " + (chunkStarts[chunk] + position) + ": " + path);
+                    }
+                    consumer.accept(inflated, 0, count);
+                }
+                position = payload + storedLength;
+            }
+
+            if (inflater != null)
+            {
+                inflater.end();
+            }
+        } catch (DataFormatException e) {
+            throw new UncheckedIOException(new IOException("corrupt trace chunk " + chunk + ": " + path, e));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void countRecords(ByteBuffer records, int offset, int count, long[] counts) {
+        int end = offset + count * TraceRecorder.RECORD_SIZE;
+
+        for (int position = offset; position < end; position += TraceRecorder.RECORD_SIZE)
+        {
+            counts[TYPE_INDEX[records.getInt(position + 4) & 0x7F]]++;    // the instruction word
+        }
+    }
+
+    private static long[] add(long[] a, long[] b) {
+        long[] sum = new long[a.length];
+
+        for (int i = 0; i < a.length; i++)
+        {
+            sum[i] = a[i] + b[i];
+        }
+        return sum;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+            {
+                throw new IOException("truncated trace file");
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package benzetim;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AssemblerTest {
+
+    @Test
+    void encodesEveryFormat() {
+        Program program = Programs.assemble(
+                "0 add x1 x2 x3",
+                "4 addi x4 x5 -1",
+                "8 sw x6 x7 10",
+                "0x0C bge x8 x9 FFE      // backwards",
+                "#10 jal x31 FFFFA",
+                "024 fence",
+                "24 SON");
+
+        assertEquals(7, program.size());
+        assertEquals(Assembler.encodeRType(0, 1, 2, 3), program.getInstruction(0));
+        assertEquals(Assembler.encodeIType(2, 4, 5, -1), program.getInstruction(1));
+        assertEquals(Assembler.encodeBSType(13, 6, 7, 0x10), program.getInstruction(2));
+        assertEquals(Assembler.encodeBSType(9, 8, 9, 0xFFE), program.getInstruction(3));
+        assertEquals(Assembler.encodeJType(11, 31, 0xFFFFA), program.getInstruction(4));
+        assertEquals(Assembler.encodeRType(22, 0, 0, 0), program.getInstruction(5));
+        assertEquals(0xFFFFFFFF, program.getInstruction(6));
+        assertEquals(12, program.getAddress(3));
+        assertEquals(16, program.getAddress(4));
+        assertEquals(20, program.getAddress(5));     // octal
+    }
+
+    @Test
+    void acceptsCommentsBlankLinesAndCRLF() {
+        Program program = Programs.assemble(
+                "// yorum",
+                "",
+                "0 addi x1 x0 5\r",
+                "   \t",
+                "4 SON// bitti\r");
+
+        assertEquals(2, program.size());
+        assertEquals(Assembler.encodeIType(2, 1, 0, 5), program.getInstruction(0));
+    }
+
+    // every malformed line is reported with its number, the baseline took trailing operands silently
+    @Test
+    void collectsErrorsWithLineNumbers() {
+        Assembler.AssemblyException e = assertThrows(Assembler.AssemblyException.class, () -> Programs.assemble(
+                "0 addi x1 x0 5",
+                "4 foo x1",
+                "8 addi x1 x40 1",
+                "12 add x1 x2 x3 x4",
+                "// yorum",
+                "16 addi x1 x2",
+                "20",
+                "2z SON",
+                "24 SON x1"));
+        String message = e.getMessage();
+
+        assertTrue(message.startsWith("7 malformed program line(s)\n"), message);
+        assertTrue(message.contains("line 2: invalid instruction: 4 foo x1\n"), message);
+        assertTrue(message.contains("line 3: invalid register: 8 addi x1 x40 1\n"), message);
+        assertTrue(message.contains("line 4: unexpected operand: 12 add x1 x2 x3 x4\n"), message);
+        assertTrue(message.contains("line 6: missing immediate: 16 addi x1 x2\n"), message);
+        assertTrue(message.contains("line 7: missing instruction: 20\n"), message);
+        assertTrue(message.contains("line 8: "), message);
+        assertTrue(message.contains("line 9: unexpected operand: 24 SON x1\n"), message);
+        assertFalse(message.contains("line 1:"), message);
+    }
+
+    @Test
+    void cutsLongErrorLists() {
+        String[] lines = new String[25];
+        for (int i = 0; i < lines.length; i++)
+        {
+            lines[i] = (4 * i) + " nop";
+        }
+
+        String message = assertThrows(Assembler.AssemblyException.class, () -> Programs.assemble(lines)).getMessage();
+        assertTrue(message.contains("line 20: "), message);
+        assertFalse(message.contains("line 21: "), message);
+        assertTrue(message.endsWith("... 5 more\n"), message);
+    }
+
+    // lines cross the read chunks, and one comment is longer than the whole buffer
+    @Test
+    void readsPastTheBuffer() {
+        String[] lines = new String[20001];
+        for (int i = 0; i < 20000; i++)
+        {
+            lines[i] = (4 * i) + " addi x1 x1 " + Integer.toHexString(i & 0x7FF);
+        }
+        lines[20000] = "80000 SON //" + "x".repeat(200000);
+
+        Program program = Programs.assemble(lines);
+        assertEquals(20001, program.size());
+        assertEquals(Assembler.encodeIType(2, 1, 1, 19999 & 0x7FF), program.getInstruction(19999));
+        assertEquals(80000, program.getAddress(20000));
+        assertEquals(0xFFFFFFFF, program.getInstruction(20000));
+    }
+}
@@ -0,0 +1,49 @@
+package benzetim;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BranchPredictorTest {
+
+    @Test
+    void bimodalLearnsALoopBranch() {
+        BranchPredictor predictor = new BranchPredictor(new BranchPredictor.Spec(BranchPredictor.BIMODAL, 16, 0, 0));
+
+        // weakly not taken at first, one miss to learn taken and one at the loop exit
+        for (int i = 0; i < 10; i++)
+        {
+            predictor.branch(0x40, true);
+        }
+        predictor.branch(0x40, false);
+        assertEquals(11, predictor.getBranchCount(0x40));
+        assertEquals(2, predictor.getBranchMispredictions(0x40));
+        assertEquals(2, predictor.getMispredictions());
+        assertEquals(0, predictor.getBranchCount(0x44));
+    }
+
+    // a reused model counts every branch from zero again
+    @Test
+    void resetClearsPerBranchStatistics() {
+        BranchPredictor predictor = new BranchPredictor(BranchPredictor.Spec.STATIC);
+
+        for (int pc = 0; pc < 4 * 300; pc += 4)
+        {
+            predictor.branch(pc, true);     // enough branches to grow the table
+        }
+        predictor.reset();
+        for (int i = 0; i < 3; i++)
+        {
+            predictor.branch(0x40, false);
+        }
+        predictor.branch(0x80, true);
+
+        assertEquals(3, predictor.getBranchCount(0x40));
+        assertEquals(0, predictor.getBranchMispredictions(0x40));
+        assertEquals(1, predictor.getBranchCount(0x80));
+        assertEquals(1, predictor.getBranchMispredictions(0x80));
+        assertEquals(0, predictor.getBranchCount(0x44));
+        assertEquals(0.75, predictor.getAccuracy());
+        assertFalse(predictor.getReport().contains("0x40:"), predictor.getReport());
+    }
+}
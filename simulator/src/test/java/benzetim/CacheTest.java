@@ -0,0 +1,79 @@
+package benzetim;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheTest {
+
+    private static final int A = 0x00;
+    private static final int B = 0x10;
+    private static final int C = 0x20;
+
+    // one set of two 16 byte ways
+    private static Cache twoWays(int policy) {
+        return new Cache(new Cache.Spec(32, 2, 16, policy, 1, 10));
+    }
+
+    private static String hits(Cache cache, int... addresses) {
+        StringBuilder result = new StringBuilder();
+
+        for (int address : addresses)
+        {
+            result.append(cache.access(address) ? 'h' : 'm');
+        }
+        return result.toString();
+    }
+
+    @Test
+    void lruEvictsTheLeastRecentlyUsedWay() {
+        Cache cache = twoWays(Cache.POLICY_LRU);
+
+        assertEquals("mmhmhmm", hits(cache, A, B, A, C, A, B, C));
+        assertEquals(2, cache.getHits());
+        assertEquals(5, cache.getMisses());
+    }
+
+    @Test
+    void fifoEvictsTheOldestFill() {
+        Cache cache = twoWays(Cache.POLICY_FIFO);
+
+        // the hit on A does not keep it, C replaces it
+        assertEquals("mmhmmmm", hits(cache, A, B, A, C, A, B, C));
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    void randomIsTheSameOnEveryRun() {
+        int[] addresses = new int[200];
+        for (int i = 0; i < addresses.length; i++)
+        {
+            addresses[i] = (i * 7 % 5) * 16;
+        }
+
+        String first = hits(twoWays(Cache.POLICY_RANDOM), addresses);
+        assertEquals(first, hits(twoWays(Cache.POLICY_RANDOM), addresses));
+        assertTrue(first.contains("h") && first.contains("m"), first);
+    }
+
+    // four direct mapped sets: lines 64 bytes apart share a set, bytes of one line hit
+    @Test
+    void linesMapToSets() {
+        Cache cache = new Cache(new Cache.Spec(64, 1, 16, Cache.POLICY_LRU, 1, 10));
+
+        assertEquals("mhhmmmh", hits(cache, 0x00, 0x04, 0x0F, 0x10, 0x40, 0x00, 0x10));
+        assertEquals(10, cache.latency(0x80));
+        assertEquals(1, cache.latency(0x84));
+        cache.reset();
+        assertEquals(0, cache.getHits());
+        assertEquals(10, cache.latency(0x84));
+    }
+
+    @Test
+    void rejectsInvalidGeometry() {
+        assertThrows(IllegalArgumentException.class, () -> new Cache.Spec(48, 1, 16, Cache.POLICY_LRU, 1, 10));
+        assertThrows(IllegalArgumentException.class, () -> new Cache.Spec(64, 3, 16, Cache.POLICY_LRU, 1, 10));
+        assertThrows(IllegalArgumentException.class, () -> new Cache.Spec(64, 1, 2, Cache.POLICY_LRU, 1, 10));
+        assertThrows(IllegalArgumentException.class, () -> new Cache.Spec(64, 1, 16, 3, 1, 10));
+    }
+}
@@ -0,0 +1,313 @@
+package benzetim;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CountdownLoopTest {
+
+    private static final int MAX = Integer.MAX_VALUE;
+    private static final int MIN = Integer.MIN_VALUE;
+    private static final int BEQ = 8;
+    private static final int BGE = 9;
+    private static final int BLT = 10;
+
+    // instructions of a loop from its head to the jal, like Simulator.analyzeLoop passes them
+    private static final class Loop {
+        final List<int[]> ops = new ArrayList<int[]>();
+
+        Loop addi(int register, int imm) {
+            ops.add(new int[]{2, register, register, 0, imm});
+            return this;
+        }
+
+        Loop subi(int register, int imm) {
+            ops.add(new int[]{3, register, register, 0, imm});
+            return this;
+        }
+
+        Loop op(int opcode, int rd, int rs1, int rs2, int imm) {
+            ops.add(new int[]{opcode, rd, rs1, rs2, imm});
+            return this;
+        }
+
+        // to the word after the jal
+        Loop exitIf(int opcode, int a, int b, int length) {
+            ops.add(new int[]{opcode, 0, a, b, (length - ops.size()) * 2});
+            return this;
+        }
+
+        CountdownLoop jal(int link) {
+            ops.add(new int[]{11, link, 0, 0, -ops.size() * 2});
+
+            int length = ops.size();
+            int[] flat = new int[length * 5];
+            int[] cycles = new int[length];
+            int[] types = new int[length];
+            for (int i = 0; i < length; i++)
+            {
+                System.arraycopy(ops.get(i), 0, flat, i * 5, 5);
+                cycles[i] = 1 + ops.get(i)[0] % 3;
+                types[i] = ops.get(i)[0] == 11 ? 4 : ops.get(i)[0] >= 8 ? 3 : 1;
+            }
+            return CountdownLoop.analyze(0x100, flat, cycles, types, length);
+        }
+    }
+
+    private static int[] registers(int... values) {
+        int[] registers = new int[32];
+
+        for (int i = 0; i < values.length; i += 2)
+        {
+            registers[values[i]] = values[i + 1];
+        }
+        return registers;
+    }
+
+    // bge/blt/beq x1 x2 exit; addi or subi x1 step; jal
+    private static CountdownLoop simple(int branch, int step) {
+        Loop loop = new Loop().exitIf(branch, 1, 2, 3);
+        return (step >= 0 ? loop.addi(1, step) : loop.subi(1, -step)).jal(31);
+    }
+
+    @Test
+    void bge() {
+        CountdownLoop up = simple(BGE, 1);
+        assertEquals(10, up.iterations(registers(1, 0, 2, 10)));
+        assertEquals(0, up.iterations(registers(1, 10, 2, 10)));
+        assertEquals(0, up.iterations(registers(1, 11, 2, 10)));
+        assertEquals(4, simple(BGE, 3).iterations(registers(1, 0, 2, 10)));
+
+        CountdownLoop down = simple(BGE, -1);
+        assertEquals(-1, down.iterations(registers(1, 0, 2, 10)));
+        assertEquals(0, down.iterations(registers(1, 10, 2, 10)));
+    }
+
+    @Test
+    void blt() {
+        CountdownLoop down = simple(BLT, -1);
+        assertEquals(11, down.iterations(registers(1, 10, 2, 0)));
+        assertEquals(0, down.iterations(registers(1, -1, 2, 0)));
+        assertEquals(4, simple(BLT, -3).iterations(registers(1, 10, 2, 0)));
+
+        CountdownLoop up = simple(BLT, 2);
+        assertEquals(-1, up.iterations(registers(1, 10, 2, 0)));
+        assertEquals(0, up.iterations(registers(1, -5, 2, 0)));
+    }
+
+    @Test
+    void beq() {
+        CountdownLoop up = simple(BEQ, 2);
+        assertEquals(5, up.iterations(registers(1, 0, 2, 10)));
+        assertEquals(0, up.iterations(registers(1, 10, 2, 10)));
+        assertEquals(-1, up.iterations(registers(1, 0, 2, 11)));     // steps over it
+        assertEquals(-1, up.iterations(registers(1, 12, 2, 10)));    // moves away
+
+        CountdownLoop down = simple(BEQ, -3);
+        assertEquals(10, down.iterations(registers(1, 30, 2, 0)));
+        assertEquals(-1, down.iterations(registers(1, 0, 2, 30)));
+    }
+
+    // a and b moving by the same step never change the exit test, such loops are not skipped at all
+    @Test
+    void zeroStepIsNotALoop() {
+        assertSame(CountdownLoop.NONE, simple(BGE, 0));
+        assertSame(CountdownLoop.NONE, new Loop().exitIf(BGE, 1, 2, 4).addi(1, 1).addi(2, 1).jal(31));
+        assertSame(CountdownLoop.NONE, new Loop().exitIf(BLT, 3, 3, 3).addi(1, 1).jal(31));
+    }
+
+    // b moves and a stays, the step is the difference of both
+    @Test
+    void movingBound() {
+        CountdownLoop loop = new Loop().exitIf(BGE, 1, 2, 4).subi(2, 1).addi(1, 1).jal(31);
+        assertEquals(5, loop.iterations(registers(1, 0, 2, 10)));
+        assertEquals(6, loop.iterations(registers(1, 0, 2, 11)));
+    }
+
+    @Test
+    void wrapsAtTheTop() {
+        CountdownLoop up = simple(BGE, 1);
+        assertEquals(5, up.iterations(registers(1, MAX - 5, 2, MAX)));
+        assertEquals(-1, simple(BGE, 2).iterations(registers(1, MAX - 3, 2, MAX)));     // passes MAX, wraps
+        assertEquals(0xFFFFFFFFL, up.iterations(registers(1, MIN, 2, MAX)));
+        assertEquals(-1, simple(BEQ, 1).iterations(registers(1, MAX - 1, 2, MIN + 1)));  // only after a wrap
+    }
+
+    @Test
+    void wrapsAtTheBottom() {
+        CountdownLoop down = simple(BLT, -1);
+        assertEquals(3, down.iterations(registers(1, MIN + 3, 2, MIN + 1)));
+        assertEquals(-1, down.iterations(registers(1, MIN + 3, 2, MIN)));     // nothing is below MIN
+        assertEquals(2, simple(BEQ, -1).iterations(registers(1, MIN + 2, 2, MIN)));
+        assertEquals(-1, simple(BEQ, -1).iterations(registers(1, MIN + 1, 2, MAX)));  // only after a wrap
+    }
+
+    // the prefix runs once more in the exit iteration, a prefix increment can wrap before the first test
+    @Test
+    void prefixAndSuffixCounters() {
+        CountdownLoop loop = new Loop().addi(3, 2).addi(1, 1).exitIf(BGE, 1, 2, 6).addi(3, 5).subi(4, 1).jal(31);
+
+        assertArrayEquals(new int[]{1, 3, 4}, loop.counters);
+        assertArrayEquals(new int[]{1, 7, -1}, loop.increments);
+        assertArrayEquals(new int[]{1, 2, 0}, loop.prefixIncrements);
+        assertEquals(3, loop.exitLength);
+        assertEquals(6, loop.length);
+        assertEquals(0x100 + 2 * 4 + (6 - 2) * 4, loop.exitPC);
+        assertEquals(9, loop.iterations(registers(1, 0, 2, 10)));     // x1 is 1..10 at the test
+        assertEquals(0, loop.iterations(registers(1, 9, 2, 10)));
+        assertEquals(0xFFFFFFFFL, loop.iterations(registers(1, MAX, 2, MAX)));     // MIN at the first test
+    }
+
+    @Test
+    void rejectsTheLinkRegister() {
+        assertSame(CountdownLoop.NONE, new Loop().exitIf(BGE, 1, 2, 3).addi(1, 1).jal(1));
+        assertSame(CountdownLoop.NONE, new Loop().exitIf(BGE, 1, 2, 3).addi(1, 1).jal(2));
+        assertSame(CountdownLoop.NONE, new Loop().exitIf(BGE, 1, 2, 4).addi(1, 1).addi(31, 1).jal(31));
+        assertNotSame(CountdownLoop.NONE, new Loop().exitIf(BGE, 1, 2, 3).addi(1, 1).jal(0));
+    }
+
+    @Test
+    void rejectsOtherInstructions() {
+        assertSame(CountdownLoop.NONE, new Loop().exitIf(BGE, 1, 2, 4).addi(1, 1).op(0, 3, 3, 1, 0).jal(31));
+        assertSame(CountdownLoop.NONE, new Loop().exitIf(BGE, 1, 2, 4).addi(1, 1).op(12, 3, 1, 0, 0).jal(31));
+        assertSame(CountdownLoop.NONE, new Loop().exitIf(BGE, 1, 2, 4).op(2, 1, 3, 0, 1).jal(31));     // rd != rs1
+        assertSame(CountdownLoop.NONE, new Loop().op(BGE, 0, 1, 2, 4).addi(1, 1).addi(1, 1).jal(31));  // stays inside
+        assertSame(CountdownLoop.NONE, new Loop().addi(1, 1).jal(31));     // no way out
+    }
+
+    /////
+
+    // programs of countdown loops with random counters, steps and bounds, some near the ends of the int range
+    // and some with the link in the test. Loops that do not end soon without skipping are dropped
+    static Program generateLoops(Random random) {
+        List<String> lines = new ArrayList<String>();
+        int pc = 0;
+        int loops = 1 + random.nextInt(4);
+
+        lines.add((pc) + " addi x20 x21 1");    // x21 stays zero, x20 is one
+        pc += 4;
+        for (int l = 0; l < loops; l++)
+        {
+            int a = 1 + random.nextInt(4);
+            int b = 5 + random.nextInt(4);
+            int base = random.nextInt(3);
+            for (int register : new int[]{a, b})
+            {
+                if (base == 0)
+                {
+                    lines.add(pc + " addi x" + register + " x21 " + hex(random.nextInt(0x1000)));
+                    pc += 4;
+                }
+                else
+                {
+                    lines.add(pc + " addi x" + register + " x21 FFF");     // -1, MAX after the shift
+                    lines.add((pc + 4) + " srl x" + register + " x" + register + " x20");
+                    lines.add((pc + 8) + " " + (base == 1 ? "subi" : "addi") + " x" + register + " x" + register + " " + hex(random.nextInt(0x40)));
+                    pc += 12;
+                    if (base == 2)
+                    {
+                        lines.add(pc + " addi x" + register + " x" + register + " 1");     // MIN + ...
+                        pc += 4;
+                    }
+                }
+            }
+
+            int head = pc;
+            List<String> body = new ArrayList<String>();
+            int prefix = random.nextInt(3);
+            int suffix = random.nextInt(3);
+            int branch = prefix;
+            int length = prefix + 1 + suffix + 1;
+            for (int i = 0; i < prefix + suffix; i++)
+            {
+                int counter = random.nextInt(4) == 0 ? b : random.nextInt(3) == 0 ? 1 + random.nextInt(9) : a;
+                body.add((random.nextBoolean() ? "addi" : "subi") + " x" + counter + " x" + counter + " " + hex(random.nextInt(4)));
+            }
+            String[] branches = {"beq", "bge", "blt"};
+            body.add(branch, branches[random.nextInt(3)] + " x" + a + " x" + b + " " + hex((length - branch) * 2));
+            String link = random.nextInt(8) == 0 ? "x" + a : random.nextBoolean() ? "x0" : "x31";
+            body.add("jal " + link + " " + hex((-(length - 1) * 2) & 0xFFFFF));
+            for (String instruction : body)
+            {
+                lines.add(pc + " " + instruction);
+                pc += 4;
+            }
+            if (pc != head + length * 4)
+            {
+                throw new IllegalStateException();
+            }
+            lines.add(pc + " xor x9 x9 x" + a);
+            pc += 4;
+        }
+        lines.add(pc + " SON");
+        return Programs.assemble(lines.toArray(new String[0]));
+    }
+
+    private static String hex(int value) {
+        return Integer.toHexString(value).toUpperCase();
+    }
+
+    private static Simulator simulator(Program program, int engine, boolean loopSkipping) {
+        Simulator simulator = Programs.simulator(program, engine);
+
+        simulator.setLoopSkipping(loopSkipping);
+        return simulator;
+    }
+
+    private static void assertSameCounters(Simulator expected, Simulator actual, String message) {
+        assertArrayEquals(expected.getRegisters(), actual.getRegisters(), message);
+        assertEquals(expected.getPC(), actual.getPC(), message);
+        assertEquals(expected.getTotalProcessedInstruction(), actual.getTotalProcessedInstruction(), message);
+        assertEquals(expected.getTotalCycle(), actual.getTotalCycle(), message);
+        assertArrayEquals(expected.getInstructionTypeCount(), actual.getInstructionTypeCount(), message);
+    }
+
+    @Test
+    void skippingChangesNothing() {
+        Random random = new Random(1);
+        int programs = 0;
+
+        while (programs < 300)
+        {
+            Program program = generateLoops(random);
+            Simulator reference = simulator(program, Simulator.ENGINE_INTERPRETER, false);
+            if (reference.runUntil(200000, -1))
+            {
+                continue;   // a loop that runs too long or forever without skipping
+            }
+            reference.simulateProgram();
+            programs++;
+
+            String message = "program " + programs;
+            for (int engine : Programs.ENGINES)
+            {
+                assertSameCounters(reference, Programs.run(program, engine), message + " " + Programs.engineName(engine));
+                Simulator off = simulator(program, engine, false);
+                off.simulateProgram();
+                assertSameCounters(reference, off, message + " " + Programs.engineName(engine) + " off");
+            }
+
+            // stops by count and by PC, inside loops too
+            long total = reference.getTotalProcessedInstruction();
+            for (int stop = 0; stop < 4; stop++)
+            {
+                long count = 1 + (long) (random.nextDouble() * total);
+                int stopPC = random.nextBoolean() ? -1 : program.getAddress(random.nextInt(program.size()));
+                Simulator on = simulator(program, Simulator.ENGINE_INTERPRETER, true);
+                Simulator off = simulator(program, Simulator.ENGINE_INTERPRETER, false);
+                assertEquals(off.runUntil(count, stopPC), on.runUntil(count, stopPC), message);
+                assertSameCounters(off, on, message + " runUntil " + count + " 0x" + Integer.toHexString(stopPC));
+
+                for (int engine : Programs.ENGINES)
+                {
+                    Simulator forwarded = simulator(program, engine, true);
+                    Simulator stepped = simulator(program, Simulator.ENGINE_INTERPRETER, false);
+                    assertEquals(stepped.fastForward(count), forwarded.fastForward(count), message);
+                    assertSameCounters(stepped, forwarded, message + " fastForward " + count + " " + Programs.engineName(engine));
+                }
+            }
+        }
+    }
+}
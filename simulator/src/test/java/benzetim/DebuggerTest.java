@@ -0,0 +1,130 @@
+package benzetim;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DebuggerTest {
+
+    // a load and its use, the pipeline stalls and the data cache misses on the load
+    private static final Program LOAD_USE = Programs.assemble(
+            "0 addi x1 x0 40",
+            "4 lw x2 x1 0",
+            "8 add x3 x2 x2",
+            "12 SON");
+
+    // sums 1..20 into x3, storing the sum to 0x100 and every counter value to the byte 0x200 + x1
+    private static final Program LOOP = Programs.assemble(
+            "0 addi x1 x0 0",
+            "4 addi x2 x0 14",
+            "8 addi x3 x0 0",
+            "12 bge x1 x2 E",       // to 40
+            "16 addi x1 x1 1",
+            "20 add x3 x3 x1",
+            "24 sw x0 x3 100",
+            "28 sb x1 x1 200",
+            "32 jal x31 FFFF6",     // to 12
+            "40 lw x4 x0 100",
+            "44 SON");
+
+    private static final Config TIMED = Programs.CONFIG.withPipeline(true, 2)
+            .withCaches(null, new Cache.Spec(1024, 2, 16, Cache.POLICY_LRU, 1, 10));
+
+    @TempDir
+    Path directory;
+
+    private static Debugger debugger(String breakpoint, String watchpoint) {
+        Debugger debugger = new Debugger();
+
+        if (breakpoint != null)
+        {
+            debugger.addBreakpoint(breakpoint);
+        }
+        if (watchpoint != null)
+        {
+            debugger.addWatchpoint(watchpoint);
+        }
+        return debugger;
+    }
+
+    private static Simulator timed(Program program, Debugger debugger) {
+        Simulator simulator = new Simulator(TIMED, program);
+
+        simulator.setDebugger(debugger);
+        simulator.simulateProgram();
+        return simulator;
+    }
+
+    private byte[] trace(Program program, Debugger debugger) throws IOException {
+        Path path = directory.resolve("iz" + System.nanoTime());
+        Simulator simulator = new Simulator(TIMED, program);
+
+        try (TraceRecorder tracer = new TraceRecorder(path, 1 << 17, TraceRecorder.POLICY_BLOCK, false)) {
+            simulator.setTraceRecorder(tracer);
+            simulator.setDebugger(debugger);
+            simulator.simulateProgram();
+        }
+        return Files.readAllBytes(path);
+    }
+
+    // the instruction under a breakpoint that never fires is timed and traced as itself
+    @Test
+    void idleBreakpointChangesNothing() throws IOException {
+        for (Program program : new Program[]{LOAD_USE, LOOP})
+        {
+            Simulator plain = timed(program, null);
+            Simulator watched = timed(program, debugger("4:x5==12345", null));
+
+            assertFalse(watched.getDebugger().hasStopped());
+            assertEquals(plain.getTotalCycle(), watched.getTotalCycle());
+            assertEquals(plain.getTotalProcessedInstruction(), watched.getTotalProcessedInstruction());
+            assertArrayEquals(plain.getRegisters(), watched.getRegisters());
+            assertArrayEquals(trace(program, null), trace(program, debugger("4:x5==12345", "0x400")));
+        }
+        assertTrue(timed(LOAD_USE, null).getTotalCycle() > 20, "the load misses and stalls");
+    }
+
+    // every engine stops in front of the same instruction, with the same counters, registers and memory
+    @Test
+    void breakpointStopsEveryEngineAlike() {
+        Simulator[] stopped = stopAll("20:x1==9", null);
+
+        assertEquals(20, stopped[0].getPC());
+        assertEquals(9, stopped[0].getRegisters()[1]);
+        assertEquals(36, stopped[0].getRegisters()[3]);
+        assertTrue(stopped[0].getDebugger().getReason().startsWith("kesme noktasi"));
+    }
+
+    // every engine stops right after the store that touched the watched byte
+    @Test
+    void watchpointStopsEveryEngineAlike() {
+        Simulator[] stopped = stopAll(null, "0x20c+1");
+
+        assertEquals(32, stopped[0].getPC());
+        assertEquals(12, stopped[0].getRegisters()[1]);
+        assertEquals(12, stopped[0].getMemory().loadByte(0x20c));
+        assertTrue(stopped[0].getDebugger().getReason().startsWith("izleme noktasi"));
+    }
+
+    private static Simulator[] stopAll(String breakpoint, String watchpoint) {
+        Simulator[] stopped = new Simulator[Programs.ENGINES.length];
+
+        for (int i = 0; i < stopped.length; i++)
+        {
+            stopped[i] = Programs.simulator(LOOP, Programs.ENGINES[i]);
+            stopped[i].setDebugger(debugger(breakpoint, watchpoint));
+            stopped[i].simulateProgram();
+            assertTrue(stopped[i].getDebugger().hasStopped(), Programs.engineName(Programs.ENGINES[i]));
+            if (i > 0)
+            {
+                EngineTest.assertSameState(stopped[0], stopped[i], Programs.engineName(Programs.ENGINES[i]));
+            }
+        }
+        return stopped;
+    }
+}
@@ -0,0 +1,46 @@
+package benzetim;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DesignSweepTest {
+
+    // no J type instruction, so J changes neither the time nor the cost
+    private static final Program PROGRAM = Programs.assemble(
+            "0 addi x1 x0 1",
+            "4 add x2 x1 x1",
+            "8 SON");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void tiedPointsShareTheFront() throws IOException {
+        Path sweepFile = directory.resolve("tarama.txt");
+        Path csv = directory.resolve("tarama.csv");
+        Files.write(sweepFile, List.of("Frekans 1000000", "R 1", "I 1,2", "S 1", "B 1", "J 1,2", "Maliyet I 1"));
+
+        DesignSweep sweep = new DesignSweep(sweepFile.toString());
+        sweep.evaluate(Programs.simulator(PROGRAM, Simulator.ENGINE_INTERPRETER), false);
+        sweep.writeCsv(csv);
+
+        // Frekans,R,I,S,B,J,Cevrim,Buyruk,Zaman,Maliyet,Pareto rows for I=1 J=1, I=1 J=2, I=2 J=1 and I=2 J=2
+        List<String> rows = Files.readAllLines(csv);
+        assertEquals(5, rows.size());
+        for (int i = 1; i < rows.size(); i += 2)
+        {
+            String[] first = rows.get(i).split(",");
+            String[] second = rows.get(i + 1).split(",");
+            assertArrayEquals(Arrays.copyOfRange(first, 6, 11), Arrays.copyOfRange(second, 6, 11), "points differing only in J");
+        }
+        assertEquals("1", rows.get(1).split(",")[10], "the cheapest point is on the front");
+    }
+}
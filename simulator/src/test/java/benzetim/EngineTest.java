@@ -0,0 +1,352 @@
+package benzetim;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Runs generated programs on the interpreter, the block engine and the JIT with every block compiled on its
+// first execution, and compares registers, counters and memory. The programs loop over a random body that
+// crosses a page boundary, patch an instruction of the running block, call unaligned PCs with jalr and leave
+// invalid words and SON in the middle of straight line code.
+class EngineTest {
+
+    private static final int PROGRAMS = 200;
+    private static final int DATA = 0x8000;         // x26, the table below and the data the body reads and writes
+    private static final int GADGETS = 0x2000;      // x28, the unaligned jalr targets
+    private static final int PATCHED = Assembler.encodeIType(2, 5, 5, 0);   // addi x5 x5 0, its imm grows
+    private static final int[] CHECKED_RANGES = {0, 0x3000, DATA, DATA + 0x400};
+
+    // program words by address, in the order they are added
+    private static final class Generator {
+        final Random random;
+        final Map<Integer, Integer> words = new LinkedHashMap<Integer, Integer>();
+        int pc = 0;
+
+        Generator(long seed) {
+            random = new Random(seed);
+        }
+
+        void emit(int instruction) {
+            words.put(pc, instruction);
+            pc += 4;
+        }
+
+        void r(int opcode, int rd, int rs1, int rs2) {
+            emit(Assembler.encodeRType(opcode, rd, rs1, rs2));
+        }
+
+        void i(int opcode, int rd, int rs1, int imm) {
+            emit(Assembler.encodeIType(opcode, rd, rs1, imm));
+        }
+
+        void s(int opcode, int rs1, int rs2, int imm) {
+            emit(Assembler.encodeBSType(opcode, rs1, rs2, imm));
+        }
+
+        void jal(int rd, int target) {
+            emit(Assembler.encodeJType(11, rd, (target - pc) / 2));
+        }
+
+        Program build() {
+            int[] addresses = words.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+            int[] instructions = new int[addresses.length];
+
+            for (int a = 0; a < addresses.length; a++)
+            {
+                instructions[a] = words.get(addresses[a]);
+            }
+            return new Program(addresses, instructions);
+        }
+    }
+
+    static Program generate(long seed) {
+        Generator g = new Generator(seed);
+        Random random = g.random;
+
+        // x26 = DATA, the table gives x24 = PATCHED, x25 = imm step, x27 = patched address, x28 = GADGETS
+        g.i(2, 26, 0, 0x400);
+        for (int i = 0; i < 5; i++)
+        {
+            g.r(0, 26, 26, 26);
+        }
+        g.i(12, 24, 26, 0);
+        g.i(12, 25, 26, 4);
+        g.i(12, 27, 26, 8);
+        g.i(12, 28, 26, 12);
+        for (int r = 1; r < 20; r++)
+        {
+            g.i(2, r, 0, random.nextInt(0x1000));
+        }
+        g.i(2, 29, 0, 0);
+        g.i(2, 30, 0, 3 + random.nextInt(30));
+        int main = 0x1000 - 4 * (8 + random.nextInt(48));     // the body crosses into the next page
+        g.jal(31, main);
+
+        // loop head, body, counter and the jump back; branches are forward, so their targets are patched after
+        int bodyLength = 30 + random.nextInt(90);
+        int head = main;
+        int bodyStart = head + 4;
+        int increment = bodyStart + bodyLength * 4;
+        int exit = increment + 8;
+        int patched = bodyStart + 4 * random.nextInt(bodyLength);
+        List<int[]> branches = new ArrayList<int[]>();  // pc, opcode, rs1, rs2, target
+        Set<Integer> invalid = new HashSet<Integer>();  // branches to these go one word further
+
+        g.pc = head;
+        branches.add(new int[]{head, 9, 29, 30, exit});
+        g.pc = bodyStart;
+        while (g.pc < increment)
+        {
+            if (g.pc == patched)
+            {
+                g.emit(PATCHED);
+                continue;
+            }
+            int left = (increment - g.pc) / 4;
+            int kind = random.nextInt(20);
+            if (kind < 8 || left < 3)
+            {
+                alu(g);
+            }
+            else if (kind < 11)
+            {
+                memory(g);
+            }
+            else if (kind < 13)
+            {
+                int target = g.pc + 4 * (1 + random.nextInt(Math.min(left, 12)));
+                branches.add(new int[]{g.pc, 8 + random.nextInt(3), random.nextInt(20), random.nextInt(20), target});
+                g.pc += 4;
+            }
+            else if (kind < 15 && patched > g.pc && patched < g.pc + 8)
+            {
+                alu(g);     // the store and the add have to stay clear of the patched word
+            }
+            else if (kind < 15)
+            {
+                g.s(13, 27, 24, 0);     // sw x27 x24 0, into the patched word of this or another block
+                g.r(0, 24, 24, 25);
+            }
+            else if (kind < 17)
+            {
+                int gadget = random.nextInt(3);
+                g.i(7, 21, 28, gadget * 16 + gadget + 1);   // jalr x21 x28, returns behind it
+            }
+            else if (patched > g.pc && patched < g.pc + 8)
+            {
+                alu(g);
+            }
+            else
+            {
+                g.jal(20, g.pc + 8);    // skips an invalid word
+                invalid.add(g.pc);
+                g.emit(0x40 + random.nextInt(0x3F) | random.nextInt() << 7);
+            }
+        }
+        g.i(2, 29, 29, 1);
+        g.jal(31, head);
+
+        // exit: a few instructions, SON and more straight line code nothing reaches
+        for (int i = random.nextInt(4); i > 0; i--)
+        {
+            alu(g);
+        }
+        g.emit(Assembler.encodeIType(127, 0, 0, 0));
+        for (int i = random.nextInt(4); i > 0; i--)
+        {
+            alu(g);
+        }
+
+        for (int[] branch : branches)
+        {
+            int target = invalid.contains(branch[4]) ? branch[4] + 4 : branch[4];
+            g.words.put(branch[0], Assembler.encodeBSType(branch[1], branch[2], branch[3], (target - branch[0]) / 2));
+        }
+
+        // jalr x20 x21 0 read from GADGETS + 16 * k + k + 1, its bytes split over two words
+        int back = Assembler.encodeIType(7, 20, 21, 0);
+        for (int k = 0; k < 3; k++)
+        {
+            int offset = k + 1;
+            g.words.put(GADGETS + 16 * k, back >>> (8 * offset));
+            g.words.put(GADGETS + 16 * k + 4, back << (8 * (4 - offset)));
+        }
+
+        g.words.put(DATA, PATCHED);
+        g.words.put(DATA + 4, 1 << 20);
+        g.words.put(DATA + 8, patched);
+        g.words.put(DATA + 12, GADGETS);
+        return g.build();
+    }
+
+    private static void alu(Generator g) {
+        Random random = g.random;
+        int rd = random.nextInt(20);    // x0 is writable
+        int rs1 = random.nextInt(20);
+
+        switch (random.nextInt(11))
+        {
+            case 0:
+                g.r(0, rd, rs1, random.nextInt(20));
+                break;
+            case 1:
+                g.r(1, rd, rs1, random.nextInt(20));
+                break;
+            case 2:
+                g.r(4, rd, rs1, random.nextInt(20));
+                break;
+            case 3:
+                g.r(6, rd, rs1, random.nextInt(20));
+                break;
+            case 4:
+                g.r(16, rd, rs1, random.nextInt(20));
+                break;
+            case 5:
+                g.r(17, rd, rs1, random.nextInt(20));
+                break;
+            case 6:
+                g.i(2, rd, rs1, random.nextInt(0x1000));
+                break;
+            case 7:
+                g.i(3, rd, rs1, random.nextInt(0x1000));
+                break;
+            case 8:
+                g.i(5, rd, rs1, random.nextInt(0x1000));
+                break;
+            case 9:
+                g.i(18, rd, rs1, random.nextInt(0x1000));
+                break;
+            default:
+                g.i(19, rd, rs1, random.nextInt(32));
+                break;
+        }
+    }
+
+    // loads and stores in DATA + 0x100 .. DATA + 0x200, words are misaligned now and then
+    private static void memory(Generator g) {
+        Random random = g.random;
+        int offset = 0x100 + random.nextInt(0xFC);
+
+        switch (random.nextInt(4))
+        {
+            case 0:
+                g.i(12, random.nextInt(20), 26, random.nextInt(4) == 0 ? offset : offset & ~3);
+                break;
+            case 1:
+                g.s(13, 26, random.nextInt(20), random.nextInt(4) == 0 ? offset : offset & ~3);
+                break;
+            case 2:
+                g.i(14, random.nextInt(20), 26, offset);
+                break;
+            default:
+                g.s(15, 26, random.nextInt(20), offset);
+                break;
+        }
+    }
+
+    static void assertSameState(Simulator expected, Simulator actual, String message) {
+        assertArrayEquals(expected.getRegisters(), actual.getRegisters(), message);
+        assertEquals(expected.getPC(), actual.getPC(), message);
+        assertEquals(expected.getTotalProcessedInstruction(), actual.getTotalProcessedInstruction(), message);
+        assertEquals(expected.getTotalCycle(), actual.getTotalCycle(), message);
+        assertArrayEquals(expected.getInstructionTypeCount(), actual.getInstructionTypeCount(), message);
+        for (int r = 0; r < CHECKED_RANGES.length; r += 2)
+        {
+            for (int address = CHECKED_RANGES[r]; address < CHECKED_RANGES[r + 1]; address += 4)
+            {
+                assertEquals(expected.getMemory().fetchWord(address), actual.getMemory().fetchWord(address), message + " at 0x" + Integer.toHexString(address));
+            }
+        }
+    }
+
+    @Test
+    void generatedProgramsMatch() {
+        int patchedPrograms = 0;
+
+        for (long seed = 0; seed < PROGRAMS; seed++)
+        {
+            Program program = generate(seed);
+            Simulator interpreter = Programs.run(program, Simulator.ENGINE_INTERPRETER);
+
+            assertTrue(interpreter.getTotalProcessedInstruction() > 100, "seed " + seed);
+            if (interpreter.getMemory().fetchWord(interpreter.getMemory().fetchWord(DATA + 8)) != PATCHED)
+            {
+                patchedPrograms++;
+            }
+            for (int engine : new int[]{Simulator.ENGINE_BLOCK, Simulator.ENGINE_JIT})
+            {
+                assertSameState(interpreter, Programs.run(program, engine), "seed " + seed + " " + Programs.engineName(engine));
+            }
+        }
+        assertTrue(patchedPrograms > PROGRAMS / 2, patchedPrograms + " programs patched their code");
+    }
+
+    // fastForward stops every engine on the same instruction, also in the middle of a block
+    @Test
+    void generatedProgramsMatchMidway() {
+        for (long seed = 0; seed < PROGRAMS / 4; seed++)
+        {
+            Program program = generate(seed);
+            long stop = 97 + seed * 13;
+            Simulator interpreter = Programs.simulator(program, Simulator.ENGINE_INTERPRETER);
+            interpreter.fastForward(stop);
+
+            for (int engine : new int[]{Simulator.ENGINE_BLOCK, Simulator.ENGINE_JIT})
+            {
+                Simulator simulator = Programs.simulator(program, engine);
+                simulator.fastForward(stop);
+                assertSameState(interpreter, simulator, "seed " + seed + " " + Programs.engineName(engine));
+            }
+        }
+    }
+
+    // an invalid opcode in the middle of a block keeps PC on itself, every engine spins on it the same way
+    @Test
+    void invalidOpcodeMidBlock() {
+        Program program = Programs.assemble(
+                "0 addi x1 x0 5",
+                "4 addi x2 x2 1",
+                "8 bge x2 x1 6",    // to 20
+                "12 jal x0 FFFFC",  // to 4
+                "20 addi x3 x0 7",
+                "24 xori x4 x3 F",
+                "28 add x5 x4 x3");
+        Program spinning = new Program(new int[]{0, 4, 8, 12, 20, 24, 28, 32, 36}, new int[]{
+                program.getInstruction(0), program.getInstruction(1), program.getInstruction(2), program.getInstruction(3),
+                program.getInstruction(4), program.getInstruction(5), program.getInstruction(6), 0x55, program.getInstruction(4)});
+
+        Simulator interpreter = Programs.simulator(spinning, Simulator.ENGINE_INTERPRETER);
+        interpreter.fastForward(1000);
+        assertEquals(32, interpreter.getPC());
+        for (int engine : new int[]{Simulator.ENGINE_BLOCK, Simulator.ENGINE_JIT})
+        {
+            Simulator simulator = Programs.simulator(spinning, engine);
+            simulator.fastForward(1000);
+            assertSameState(interpreter, simulator, Programs.engineName(engine));
+        }
+    }
+
+    // a block ends at the page end even without a branch, the next page is a block of its own
+    @Test
+    void straightLineAcrossPages() {
+        int[] addresses = new int[2100];
+        int[] instructions = new int[addresses.length];
+
+        for (int i = 0; i < addresses.length - 1; i++)
+        {
+            addresses[i] = i * 4;
+            instructions[i] = Assembler.encodeIType(2, 1 + i % 19, 1 + (i + 7) % 19, i & 0x7FF);
+        }
+        addresses[addresses.length - 1] = (addresses.length - 1) * 4;
+        instructions[addresses.length - 1] = Assembler.encodeIType(127, 0, 0, 0);
+        Program program = new Program(addresses, instructions);
+
+        Simulator interpreter = Programs.run(program, Simulator.ENGINE_INTERPRETER);
+        for (int engine : new int[]{Simulator.ENGINE_BLOCK, Simulator.ENGINE_JIT})
+        {
+            assertSameState(interpreter, Programs.run(program, engine), Programs.engineName(engine));
+        }
+    }
+}
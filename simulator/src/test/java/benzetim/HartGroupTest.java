@@ -0,0 +1,127 @@
+package benzetim;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HartGroupTest {
+
+    private static final int HARTS = 4;
+    private static final int ADDS = 1000;
+    private static final long QUANTUM = 50;
+    private static final int RUNS = 3;
+    private static final int COUNTER = 0x400;
+    private static final int SLOTS = 0x500;
+    private static final int FLAG = 0x600;
+    private static final int VALUE = 0x604;
+    private static final int CHECKED_END = 0x800;
+
+    // every hart adds ADDS to a shared counter with amoadd and keeps its own count in a private slot, then hart 0
+    // stores VALUE and raises FLAG behind a fence while the others spin on FLAG and load VALUE
+    private static final Program PROGRAM = Programs.assemble(
+            "0 addi x1 x9 400",
+            "4 addi x2 x9 1",
+            "8 addi x3 x9 3E8",
+            "12 addi x4 x9 0",
+            "16 add x11 x10 x10",
+            "20 add x11 x11 x11",
+            "24 bge x4 x3 C",       // to 48
+            "28 amoadd x5 x1 x2",
+            "32 addi x4 x4 1",
+            "36 sw x11 x4 500",
+            "40 jal x8 FFFF8",      // to 24
+            "44 addi x9 x9 0",
+            "48 bge x9 x10 12",     // hart 0 to 84
+            "52 lw x6 x9 600",
+            "56 bge x6 x2 6",       // to 68
+            "60 jal x8 FFFFC",      // to 52
+            "64 addi x9 x9 0",
+            "68 fence",
+            "72 lw x7 x9 604",
+            "76 lw x12 x9 400",
+            "80 SON",
+            "84 addi x7 x9 5A5",
+            "88 sw x9 x7 604",
+            "92 fence",
+            "96 sw x9 x2 600",
+            "100 SON");
+
+    private static HartGroup run(int model, int hartCount, int engine) {
+        HartGroup group = new HartGroup(Programs.CONFIG, PROGRAM, hartCount, model, QUANTUM, Simulator.DEFAULT_MEMORY_SIZE);
+
+        for (int i = 0; i < hartCount; i++)
+        {
+            group.getHart(i).setEngine(engine);
+            group.getHart(i).setJitThreshold(1);
+        }
+        group.run();
+        return group;
+    }
+
+    private static void assertResults(HartGroup group, String message) {
+        Memory memory = group.getMemory();
+
+        assertEquals(group.getHartCount() * ADDS, memory.fetchWord(COUNTER), message);
+        assertEquals(1, memory.fetchWord(FLAG), message);
+        assertEquals(0x5A5, memory.fetchWord(VALUE), message);
+        for (int i = 0; i < group.getHartCount(); i++)
+        {
+            assertEquals(ADDS, memory.fetchWord(SLOTS + 4 * i), message + " hart " + i);
+            assertEquals(0x5A5, group.getHart(i).getRegisters()[7], message + " hart " + i);
+        }
+    }
+
+    private static void assertSameGroup(HartGroup expected, HartGroup actual, String message) {
+        for (int i = 0; i < expected.getHartCount(); i++)
+        {
+            Simulator e = expected.getHart(i);
+            Simulator a = actual.getHart(i);
+            String hart = message + " hart " + i;
+
+            assertArrayEquals(e.getRegisters(), a.getRegisters(), hart);
+            assertEquals(e.getPC(), a.getPC(), hart);
+            assertEquals(e.getTotalProcessedInstruction(), a.getTotalProcessedInstruction(), hart);
+            assertEquals(e.getTotalCycle(), a.getTotalCycle(), hart);
+            assertArrayEquals(e.getInstructionTypeCount(), a.getInstructionTypeCount(), hart);
+        }
+        for (int address = 0; address < CHECKED_END; address += 4)
+        {
+            assertEquals(expected.getMemory().fetchWord(address), actual.getMemory().fetchWord(address), message + " at 0x" + Integer.toHexString(address));
+        }
+        assertEquals(expected.getQuanta(), actual.getQuanta(), message);
+    }
+
+    // the quantum model does not depend on thread scheduling, every run on every engine ends in the same state
+    @Test
+    void quantumModelIsDeterministic() {
+        for (int hartCount = 2; hartCount <= HARTS; hartCount++)
+        {
+            HartGroup first = run(HartGroup.MODEL_QUANTUM, hartCount, Simulator.ENGINE_INTERPRETER);
+
+            assertResults(first, hartCount + " harts");
+            for (int engine : Programs.ENGINES)
+            {
+                for (int r = 0; r < RUNS; r++)
+                {
+                    String message = hartCount + " harts " + Programs.engineName(engine) + " run " + r;
+                    HartGroup group = run(HartGroup.MODEL_QUANTUM, hartCount, engine);
+
+                    assertResults(group, message);
+                    assertSameGroup(first, group, message);
+                }
+            }
+        }
+    }
+
+    // the shared model orders the handoff with fences, the spin counts may differ between runs but the results not
+    @Test
+    void sharedModelKeepsRaceFreeResults() {
+        for (int engine : Programs.ENGINES)
+        {
+            for (int r = 0; r < RUNS; r++)
+            {
+                assertResults(run(HartGroup.MODEL_SHARED, HARTS, engine), Programs.engineName(engine) + " run " + r);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package benzetim;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MemoryTest {
+
+    private static final int PAGE = Memory.PAGE_SIZE;
+
+    @Test
+    void wordsAndHalfwordsAreBigEndian() {
+        Memory memory = new Memory(Simulator.DEFAULT_MEMORY_SIZE);
+
+        memory.storeWord(0x100, 0x11223344);
+        assertEquals(0x11, memory.loadByte(0x100));
+        assertEquals(0x44, memory.loadByte(0x103));
+        assertEquals(0x3344, memory.loadHalfword(0x102));
+        memory.storeHalfword(0x200, 0x8001);
+        assertEquals((short) 0x8001, memory.loadHalfword(0x200));     // sign extended
+        assertEquals(0x80010000, memory.loadWord(0x200));
+    }
+
+    // every misaligned offset inside a page and across a page boundary reads back what was stored
+    @Test
+    void misalignedAccessesSplitAcrossPages() {
+        for (int address : new int[]{0x101, 0x102, 0x103, PAGE - 3, PAGE - 2, PAGE - 1})
+        {
+            Memory memory = new Memory(Simulator.DEFAULT_MEMORY_SIZE);
+            String at = "0x" + Integer.toHexString(address);
+
+            memory.storeWord(address, 0xA1B2C3D4);
+            assertEquals(0xA1B2C3D4, memory.loadWord(address), at);
+            assertEquals(0xA1B2C3D4, memory.fetchWord(address), at);
+            assertEquals((byte) 0xA1, memory.loadByte(address), at);
+            assertEquals((byte) 0xD4, memory.loadByte(address + 3), at);
+            assertEquals(0, memory.loadByte(address - 1), at);
+            assertEquals(0, memory.loadByte(address + 4), at);
+            assertEquals(address > PAGE - 4 ? 2 : 1, memory.getAllocatedPages(), at);
+
+            memory.storeHalfword(address + 0x1000, 0x1234);
+            assertEquals(0x1234, memory.loadHalfword(address + 0x1000), at);
+        }
+
+        Memory memory = new Memory(Simulator.DEFAULT_MEMORY_SIZE);
+        memory.storeHalfword(PAGE - 1, 0xBEEF);
+        assertEquals((short) 0xBEEF, memory.loadHalfword(PAGE - 1));
+        assertEquals((byte) 0xBE, memory.loadByte(PAGE - 1));
+        assertEquals((byte) 0xEF, memory.loadByte(PAGE));
+    }
+
+    // a read running into an untouched page sees zeros and allocates nothing
+    @Test
+    void untouchedPagesReadAsZero() {
+        Memory memory = new Memory(Simulator.DEFAULT_MEMORY_SIZE);
+
+        memory.storeByte(PAGE - 1, 0x7F);
+        assertEquals(0x7F000000, memory.loadWord(PAGE - 1));
+        assertEquals(0x7F00, memory.loadHalfword(PAGE - 1));
+        assertEquals(1, memory.getAllocatedPages());
+    }
+
+    @Test
+    void trapPolicyRejectsMisalignedData() {
+        Memory memory = new Memory(Simulator.DEFAULT_MEMORY_SIZE);
+        memory.setMisalignedPolicy(Memory.MISALIGNED_TRAP);
+
+        assertThrows(Memory.MisalignedAccessException.class, () -> memory.loadWord(0x102));
+        assertThrows(Memory.MisalignedAccessException.class, () -> memory.storeWord(PAGE - 2, 1));
+        assertThrows(Memory.MisalignedAccessException.class, () -> memory.loadHalfword(PAGE - 1));
+        assertThrows(Memory.MisalignedAccessException.class, () -> memory.storeHalfword(0x101, 1));
+        assertEquals(0, memory.getAllocatedPages(), "a trapped store writes nothing");
+
+        memory.storeWord(PAGE - 4, 0x01020304);
+        memory.storeHalfword(PAGE - 2, 0x0506);
+        assertEquals(0x01020506, memory.loadWord(PAGE - 4));
+        assertEquals(0x02050600, memory.fetchWord(PAGE - 3), "instruction fetches do not trap");
+    }
+
+    // a word stored across a page boundary by the program, on every engine
+    @Test
+    void programStoresAcrossAPage() {
+        Program program = Programs.assemble(
+                "0 addi x1 x0 7FF",
+                "4 add x1 x1 x1",
+                "8 addi x1 x1 1",       // 0xFFF
+                "12 addi x2 x0 5A5",
+                "16 sw x1 x2 0",
+                "20 lw x3 x1 0",
+                "24 lb x4 x1 3",
+                "28 SON");
+
+        for (int engine : Programs.ENGINES)
+        {
+            Simulator simulator = Programs.run(program, engine);
+            String name = Programs.engineName(engine);
+
+            assertEquals(0x5A5, simulator.getRegisters()[3], name);
+            assertEquals((byte) 0xA5, simulator.getRegisters()[4], name);
+            assertEquals(0x05, simulator.getMemory().loadByte(PAGE + 1), name);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package benzetim;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PipelineModelTest {
+
+    // one EX cycle for every type
+    private static final Config UNIT = new Config(1000000, 1, 1, 1, 1, 1);
+
+    private static final int ADDI = 2;
+    private static final int ADD = 0;
+    private static final int LW = 12;
+    private static final int BEQ = 8;
+    private static final int JAL = 11;
+
+    // addi x1 x0 40, lw x2 x1 0, add x3 x2 x2
+    private static int[] loadUse(PipelineModel model) {
+        return new int[]{
+                model.instruction(0, ADDI, 1, 0, 0, 0, 4),
+                model.instruction(4, LW, 2, 1, 0, 0x40, 8),
+                model.instruction(8, ADD, 3, 2, 2, 0, 12)};
+    }
+
+    // the first instruction leaves WB 5 cycles in, the load 1 later and its user after one stall
+    @Test
+    void loadUseStallsOnceWithForwarding() {
+        PipelineModel model = new PipelineModel(UNIT.withPipeline(true, 2));
+
+        assertArrayEquals(new int[]{5, 1, 2}, loadUse(model));
+        assertEquals(1, model.getLoadUseStalls());
+        assertEquals(1, model.getDataStalls());
+    }
+
+    // every value is read after WB: two stalls for the load address and two for the loaded value
+    @Test
+    void withoutForwardingEveryDependenceWaits() {
+        PipelineModel model = new PipelineModel(UNIT.withPipeline(false, 2));
+
+        assertArrayEquals(new int[]{5, 3, 3}, loadUse(model));
+        assertEquals(0, model.getLoadUseStalls());
+        assertEquals(4, model.getDataStalls());
+    }
+
+    // the data cache miss holds MEM for the miss latency
+    @Test
+    void dataCacheMissStallsTheLoad() {
+        PipelineModel model = new PipelineModel(UNIT.withPipeline(true, 2).withCaches(null, new Cache.Spec(1024, 2, 16, Cache.POLICY_LRU, 0, 10)));
+
+        assertArrayEquals(new int[]{5, 11, 2}, loadUse(model));
+        model.reset();
+        assertArrayEquals(new int[]{5, 11, 2}, loadUse(model));
+    }
+
+    // static not taken: a taken branch costs the penalty, a not taken one nothing
+    @Test
+    void mispredictedBranchFlushes() {
+        PipelineModel model = new PipelineModel(UNIT.withPipeline(true, 2));
+
+        assertEquals(5, model.instruction(0, BEQ, 0, 0, 0, 0, 20));
+        assertEquals(3, model.instruction(20, ADD, 1, 0, 0, 0, 24));
+        assertEquals(1, model.getFlushes());
+        assertEquals(2, model.getFlushCycles());
+
+        assertEquals(1, model.instruction(24, BEQ, 0, 0, 1, 0, 28));
+        assertEquals(1, model.instruction(28, ADD, 1, 0, 0, 0, 32));
+        assertEquals(1, model.getFlushes());
+    }
+
+    // without a BTB jal is redirected in ID, one bubble
+    @Test
+    void jalWithoutBTBCostsOneCycle() {
+        PipelineModel model = new PipelineModel(UNIT.withPipeline(true, 4));
+
+        assertEquals(5, model.instruction(0, JAL, 1, 0, 0, 0, 40));
+        assertEquals(2, model.instruction(40, ADD, 2, 0, 0, 0, 44));
+        assertEquals(1, model.getFlushCycles());
+    }
+
+    // the same counts through the simulator on every engine, SON takes the last cycle
+    @Test
+    void simulatorChargesTheModel() {
+        Program program = Programs.assemble(
+                "0 addi x1 x0 40",
+                "4 lw x2 x1 0",
+                "8 add x3 x2 x2",
+                "12 SON");
+
+        for (int engine : Programs.ENGINES)
+        {
+            Simulator simulator = new Simulator(UNIT.withPipeline(true, 2), program);
+            simulator.setEngine(engine);
+            simulator.simulateProgram();
+            assertEquals(5 + 1 + 2 + 1, simulator.getTotalCycle(), Programs.engineName(engine));
+        }
+    }
+}
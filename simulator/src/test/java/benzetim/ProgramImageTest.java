@@ -0,0 +1,104 @@
+package benzetim;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProgramImageTest {
+
+    // two segments
+    private static final String[] SOURCE = {
+            "0 addi x1 x0 5",
+            "4 jal x0 7E",          // to 256
+            "256 add x2 x1 x1",
+            "260 SON"};
+
+    @TempDir
+    Path directory;
+
+    private static void assertSameProgram(Program expected, Program actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+        {
+            assertEquals(expected.getAddress(i), actual.getAddress(i));
+            assertEquals(expected.getInstruction(i), actual.getInstruction(i));
+        }
+    }
+
+    private Path image(Program program) throws IOException {
+        Path path = directory.resolve("p" + ProgramImage.EXTENSION);
+        ProgramImage.write(program, path, null);
+        return path;
+    }
+
+    @Test
+    void loadsWhatWasWritten() throws IOException {
+        Program program = Programs.assemble(SOURCE);
+        Path path = image(program);
+
+        assertTrue(ProgramImage.isImage(path));
+        assertSameProgram(program, ProgramImage.load(path));
+        assertSameProgram(program, ProgramImage.read(path.toString(), null));
+        assertEquals(10, Programs.run(ProgramImage.load(path), Simulator.ENGINE_INTERPRETER).getRegisters()[2]);
+    }
+
+    @Test
+    void rejectsDamagedImages() throws IOException {
+        Path path = image(Programs.assemble(SOURCE));
+        byte[] good = Files.readAllBytes(path);
+
+        // magic, version, word count and the last word, the checksum covers the segments and words
+        for (int offset : new int[]{0, 7, 15, good.length - 1})
+        {
+            byte[] bad = good.clone();
+            bad[offset] ^= 1;
+            Files.write(path, bad);
+            assertThrows(ProgramImage.InvalidImageException.class, () -> ProgramImage.load(path), "byte " + offset);
+        }
+        Files.write(path, new byte[10]);
+        assertThrows(ProgramImage.InvalidImageException.class, () -> ProgramImage.load(path));
+    }
+
+    // text programs are cached by the hash of their source and assembled again when the source changes
+    @Test
+    void cachesBySourceHash() throws IOException {
+        Path source = Files.write(directory.resolve("p.txt"), List.of(SOURCE));
+        Path cache = directory.resolve("onbellek");
+
+        assertSameProgram(Programs.assemble(SOURCE), ProgramImage.read(source.toString(), cache.toString()));
+        Path entry = single(cache);
+
+        // a cached image is used as it is, whatever it holds
+        Program other = Programs.assemble("0 addi x3 x0 7", "4 SON");
+        ProgramImage.write(other, entry, ProgramImage.hashFile(source));
+        assertSameProgram(other, ProgramImage.read(source.toString(), cache.toString()));
+
+        // a damaged entry is replaced
+        Files.write(entry, new byte[]{1, 2, 3});
+        assertSameProgram(Programs.assemble(SOURCE), ProgramImage.read(source.toString(), cache.toString()));
+        assertSameProgram(Programs.assemble(SOURCE), ProgramImage.load(entry));
+
+        // another source gets an entry of its own
+        Files.write(source, List.of("0 addi x4 x0 1", "4 SON"));
+        assertSameProgram(Programs.assemble("0 addi x4 x0 1", "4 SON"), ProgramImage.read(source.toString(), cache.toString()));
+        try (Stream<Path> entries = Files.list(cache)) {
+            assertEquals(2, entries.count());
+        }
+    }
+
+    private static Path single(Path directory) throws IOException {
+        try (Stream<Path> entries = Files.list(directory)) {
+            List<Path> list = entries.toList();
+            assertEquals(1, list.size());
+            assertTrue(list.get(0).toString().endsWith(ProgramImage.EXTENSION));
+            return list.get(0);
+        }
+    }
+}
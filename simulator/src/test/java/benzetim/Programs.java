@@ -0,0 +1,48 @@
+package benzetim;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+// Guest programs and runs shared by the tests.
+final class Programs {
+
+    static final Config CONFIG = new Config(1000000, 1, 2, 3, 1, 2);
+    static final int[] ENGINES = {Simulator.ENGINE_INTERPRETER, Simulator.ENGINE_BLOCK, Simulator.ENGINE_JIT};
+
+    private Programs() {
+    }
+
+    // lines as in a program file, "addr mnemonic args" with hexadecimal immediates
+    static Program assemble(String... lines) {
+        byte[] text = (String.join("\n", lines) + "\n").getBytes(StandardCharsets.US_ASCII);
+
+        try {
+            return Assembler.assemble(Channels.newChannel(new ByteArrayInputStream(text)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // a simulator on engine, the JIT compiles every block on its first execution
+    static Simulator simulator(Program program, int engine) {
+        Simulator simulator = new Simulator(CONFIG, program);
+
+        simulator.setEngine(engine);
+        simulator.setJitThreshold(1);
+        return simulator;
+    }
+
+    static Simulator run(Program program, int engine) {
+        Simulator simulator = simulator(program, engine);
+
+        simulator.simulateProgram();
+        return simulator;
+    }
+
+    static String engineName(int engine) {
+        return engine == Simulator.ENGINE_INTERPRETER ? "interp" : engine == Simulator.ENGINE_BLOCK ? "block" : "jit";
+    }
+}
@@ -0,0 +1,58 @@
+package benzetim;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultCacheTest {
+
+    @TempDir
+    Path directory;
+
+    private static byte[] key(int seed) {
+        byte[] key = new byte[32];
+        Arrays.fill(key, (byte) seed);
+        return key;
+    }
+
+    @Test
+    void keepsCountsPastTheIntRange() throws IOException {
+        ResultCache cache = new ResultCache(directory, ResultCache.DEFAULT_MAX_SIZE);
+        long[] typeCount = {1L << 33, 5, 0, 1L << 32, 7, 1};
+        int[] registers = new int[32];
+        registers[5] = -3;
+
+        cache.put(key(1), new ResultCache.Result(3L << 31, 9L << 32, 1.5f, typeCount, registers));
+        ResultCache.Result result = new ResultCache(directory, ResultCache.DEFAULT_MAX_SIZE).get(key(1));
+
+        assertNotNull(result);
+        assertEquals(3L << 31, result.totalCycle);
+        assertEquals(9L << 32, result.totalProcessedInstruction);
+        assertEquals(1.5f, result.totalExecutionTime);
+        assertArrayEquals(typeCount, result.instructionTypeCount);
+        assertArrayEquals(registers, result.registers);
+        assertNull(cache.get(key(2)));
+    }
+
+    @Test
+    void damagedEntryIsAMiss() throws IOException {
+        ResultCache cache = new ResultCache(directory, ResultCache.DEFAULT_MAX_SIZE);
+        cache.put(key(1), new ResultCache.Result(10, 20, 1f, new long[6], new int[32]));
+
+        try (Stream<Path> files = Files.list(directory)) {
+            Path entry = files.filter(f -> f.toString().endsWith(ResultCache.EXTENSION)).findFirst().orElseThrow();
+            byte[] bytes = Files.readAllBytes(entry);
+            bytes[bytes.length / 2] ^= 1;
+            Files.write(entry, bytes);
+        }
+        assertNull(cache.get(key(1)));
+        assertEquals(1, cache.getMisses());
+    }
+}
@@ -0,0 +1,72 @@
+package benzetim;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SamplerTest {
+
+    // nested loops, the inner one sums and the outer one stores, like a long run of few phases
+    private static final Program NESTED = Programs.assemble(
+            "0 addi x1 x0 0",
+            "4 addi x2 x0 3FF",
+            "8 addi x4 x0 0",
+            "12 addi x5 x0 80",
+            "16 bge x4 x5 1C",      // to 72
+            "20 addi x1 x0 0",
+            "24 bge x1 x2 A",       // to 44
+            "28 addi x1 x1 1",
+            "32 add x3 x3 x1",
+            "36 jal x0 FFFFA",      // to 24
+            "44 addi x4 x4 1",
+            "48 sw x5 x3 10",
+            "52 lw x6 x5 10",
+            "56 sb x5 x4 20",
+            "60 lb x7 x5 20",
+            "64 xor x8 x8 x6",
+            "68 jal x0 FFFE6",      // to 16
+            "72 SON");
+
+    private static Sampler sample(long warmup) {
+        Simulator simulator = Programs.simulator(NESTED, Simulator.ENGINE_INTERPRETER);
+        Sampler sampler = new Sampler(10000, 5);
+
+        sampler.setWarmup(warmup);
+        sampler.profile(simulator);
+        simulator.reset();
+        sampler.takeCheckpoints(simulator);
+        return sampler;
+    }
+
+    private static double error(long estimated, long full) {
+        return Math.abs((double) (estimated - full) / full);
+    }
+
+    @Test
+    void flatEstimateIsClose() {
+        Sampler sampler = sample(0);
+        long full = sampler.getFullCycles(Programs.CONFIG);
+
+        assertEquals(Programs.run(NESTED, Simulator.ENGINE_INTERPRETER).getTotalCycle(), full);
+        assertTrue(error(sampler.estimateCycles(Programs.CONFIG), full) < 0.01);
+    }
+
+    @Test
+    void warmupFillsTheCaches() {
+        Cache.Spec spec = new Cache.Spec(1024, 4, 16, Cache.POLICY_LRU, 0, 30);
+        Config config = Programs.CONFIG.withCaches(spec, spec);
+        Simulator detailed = new Simulator(config, NESTED);
+        detailed.simulateProgram();
+        long full = detailed.getTotalCycle();
+
+        double cold = error(sample(0).estimateCycles(config), full);
+        double warm = error(sample(10000).estimateCycles(config), full);
+        assertTrue(warm <= cold, warm + " > " + cold);
+        assertTrue(warm < 0.01);
+    }
+
+    @Test
+    void rejectsNegativeWarmup() {
+        assertThrows(IllegalArgumentException.class, () -> new Sampler(100, 1).setWarmup(-1));
+    }
+}
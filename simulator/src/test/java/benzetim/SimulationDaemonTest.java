@@ -0,0 +1,150 @@
+package benzetim;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SimulationDaemonTest {
+
+    // 0x7FF << 12 iterations, the store keeps the loop from being skipped
+    private static final String[] LONG = {
+            "0 addi x2 x0 7FF",
+            "4 add x2 x2 x2",
+            "8 add x2 x2 x2",
+            "12 add x2 x2 x2",
+            "16 add x2 x2 x2",
+            "20 add x2 x2 x2",
+            "24 add x2 x2 x2",
+            "28 add x2 x2 x2",
+            "32 add x2 x2 x2",
+            "36 add x2 x2 x2",
+            "40 add x2 x2 x2",
+            "44 add x2 x2 x2",
+            "48 add x2 x2 x2",
+            "52 bge x1 x2 8",       // to 68
+            "56 addi x1 x1 1",
+            "60 sw x0 x1 100",
+            "64 jal x31 FFFFA",     // to 52
+            "68 SON"};
+
+    private static final String[] SHORT = {
+            "0 addi x1 x0 5",
+            "4 add x2 x1 x1",
+            "8 SON"};
+
+    @TempDir
+    Path directory;
+
+    private Path write(String name, String... lines) throws IOException {
+        return Files.write(directory.resolve(name), List.of(lines)).toAbsolutePath();
+    }
+
+    private static Thread start(SimulationDaemon daemon, Path socket) throws InterruptedException {
+        Thread thread = new Thread(() -> {
+            try {
+                daemon.serve();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        // the socket file appears before the daemon listens, it is up once a connection goes through
+        for (int i = 0; i < 1000; i++)
+        {
+            try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+                return thread;
+            } catch (IOException e) {
+                Thread.sleep(10);
+            }
+        }
+        return fail("the daemon did not start");
+    }
+
+    private static List<String> readUntil(BufferedReader reader, String last) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        String line = reader.readLine();
+
+        while (line != null)
+        {
+            lines.add(line);
+            if (line.equals(last))
+            {
+                break;
+            }
+            line = reader.readLine();
+        }
+        return lines;
+    }
+
+    // jobs read before durdur still get their results, then the daemon ends
+    @Test
+    void stopsAfterTheJobsItRead() throws Exception {
+        Path socket = directory.resolve("s.sock");
+        Path config = write("c.txt", "Frekans 100", "R 1", "I 2", "B 3", "S 4", "J 5");
+        Path longProgram = write("long.txt", LONG);
+        Path shortProgram = write("short.txt", SHORT);
+        Thread server = start(new SimulationDaemon(socket, 2), socket);
+
+        assertTrue(SimulationDaemon.submit(socket, shortProgram + " " + config));
+        assertFalse(SimulationDaemon.submit(socket, directory.resolve("yok.txt") + " " + config));
+
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            PrintWriter writer = new PrintWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), true);
+            BufferedReader reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8));
+
+            writer.println(longProgram + " " + config);
+            writer.println(shortProgram + " " + config);
+            List<String> lines = readUntil(reader, "bitti 2");     // the daemon has read both jobs now
+            assertTrue(SimulationDaemon.submit(socket, "durdur"));
+            lines.addAll(readUntil(reader, "bitti 1"));
+
+            long instructions = Programs.run(Programs.assemble(LONG), Simulator.ENGINE_INTERPRETER).getTotalProcessedInstruction();
+            assertTrue(lines.contains("bitti 1"), lines.toString());
+            assertTrue(lines.stream().anyMatch(line -> line.startsWith("sonuc 1 " + config + " ") && line.split(" ")[4].equals(Long.toString(instructions))),
+                    lines.toString());
+            assertTrue(lines.stream().anyMatch(line -> line.startsWith("sonuc 2 " + config + " 3 3 ")), lines.toString());
+        }
+
+        server.join(60000);
+        assertFalse(server.isAlive());
+        assertFalse(Files.exists(socket));
+    }
+
+    // a stream that ends without bitti is a failed job, not a successful one
+    @Test
+    void cutConnectionFailsTheJob() throws Exception {
+        Path socket = directory.resolve("k.sock");
+
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Thread cutter = new Thread(() -> {
+                try (SocketChannel channel = server.accept()) {
+                    PrintWriter writer = new PrintWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), true);
+                    new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8)).readLine();
+                    writer.println("sonuc 1 c.txt 10 5 0.1");
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            cutter.start();
+
+            assertFalse(SimulationDaemon.submit(socket, "p.txt c.txt"));
+            cutter.join();
+        }
+    }
+}
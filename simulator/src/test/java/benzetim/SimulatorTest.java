@@ -0,0 +1,107 @@
+package benzetim;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SimulatorTest {
+
+    // sums 1..10 into x3 and stores the sum
+    private static final Program SUM = Programs.assemble(
+            "0 addi x1 x0 0",
+            "4 addi x2 x0 A",
+            "8 addi x3 x0 0",
+            "12 bge x1 x2 A",       // to 32
+            "16 addi x1 x1 1",
+            "20 add x3 x3 x1",
+            "24 jal x31 FFFFA",     // to 12
+            "32 sw x0 x3 100",
+            "36 lw x4 x0 100",
+            "40 SON");
+
+    // 0x7FF << 20 iterations of a three instruction loop, skipped in closed form
+    private static final Program LONG_LOOP = Programs.assemble(
+            "0 addi x2 x0 7FF",
+            "4 add x2 x2 x2",
+            "8 add x2 x2 x2",
+            "12 add x2 x2 x2",
+            "16 add x2 x2 x2",
+            "20 add x2 x2 x2",
+            "24 add x2 x2 x2",
+            "28 add x2 x2 x2",
+            "32 add x2 x2 x2",
+            "36 add x2 x2 x2",
+            "40 add x2 x2 x2",
+            "44 add x2 x2 x2",
+            "48 add x2 x2 x2",
+            "52 add x2 x2 x2",
+            "56 add x2 x2 x2",
+            "60 add x2 x2 x2",
+            "64 add x2 x2 x2",
+            "68 add x2 x2 x2",
+            "72 add x2 x2 x2",
+            "76 add x2 x2 x2",
+            "80 add x2 x2 x2",
+            "84 bge x1 x2 6",        // to 96
+            "88 addi x1 x1 1",
+            "92 jal x31 FFFFC",      // to 84
+            "96 SON");
+
+    @Test
+    void sumsOnEveryEngine() {
+        for (int engine : Programs.ENGINES)
+        {
+            Simulator simulator = Programs.run(SUM, engine);
+            String name = Programs.engineName(engine);
+
+            assertEquals(55, simulator.getRegisters()[3], name);
+            assertEquals(55, simulator.getRegisters()[4], name);
+            assertEquals(55, simulator.getMemory().loadWord(0x100), name);
+            assertEquals(3 + 11 + 10 * 3 + 3, simulator.getTotalProcessedInstruction(), name);    // SON is counted too
+        }
+    }
+
+    @Test
+    void resetRunsAgain() {
+        Simulator simulator = Programs.run(SUM, Simulator.ENGINE_INTERPRETER);
+        long cycles = simulator.getTotalCycle();
+
+        simulator.reset();
+        assertEquals(0, simulator.getTotalProcessedInstruction());
+        simulator.simulateProgram();
+        assertEquals(cycles, simulator.getTotalCycle());
+        assertEquals(55, simulator.getRegisters()[3]);
+    }
+
+    @Test
+    void countsPastTheIntRange() {
+        long iterations = 0x7FFL << 20;
+
+        for (int engine : Programs.ENGINES)
+        {
+            Simulator simulator = Programs.run(LONG_LOOP, engine);
+            long[] typeCount = simulator.getInstructionTypeCount();
+            String name = Programs.engineName(engine);
+
+            assertEquals(21 + iterations * 3 + 2, simulator.getTotalProcessedInstruction(), name);
+            assertEquals(iterations + 1, typeCount[3], name);
+            assertEquals(Programs.CONFIG.getCycles(typeCount), simulator.getTotalCycle(), name);
+            assertTrue(simulator.getTotalCycle() > Integer.MAX_VALUE, name);
+        }
+    }
+
+    // SON is left for simulateProgram whichever engine ran up to it
+    @Test
+    void fastForwardStopsInFrontOfSon() {
+        for (int engine : Programs.ENGINES)
+        {
+            Simulator simulator = Programs.simulator(SUM, engine);
+            String name = Programs.engineName(engine);
+
+            assertFalse(simulator.fastForward(1000), name);
+            assertEquals(40, simulator.getPC(), name);
+            assertEquals(3 + 11 + 10 * 3 + 2, simulator.getTotalProcessedInstruction(), name);
+            assertEquals(0, simulator.getInstructionTypeCount()[5], name);
+        }
+    }
+}